@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.benchmarks;
+
+import com.msd.gin.halyard.strategy.collections.BigHashSet;
+import com.msd.gin.halyard.strategy.collections.Sorter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the disk-backed collections used by ORDER BY, DISTINCT and the hash joins, each operation fills a new collection and reads it back.
+ * @author Adam Sotona (MSD)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CollectionsBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Long[] numbers;
+    private String[] strings;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(size);
+        numbers = new Long[size];
+        strings = new String[size];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = r.nextLong();
+            strings[i] = ModelTripleSource.NAMESPACE + "subject/" + r.nextInt(size);
+        }
+    }
+
+    @Benchmark
+    public long sorter() throws IOException {
+        long count = 0;
+        try (Sorter<Long> sorter = new Sorter<>(Long.MAX_VALUE, false)) {
+            for (Long n : numbers) {
+                sorter.add(n);
+            }
+            for (Map.Entry<Long, Long> me : sorter) {
+                count += me.getValue();
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long sorterWithLimit() throws IOException {
+        long count = 0;
+        try (Sorter<Long> sorter = new Sorter<>(100, false)) {
+            for (Long n : numbers) {
+                sorter.add(n);
+            }
+            for (Map.Entry<Long, Long> me : sorter) {
+                count += me.getValue();
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long bigHashSet() throws IOException {
+        long count = 0;
+        try (BigHashSet<String> set = new BigHashSet<>()) {
+            for (String s : strings) {
+                set.add(s);
+            }
+            for (String s : strings) {
+                if (set.contains(s)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
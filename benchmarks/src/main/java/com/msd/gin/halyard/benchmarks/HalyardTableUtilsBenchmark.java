@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.benchmarks;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the encoding of Statements into the HBase keys, of their parsing from the HBase Results and of the construction of the statement pattern scans.
+ * @author Adam Sotona (MSD)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HalyardTableUtilsBenchmark {
+
+    private IRI subj, pred, context;
+    private Literal obj;
+    private byte[] ntriples;
+    private Result result, contextResult;
+
+    @Setup
+    public void setup() {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        subj = vf.createIRI("http://whatever/subject/12345");
+        pred = vf.createIRI("http://whatever/predicate");
+        obj = vf.createLiteral("Lorem ipsum dolor sit amet, consectetur adipiscing elit", "en");
+        context = vf.createIRI("http://whatever/graph");
+        ntriples = "<http://whatever/subject/12345>".getBytes(StandardCharsets.UTF_8);
+        result = Result.create(new Cell[]{HalyardTableUtils.toKeyValues(subj, pred, obj, null)[0]});
+        contextResult = Result.create(new Cell[]{HalyardTableUtils.toKeyValues(subj, pred, obj, context)[3]});
+    }
+
+    @Benchmark
+    public KeyValue[] toKeyValues() {
+        return HalyardTableUtils.toKeyValues(subj, pred, obj, null);
+    }
+
+    @Benchmark
+    public KeyValue[] toKeyValuesWithContext() {
+        return HalyardTableUtils.toKeyValues(subj, pred, obj, context);
+    }
+
+    @Benchmark
+    public byte[] hashKey() {
+        return HalyardTableUtils.hashKey(ntriples);
+    }
+
+    @Benchmark
+    public List<Statement> parseStatements() {
+        return HalyardTableUtils.parseStatements(result);
+    }
+
+    @Benchmark
+    public List<Statement> parseStatementsWithContext() {
+        return HalyardTableUtils.parseStatements(contextResult);
+    }
+
+    @Benchmark
+    public Scan scanSubject() {
+        return HalyardTableUtils.scan(subj, null, null, null);
+    }
+
+    @Benchmark
+    public Scan scanPredicateObject() {
+        return HalyardTableUtils.scan(null, pred, obj, null);
+    }
+
+    @Benchmark
+    public Scan scanContextSubjectPredicate() {
+        return HalyardTableUtils.scan(subj, pred, null, context);
+    }
+}
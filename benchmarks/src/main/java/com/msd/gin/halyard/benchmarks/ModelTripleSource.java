@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.benchmarks;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+
+/**
+ * In-memory TripleSource over an indexed Model, so the benchmarks measure the query evaluation and not the storage.
+ * @author Adam Sotona (MSD)
+ */
+final class ModelTripleSource implements TripleSource {
+
+    static final String NAMESPACE = "http://whatever/";
+
+    private final Model model;
+
+    ModelTripleSource(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Generates a synthetic dataset, each subject has a type, a language tagged name, an integer value, a date,
+     * a link to another subject and every third subject has also a partner
+     * @param subjects int number of subjects
+     * @return Model
+     */
+    static Model generate(int subjects) {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI type = vf.createIRI(NAMESPACE, "Type"), otherType = vf.createIRI(NAMESPACE, "OtherType");
+        IRI name = vf.createIRI(NAMESPACE, "name"), value = vf.createIRI(NAMESPACE, "value"), date = vf.createIRI(NAMESPACE, "date");
+        IRI link = vf.createIRI(NAMESPACE, "link"), partner = vf.createIRI(NAMESPACE, "partner");
+        Model model = new LinkedHashModel();
+        for (int i = 0; i < subjects; i++) {
+            IRI subj = subject(i);
+            model.add(subj, RDF.TYPE, i % 10 == 0 ? otherType : type);
+            model.add(subj, name, vf.createLiteral("Name " + i, i % 2 == 0 ? "en" : "de"));
+            model.add(subj, value, vf.createLiteral(i));
+            model.add(subj, date, vf.createLiteral(String.format("2017-%02d-%02d", 1 + i % 12, 1 + i % 28), vf.createIRI("http://www.w3.org/2001/XMLSchema#date")));
+            model.add(subj, link, subject((7 * i + 1) % subjects));
+            if (i % 3 == 0) {
+                model.add(subj, partner, subject((i + 1) % subjects));
+            }
+        }
+        return model;
+    }
+
+    static IRI subject(int i) {
+        return SimpleValueFactory.getInstance().createIRI(NAMESPACE, "subject/" + i);
+    }
+
+    @Override
+    public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+        return new CloseableIteratorIteration<>(model.filter(subj, pred, obj, contexts).iterator());
+    }
+
+    @Override
+    public ValueFactory getValueFactory() {
+        return SimpleValueFactory.getInstance();
+    }
+}
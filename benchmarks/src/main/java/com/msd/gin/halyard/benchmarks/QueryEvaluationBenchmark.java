@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.benchmarks;
+
+import com.msd.gin.halyard.strategy.HalyardEvaluationStrategy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end benchmarks of the push evaluation strategy over an in-memory dataset, each operation evaluates the whole query and consumes all its results.
+ * @author Adam Sotona (MSD)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryEvaluationBenchmark {
+
+    private static final Map<String, String> QUERIES = new HashMap<>();
+    static {
+        QUERIES.put("star", "SELECT * WHERE {?s a :Type; :name ?name; :value ?value; :date ?date}");
+        QUERIES.put("chain", "SELECT * WHERE {?s :link ?l1 . ?l1 :link ?l2 . ?l2 :name ?name}");
+        QUERIES.put("filter", "SELECT ?s ?value WHERE {?s :value ?value FILTER (?value > 500 && ?value < 900)}");
+        QUERIES.put("optional", "SELECT * WHERE {?s a :Type OPTIONAL {?s :partner ?p}}");
+        QUERIES.put("union", "SELECT * WHERE {{?s a :OtherType} UNION {?s :partner ?p}}");
+        QUERIES.put("exists", "SELECT ?s WHERE {?s a :Type FILTER EXISTS {?s :partner ?p}}");
+        QUERIES.put("minus", "SELECT ?s WHERE {?s a :Type MINUS {?s :partner ?p}}");
+        QUERIES.put("orderBy", "SELECT ?s ?value WHERE {?s :value ?value} ORDER BY DESC(?value) LIMIT 10");
+        QUERIES.put("distinct", "SELECT DISTINCT ?l WHERE {?s :link ?l}");
+        QUERIES.put("groupBy", "SELECT ?l (COUNT(?s) AS ?c) WHERE {?s :link ?l} GROUP BY ?l");
+    }
+
+    @Param({"star", "chain", "filter", "optional", "union", "exists", "minus", "orderBy", "distinct", "groupBy"})
+    public String query;
+
+    @Param({"10000"})
+    public int subjects;
+
+    private ModelTripleSource source;
+    private TupleExpr expr;
+
+    @Setup
+    public void setup() {
+        source = new ModelTripleSource(ModelTripleSource.generate(subjects));
+        expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "PREFIX : <" + ModelTripleSource.NAMESPACE + ">\n" + QUERIES.get(query), null).getTupleExpr();
+    }
+
+    @Benchmark
+    public void evaluate(Blackhole blackhole) throws QueryEvaluationException {
+        HalyardEvaluationStrategy strategy = new HalyardEvaluationStrategy(source, null, null, -1);
+        try (CloseableIteration<BindingSet, QueryEvaluationException> iter = strategy.evaluate(expr, EmptyBindingSet.getInstance())) {
+            while (iter.hasNext()) {
+                blackhole.consume(iter.next());
+            }
+        }
+    }
+}
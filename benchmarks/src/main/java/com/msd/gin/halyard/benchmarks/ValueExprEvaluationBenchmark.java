@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.benchmarks;
+
+import com.msd.gin.halyard.strategy.HalyardEvaluationStrategy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the evaluation of typical FILTER expressions, each operation evaluates the expression for a single row.
+ * @author Adam Sotona (MSD)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ValueExprEvaluationBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({
+        "?value > 500",
+        "?value >= 100 && ?value < 200",
+        "?value IN (1, 2, 3, 500)",
+        "lang(?name) = \"en\"",
+        "regex(str(?name), \"^Name 1\")",
+        "contains(str(?s), \"/subject/1\")",
+        "isIRI(?link) && bound(?link)",
+        "?date < \"2017-06-01\"^^<http://www.w3.org/2001/XMLSchema#date>"})
+    public String filter;
+
+    private HalyardEvaluationStrategy strategy;
+    private ValueExpr condition;
+    private final List<BindingSet> rows = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        strategy = new HalyardEvaluationStrategy(new ModelTripleSource(new LinkedHashModel()), null, null, -1);
+        final ValueExpr[] found = new ValueExpr[1];
+        QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "SELECT * WHERE {?s ?p ?o FILTER (" + filter + ")}", null).getTupleExpr().visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(Filter node) throws RuntimeException {
+                found[0] = node.getCondition();
+            }
+        });
+        condition = found[0];
+        rows.clear();
+        QueryBindingSet row = null;
+        for (Statement st : ModelTripleSource.generate(ROWS)) {
+            if (row == null || !st.getSubject().equals(row.getValue("s"))) {
+                row = new QueryBindingSet();
+                row.addBinding("s", st.getSubject());
+                rows.add(row);
+            }
+            row.addBinding(st.getPredicate().getLocalName(), st.getObject());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int evaluate() {
+        int accepted = 0;
+        for (BindingSet bs : rows) {
+            try {
+                if (strategy.isTrue(condition, bs)) {
+                    accepted++;
+                }
+            } catch (ValueExprEvaluationException e) {
+                //type errors evaluate the filter as false
+            } catch (QueryEvaluationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return accepted;
+    }
+}
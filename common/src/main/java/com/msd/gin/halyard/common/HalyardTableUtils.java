@@ -23,8 +23,12 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -37,9 +41,15 @@ import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.regionserver.BloomType;
@@ -59,6 +69,7 @@ import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
 public final class HalyardTableUtils {
 
     private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
     private static final byte[] EMPTY = new byte[0];
     private static final byte[] CF_NAME = "e".getBytes(UTF8);
     private static final String MD_ALGORITHM = "SHA1";
@@ -93,6 +104,17 @@ public final class HalyardTableUtils {
      */
     public static final byte COSP_PREFIX = 5;
 
+    /**
+     * HBase key prefix for statistics delta counters
+     */
+    public static final byte STATS_DELTA_PREFIX = 6;
+
+    /**
+     * HBase key prefix for the table generation counter
+     */
+    public static final byte GENERATION_PREFIX = 7;
+
+    private static final byte[] GENERATION_KEY = new byte[] {GENERATION_PREFIX};
     private static final int PREFIXES = 3;
     private static final byte[] START_KEY = new byte[20];
     static final byte[] STOP_KEY = new byte[20];
@@ -174,6 +196,7 @@ public final class HalyardTableUtils {
             presplits = Arrays.copyOfRange(presplits, 1, presplits.length);
         }
         HTableDescriptor desc = table.getTableDescriptor();
+        long generation = getGeneration(table);
         table.close();
         try (Connection con = ConnectionFactory.createConnection(conf)) {
             try (Admin admin = con.getAdmin()) {
@@ -182,7 +205,10 @@ public final class HalyardTableUtils {
                 admin.createTable(desc, presplits);
             }
         }
-        return HalyardTableUtils.getTable(conf, desc.getTableName().getNameAsString(), false, 0);
+        HTable newTable = HalyardTableUtils.getTable(conf, desc.getTableName().getNameAsString(), false, 0);
+        //the generation continues from the truncated table so it never repeats
+        incrementGeneration(newTable, generation + 1);
+        return newTable;
     }
 
     static byte[][] calculateSplits(int splitBits) {
@@ -242,6 +268,86 @@ public final class HalyardTableUtils {
         return kv;
     }
 
+    /**
+     * Conversion method creating a statistics delta counter cell.
+     * Each statistics delta row collects counters of a single context (or of the whole dataset when the context is null)
+     * and each cell holds a triples count delta of a single predicate (or of all triples when the predicate is null)
+     * from a single source. Cells with an empty source are maintained by HBase increments.
+     * @param context optional context Resource
+     * @param pred optional predicate IRI
+     * @param source String identification of the source of the delta, may be empty
+     * @param delta long triples count delta
+     * @return KeyValue holding the delta as long value
+     */
+    public static KeyValue toStatsDeltaKeyValue(Resource context, IRI pred, String source, long delta) {
+        byte[] cb = context == null ? EMPTY : NTriplesUtil.toNTriplesString(context).getBytes(UTF8);
+        byte[] pb = pred == null ? EMPTY : NTriplesUtil.toNTriplesString(pred).getBytes(UTF8);
+        byte[] sb = source.getBytes(UTF8);
+        byte[] cq = ByteBuffer.allocate(pb.length + sb.length + 1).put(pb).put((byte)0).put(sb).array();
+        return new KeyValue(concat(STATS_DELTA_PREFIX, false, cb), CF_NAME, cq, Bytes.toBytes(delta));
+    }
+
+    /**
+     * Helper method counting a statement into the statistics deltas of the whole dataset and of the statement context
+     * @param deltas Map of triples count deltas per context and predicate, null keys stand for the whole dataset and for all predicates
+     * @param pred predicate IRI
+     * @param context optional context Resource
+     * @param delta long triples count delta
+     */
+    public static void countStatsDelta(Map<Resource, Map<IRI, long[]>> deltas, IRI pred, Resource context, long delta) {
+        for (Resource ctx : context == null ? new Resource[] {null} : new Resource[] {null, context}) {
+            Map<IRI, long[]> ctxDeltas = deltas.get(ctx);
+            if (ctxDeltas == null) {
+                ctxDeltas = new HashMap<>();
+                deltas.put(ctx, ctxDeltas);
+            }
+            for (IRI p : new IRI[] {null, pred}) {
+                long[] d = ctxDeltas.get(p);
+                if (d == null) {
+                    d = new long[1];
+                    ctxDeltas.put(p, d);
+                }
+                d[0] += delta;
+            }
+        }
+    }
+
+    /**
+     * Method constructing HBase Scan of all statistics delta counters
+     * @return HBase Scan instance
+     */
+    public static Scan statsDeltaScan() {
+        Scan scan = scan(new byte[]{STATS_DELTA_PREFIX}, new byte[]{STATS_DELTA_PREFIX + 1});
+        scan.setBatch(-1);
+        scan.setAllowPartialResults(false);
+        return scan;
+    }
+
+    /**
+     * Reads the table generation counter, which is incremented with every modification of the table data
+     * @param table HBase Table
+     * @return long table generation, 0 for a table without any recorded modification
+     * @throws IOException throws IOException in case of any HBase IO problems
+     */
+    public static long getGeneration(Table table) throws IOException {
+        Result res = table.get(new Get(GENERATION_KEY).addColumn(CF_NAME, EMPTY));
+        return res.isEmpty() ? 0 : Bytes.toLong(res.value());
+    }
+
+    /**
+     * Increments the table generation counter to mark a modification of the table data
+     * @param table HBase Table
+     * @return long new table generation
+     * @throws IOException throws IOException in case of any HBase IO problems
+     */
+    public static long incrementGeneration(Table table) throws IOException {
+        return incrementGeneration(table, 1);
+    }
+
+    private static long incrementGeneration(Table table, long amount) throws IOException {
+        return table.incrementColumnValue(GENERATION_KEY, CF_NAME, EMPTY, amount);
+    }
+
     /**
      * Method constructing HBase Scan from a Statement pattern, any of the arguments can be null
      * @param subj optional subject Resource
@@ -314,6 +420,47 @@ public final class HalyardTableUtils {
         }
     }
 
+    /**
+     * Method constructing single HBase Scan from a Statement pattern and multiple contexts, any of the pattern arguments can be null.
+     * Context index ranges of all the contexts are merged into one Scan by MultiRowRangeFilter.
+     * When the number of contexts exceeds maxContextRanges and the pattern is bound, the default indices are scanned with server-side filter of the contexts instead.
+     * In both cases the Scan may retrieve also Statements from other contexts with conflicting hashes.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param contexts non-empty Collection of non-null context Resources
+     * @param maxContextRanges maximal number of context index ranges merged into the Scan
+     * @return HBase Scan instance to retrieve all data potentially matching the Statement pattern in any of the contexts
+     * @throws IOException throws IOException in case of any problem with the filter construction
+     */
+    public static Scan scan(Resource subj, IRI pred, Value obj, Collection<? extends Resource> contexts, int maxContextRanges) throws IOException {
+        if (contexts.size() > maxContextRanges && (subj != null || pred != null || obj != null)) {
+            Scan scan = scan(subj, pred, obj, null);
+            StringBuilder regex = new StringBuilder("(?:");
+            for (Resource ctx : contexts) {
+                if (regex.length() > 3) regex.append('|');
+                //ISO-8859-1 maps the qualifier bytes to characters one to one
+                regex.append(Pattern.quote(new String(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8), ISO_8859_1)));
+            }
+            //context is serialized at the end of the qualifier
+            RegexStringComparator comparator = new RegexStringComparator(regex.append(")\\z").toString());
+            comparator.setCharset(ISO_8859_1);
+            scan.setFilter(new QualifierFilter(CompareFilter.CompareOp.EQUAL, comparator));
+            return scan;
+        }
+        List<MultiRowRangeFilter.RowRange> ranges = new ArrayList<>();
+        byte[] startRow = null, stopRow = null;
+        for (Resource ctx : contexts) {
+            Scan s = scan(subj, pred, obj, ctx);
+            ranges.add(new MultiRowRangeFilter.RowRange(s.getStartRow(), true, s.getStopRow(), false));
+            if (startRow == null || Bytes.compareTo(s.getStartRow(), startRow) < 0) startRow = s.getStartRow();
+            if (stopRow == null || Bytes.compareTo(s.getStopRow(), stopRow) > 0) stopRow = s.getStopRow();
+        }
+        Scan scan = scan(startRow, stopRow);
+        scan.setFilter(new MultiRowRangeFilter(ranges));
+        return scan;
+    }
+
     /**
      * Parser method returning all Statements from a single HBase Scan Result
      * @param res HBase Scan Result
@@ -354,6 +501,37 @@ public final class HalyardTableUtils {
         return scan;
     }
 
+    /**
+     * Helper method splitting HBase Scan by the region boundaries, so the sub-scans can run in parallel
+     * @param scan HBase Scan to split
+     * @param regionStartKeys sorted array of the table region start keys
+     * @return List of HBase Scans covering together the same key range as the original Scan
+     * @throws IOException throws IOException in case of any problem with the Scan copy
+     */
+    public static List<Scan> splitScan(Scan scan, byte[][] regionStartKeys) throws IOException {
+        List<Scan> scans = new ArrayList<>();
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = scan.getStopRow();
+        if (regionStartKeys != null) for (byte[] key : regionStartKeys) {
+            if (Bytes.compareTo(key, startRow) > 0 && (stopRow.length == 0 || Bytes.compareTo(key, stopRow) < 0)) {
+                Scan s = new Scan(scan);
+                s.setStartRow(startRow);
+                s.setStopRow(key);
+                scans.add(s);
+                startRow = key;
+            }
+        }
+        if (scans.isEmpty()) {
+            scans.add(scan);
+        } else {
+            Scan s = new Scan(scan);
+            s.setStartRow(startRow);
+            s.setStopRow(stopRow);
+            scans.add(s);
+        }
+        return scans;
+    }
+
     /**
      * Helper method concatenating keys
      * @param prefix key prefix byte
@@ -16,6 +16,9 @@
  */
 package com.msd.gin.halyard.common;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.hadoop.hbase.HColumnDescriptor;
@@ -29,6 +32,7 @@ import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
@@ -124,6 +128,65 @@ public class HalyardTableUtilsTest {
         }
     }
 
+    @Test
+    public void testGeneration() throws Exception {
+        try (HTable t = HalyardTableUtils.getTable(HBaseServerTestInstance.getInstanceConfig(), "generationTable", true, 0)) {
+            assertEquals(0, HalyardTableUtils.getGeneration(t));
+            assertEquals(1, HalyardTableUtils.incrementGeneration(t));
+            assertEquals(2, HalyardTableUtils.incrementGeneration(t));
+            assertEquals(2, HalyardTableUtils.getGeneration(t));
+            try (HTable truncated = HalyardTableUtils.truncateTable(t)) {
+                assertTrue(HalyardTableUtils.getGeneration(truncated) > 2);
+            }
+        }
+    }
+
+    @Test
+    public void testSplitScan() throws Exception {
+        Scan scan = HalyardTableUtils.scan(new byte[]{1, 5}, new byte[]{3});
+        List<Scan> scans = HalyardTableUtils.splitScan(scan, new byte[][]{new byte[0], new byte[]{1}, new byte[]{2}, new byte[]{2, 1}, new byte[]{3}, new byte[]{4}});
+        assertEquals(3, scans.size());
+        assertArrayEquals(new byte[]{1, 5}, scans.get(0).getStartRow());
+        assertArrayEquals(new byte[]{2}, scans.get(0).getStopRow());
+        assertArrayEquals(new byte[]{2}, scans.get(1).getStartRow());
+        assertArrayEquals(new byte[]{2, 1}, scans.get(1).getStopRow());
+        assertArrayEquals(new byte[]{2, 1}, scans.get(2).getStartRow());
+        assertArrayEquals(new byte[]{3}, scans.get(2).getStopRow());
+        assertEquals(scan.getBatch(), scans.get(2).getBatch());
+        assertSame(scan, HalyardTableUtils.splitScan(scan, new byte[][]{new byte[0], new byte[]{4}}).get(0));
+        assertSame(scan, HalyardTableUtils.splitScan(scan, null).get(0));
+    }
+
+    @Test
+    public void testMultiContextScan() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Resource subj = vf.createIRI("http://testMultiContextScan/subject/");
+        IRI pred = vf.createIRI("http://testMultiContextScan/pred/");
+        List<Resource> contexts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Resource ctx = vf.createIRI("http://testMultiContextScan/context/(" + i + ")");
+            contexts.add(ctx);
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(i), ctx)) {
+                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+            }
+        }
+        table.flushCommits();
+        List<Resource> selected = Arrays.asList(contexts.get(0), contexts.get(2), contexts.get(4));
+        assertEquals(3, countStatements(HalyardTableUtils.scan(subj, pred, null, selected, 10)));
+        assertEquals(3, countStatements(HalyardTableUtils.scan(subj, pred, null, selected, 2)));
+        assertEquals(3, countStatements(HalyardTableUtils.scan(null, pred, null, selected, 2)));
+    }
+
+    private static int countStatements(Scan scan) throws IOException {
+        int count = 0;
+        try (ResultScanner rs = table.getScanner(scan)) {
+            for (Result res : rs) {
+                count += HalyardTableUtils.parseStatements(res).size();
+            }
+        }
+        return count;
+    }
+
     @Test
     public void testNewInstance() {
         new HalyardTableUtils();
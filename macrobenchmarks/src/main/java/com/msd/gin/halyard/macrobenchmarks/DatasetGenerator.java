@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.macrobenchmarks;
+
+import java.util.Random;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+
+/**
+ * Deterministic generator of a synthetic university dataset modelled after the Lehigh University Benchmark (LUBM).
+ * Each university consists of departments with faculty, courses, undergraduate and graduate students and publications,
+ * the size of the dataset grows linearly with the number of universities (approximately 6000 statements per university)
+ * and the same scale and seed always produce the same statements in the same order.
+ * All the entities are typed explicitly with their most specific class, so the queries do not depend on any inference.
+ * @author Adam Sotona (MSD)
+ */
+public final class DatasetGenerator {
+
+    /**
+     * Namespace of the LUBM university ontology
+     */
+    public static final String UB = "http://swat.cse.lehigh.edu/onto/univ-bench.owl#";
+
+    static final int DEPARTMENTS = 5, FULL_PROFESSORS = 3, ASSOCIATE_PROFESSORS = 4, ASSISTANT_PROFESSORS = 3, COURSES = 20, GRADUATE_COURSES = 10, UNDERGRADUATE_STUDENTS = 80, GRADUATE_STUDENTS = 25, PUBLICATIONS = 3;
+
+    private static final ValueFactory SVF = SimpleValueFactory.getInstance();
+    private static final IRI UNIVERSITY = ub("University"), DEPARTMENT = ub("Department"), FULL_PROFESSOR = ub("FullProfessor"), ASSOCIATE_PROFESSOR = ub("AssociateProfessor"),
+            ASSISTANT_PROFESSOR = ub("AssistantProfessor"), COURSE = ub("Course"), GRADUATE_COURSE = ub("GraduateCourse"), UNDERGRADUATE_STUDENT = ub("UndergraduateStudent"),
+            GRADUATE_STUDENT = ub("GraduateStudent"), PUBLICATION = ub("Publication"), NAME = ub("name"), EMAIL = ub("emailAddress"), TELEPHONE = ub("telephone"),
+            SUB_ORGANIZATION_OF = ub("subOrganizationOf"), WORKS_FOR = ub("worksFor"), HEAD_OF = ub("headOf"), MEMBER_OF = ub("memberOf"), TEACHER_OF = ub("teacherOf"),
+            TAKES_COURSE = ub("takesCourse"), ADVISOR = ub("advisor"), TEACHING_ASSISTANT_OF = ub("teachingAssistantOf"), UNDERGRADUATE_DEGREE_FROM = ub("undergraduateDegreeFrom"),
+            MASTERS_DEGREE_FROM = ub("mastersDegreeFrom"), DOCTORAL_DEGREE_FROM = ub("doctoralDegreeFrom"), PUBLICATION_AUTHOR = ub("publicationAuthor"), AGE = ub("age");
+
+    private final int universities;
+    private final long seed;
+
+    /**
+     * Constructs the generator
+     * @param universities int number of the universities (the scale of the dataset)
+     * @param seed long seed of the random choices
+     */
+    public DatasetGenerator(int universities, long seed) {
+        if (universities < 1) {
+            throw new IllegalArgumentException("At least one university is required");
+        }
+        this.universities = universities;
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the LUBM ontology IRI of the given local name
+     * @param localName String local name
+     * @return IRI
+     */
+    public static IRI ub(String localName) {
+        return SVF.createIRI(UB, localName);
+    }
+
+    /**
+     * Returns IRI of the university
+     * @param u int university index
+     * @return IRI
+     */
+    public static IRI university(int u) {
+        return SVF.createIRI("http://www.University" + u + ".edu");
+    }
+
+    /**
+     * Returns IRI of the department
+     * @param u int university index
+     * @param d int department index
+     * @return IRI
+     */
+    public static IRI department(int u, int d) {
+        return SVF.createIRI("http://www.Department" + d + ".University" + u + ".edu");
+    }
+
+    /**
+     * Returns IRI of an entity of the department
+     * @param u int university index
+     * @param d int department index
+     * @param localName String local name of the entity, for example "GraduateCourse0"
+     * @return IRI
+     */
+    public static IRI entity(int u, int d, String localName) {
+        return SVF.createIRI("http://www.Department" + d + ".University" + u + ".edu/" + localName);
+    }
+
+    /**
+     * Generates all the statements into the given handler
+     * @param handler RDFHandler receiving the statements
+     * @throws RDFHandlerException in case of any problem reported by the handler
+     */
+    public void generate(RDFHandler handler) throws RDFHandlerException {
+        Random r = new Random(seed);
+        handler.startRDF();
+        for (int u = 0; u < universities; u++) {
+            IRI univ = university(u);
+            add(handler, univ, RDF.TYPE, UNIVERSITY);
+            add(handler, univ, NAME, SVF.createLiteral("University" + u));
+            for (int d = 0; d < DEPARTMENTS; d++) {
+                generateDepartment(handler, r, u, d);
+            }
+        }
+        handler.endRDF();
+    }
+
+    private void generateDepartment(RDFHandler handler, Random r, int u, int d) throws RDFHandlerException {
+        IRI dept = department(u, d);
+        add(handler, dept, RDF.TYPE, DEPARTMENT);
+        add(handler, dept, NAME, SVF.createLiteral("Department" + d));
+        add(handler, dept, SUB_ORGANIZATION_OF, university(u));
+        int faculty = FULL_PROFESSORS + ASSOCIATE_PROFESSORS + ASSISTANT_PROFESSORS;
+        IRI[] professors = new IRI[faculty];
+        for (int i = 0; i < faculty; i++) {
+            String kind;
+            IRI type;
+            int index;
+            if (i < FULL_PROFESSORS) {
+                kind = "FullProfessor";
+                type = FULL_PROFESSOR;
+                index = i;
+            } else if (i < FULL_PROFESSORS + ASSOCIATE_PROFESSORS) {
+                kind = "AssociateProfessor";
+                type = ASSOCIATE_PROFESSOR;
+                index = i - FULL_PROFESSORS;
+            } else {
+                kind = "AssistantProfessor";
+                type = ASSISTANT_PROFESSOR;
+                index = i - FULL_PROFESSORS - ASSOCIATE_PROFESSORS;
+            }
+            IRI prof = professors[i] = entity(u, d, kind + index);
+            add(handler, prof, RDF.TYPE, type);
+            person(handler, r, u, d, prof, kind + index);
+            add(handler, prof, WORKS_FOR, dept);
+            add(handler, prof, UNDERGRADUATE_DEGREE_FROM, university(r.nextInt(universities)));
+            add(handler, prof, MASTERS_DEGREE_FROM, university(r.nextInt(universities)));
+            add(handler, prof, DOCTORAL_DEGREE_FROM, university(r.nextInt(universities)));
+            for (int p = 0; p < PUBLICATIONS; p++) {
+                IRI pub = entity(u, d, kind + index + "/Publication" + p);
+                add(handler, pub, RDF.TYPE, PUBLICATION);
+                add(handler, pub, NAME, SVF.createLiteral("Publication" + p));
+                add(handler, pub, PUBLICATION_AUTHOR, prof);
+            }
+        }
+        add(handler, professors[0], HEAD_OF, dept);
+        IRI[] courses = new IRI[COURSES];
+        for (int i = 0; i < COURSES; i++) {
+            courses[i] = entity(u, d, "Course" + i);
+            add(handler, courses[i], RDF.TYPE, COURSE);
+            add(handler, courses[i], NAME, SVF.createLiteral("Course" + i));
+            add(handler, professors[i % faculty], TEACHER_OF, courses[i]);
+        }
+        IRI[] graduateCourses = new IRI[GRADUATE_COURSES];
+        for (int i = 0; i < GRADUATE_COURSES; i++) {
+            graduateCourses[i] = entity(u, d, "GraduateCourse" + i);
+            add(handler, graduateCourses[i], RDF.TYPE, GRADUATE_COURSE);
+            add(handler, graduateCourses[i], NAME, SVF.createLiteral("GraduateCourse" + i));
+            add(handler, professors[(i + COURSES) % faculty], TEACHER_OF, graduateCourses[i]);
+        }
+        for (int i = 0; i < UNDERGRADUATE_STUDENTS; i++) {
+            IRI student = entity(u, d, "UndergraduateStudent" + i);
+            add(handler, student, RDF.TYPE, UNDERGRADUATE_STUDENT);
+            person(handler, r, u, d, student, "UndergraduateStudent" + i);
+            add(handler, student, MEMBER_OF, dept);
+            add(handler, student, AGE, SVF.createLiteral(18 + r.nextInt(6)));
+            for (int c = 2 + r.nextInt(3); c > 0; c--) {
+                add(handler, student, TAKES_COURSE, courses[r.nextInt(COURSES)]);
+            }
+            if (r.nextInt(5) == 0) {
+                add(handler, student, ADVISOR, professors[r.nextInt(faculty)]);
+            }
+        }
+        for (int i = 0; i < GRADUATE_STUDENTS; i++) {
+            IRI student = entity(u, d, "GraduateStudent" + i);
+            add(handler, student, RDF.TYPE, GRADUATE_STUDENT);
+            person(handler, r, u, d, student, "GraduateStudent" + i);
+            add(handler, student, MEMBER_OF, dept);
+            add(handler, student, AGE, SVF.createLiteral(22 + r.nextInt(10)));
+            add(handler, student, UNDERGRADUATE_DEGREE_FROM, university(r.nextInt(universities)));
+            add(handler, student, ADVISOR, professors[r.nextInt(faculty)]);
+            for (int c = 1 + r.nextInt(3); c > 0; c--) {
+                add(handler, student, TAKES_COURSE, graduateCourses[r.nextInt(GRADUATE_COURSES)]);
+            }
+            if (r.nextInt(4) == 0) {
+                add(handler, student, TEACHING_ASSISTANT_OF, courses[r.nextInt(COURSES)]);
+            }
+        }
+    }
+
+    private static void person(RDFHandler handler, Random r, int u, int d, IRI person, String localName) throws RDFHandlerException {
+        add(handler, person, NAME, SVF.createLiteral(localName));
+        add(handler, person, EMAIL, SVF.createLiteral(localName + "@Department" + d + ".University" + u + ".edu"));
+        add(handler, person, TELEPHONE, SVF.createLiteral(String.format("%03d-%03d-%04d", r.nextInt(1000), r.nextInt(1000), r.nextInt(10000))));
+    }
+
+    private static void add(RDFHandler handler, Resource subj, IRI pred, Value obj) throws RDFHandlerException {
+        handler.handleStatement(SVF.createStatement(subj, pred, obj));
+    }
+}
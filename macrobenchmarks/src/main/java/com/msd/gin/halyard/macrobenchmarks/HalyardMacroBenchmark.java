@@ -0,0 +1,416 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.macrobenchmarks;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.sail.HBaseSail;
+import com.msd.gin.halyard.strategy.HalyardMetrics;
+import com.msd.gin.halyard.tools.HalyardBulkLoad;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesWriter;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+
+/**
+ * End-to-end SPARQL macro-benchmark of Halyard running against a local HBase mini-cluster.
+ * The benchmark generates a synthetic dataset of the given scale, loads it through the HBase SAIL and/or through the Bulk Load,
+ * and evaluates the fixed {@link QueryMix} against each loaded table: after the warmup rounds each query runs once alone to count its HBase calls
+ * and then the whole mix runs for the given rounds by each of the given numbers of concurrent clients, measuring the latency percentiles and the throughput.
+ * Result counts of each query must be the same in all the runs and in all the tables, any difference fails the benchmark.
+ * @author Adam Sotona (MSD)
+ */
+public final class HalyardMacroBenchmark extends Configured implements Tool {
+
+    private static final Logger LOG = Logger.getLogger(HalyardMacroBenchmark.class.getName());
+
+    static final String SAIL_TABLE = "benchmark_sail", BULK_TABLE = "benchmark_bulk";
+
+    private static Option newOption(String opt, String argName, String description) {
+        Option o = new Option(opt, null, argName != null, description);
+        o.setArgName(argName);
+        return o;
+    }
+
+    private static void printHelp(Options options) {
+        new HelpFormatter().printHelp(100, "macrobenchmark", "Runs SPARQL macro-benchmark of Halyard against a local HBase mini-cluster.", options, "Example: macrobenchmark [-Dhalyard.scan.parallelism=4] -s 10 -c 1,4,16 -o results.csv", true);
+    }
+
+    /**
+     * Main of the HalyardMacroBenchmark
+     * @param args String command line arguments
+     * @throws Exception throws Exception in case of any problem
+     */
+    public static void main(String[] args) throws Exception {
+        int ret = 1;
+        try {
+            ret = ToolRunner.run(new HalyardMacroBenchmark(), args);
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Benchmark failed", e);
+        }
+        //the mini-cluster threads would keep the JVM running
+        System.exit(ret);
+    }
+
+    /**
+     * Per query statistics of a single benchmark run
+     */
+    static final class QueryStats {
+        final String query;
+        final long[] latencies;
+        final long results;
+        final long[] calls;
+        final long scans;
+
+        QueryStats(String query, long[] latencies, long results, long[] calls, long scans) {
+            this.query = query;
+            this.latencies = latencies;
+            Arrays.sort(this.latencies);
+            this.results = results;
+            this.calls = calls;
+            this.scans = scans;
+        }
+
+        long percentile(double p) {
+            return latencies[Math.max(0, (int)Math.ceil(p * latencies.length) - 1)];
+        }
+
+        long mean() {
+            long sum = 0;
+            for (long l : latencies) {
+                sum += l;
+            }
+            return sum / latencies.length;
+        }
+    }
+
+    private final Map<String, Long> resultCounts = new LinkedHashMap<>();
+    private int mismatches = 0;
+
+    @Override
+    public int run(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(newOption("h", null, "Prints this help"));
+        options.addOption(newOption("v", null, "Prints version"));
+        options.addOption(newOption("s", "scale", "Optional number of the generated universities (approximately 6000 statements each), default 1"));
+        options.addOption(newOption("e", "seed", "Optional seed of the generated dataset, default 0"));
+        options.addOption(newOption("l", "load_method", "Optional load method sail, bulk or both (each loading its own table), default both"));
+        options.addOption(newOption("b", "split_bits", "Optional number of bits used to pre-split the tables, default 0"));
+        options.addOption(newOption("q", "queries", "Optional comma separated subset of the queries " + QueryMix.QUERIES.keySet() + ", default all"));
+        options.addOption(newOption("w", "warmup_rounds", "Optional number of the single client warmup rounds of the query mix, default 3"));
+        options.addOption(newOption("r", "rounds", "Optional number of the measured rounds of the query mix run by each client, default 5"));
+        options.addOption(newOption("c", "clients", "Optional comma separated numbers of the concurrent clients, default 1,4"));
+        options.addOption(newOption("o", "output_file", "Optional CSV file to write the results"));
+        try {
+            CommandLine cmd = new PosixParser().parse(options, args);
+            if (cmd.hasOption('h')) {
+                printHelp(options);
+                return -1;
+            }
+            if (cmd.hasOption('v')) {
+                Properties p = new Properties();
+                try (InputStream in = HalyardMacroBenchmark.class.getResourceAsStream("/META-INF/maven/com.msd.gin.halyard/halyard-macrobenchmarks/pom.properties")) {
+                    if (in != null) p.load(in);
+                }
+                System.out.println("Halyard Macro-Benchmark version " + p.getProperty("version", "unknown"));
+                return 0;
+            }
+            if (!cmd.getArgList().isEmpty()) throw new ParseException("Unknown arguments: " + cmd.getArgList().toString());
+            for (char c : "selbqwrco".toCharArray()) {
+                String s[] = cmd.getOptionValues(c);
+                if (s != null && s.length > 1)  throw new ParseException("Multiple values for option: " + c);
+            }
+            int scale = Integer.parseInt(cmd.getOptionValue('s', "1"));
+            long seed = Long.parseLong(cmd.getOptionValue('e', "0"));
+            String loadMethod = cmd.getOptionValue('l', "both");
+            if (!Arrays.asList("sail", "bulk", "both").contains(loadMethod)) throw new ParseException("Unknown load method: " + loadMethod);
+            int splitBits = Integer.parseInt(cmd.getOptionValue('b', "0"));
+            List<String> queries = new ArrayList<>(QueryMix.QUERIES.keySet());
+            if (cmd.hasOption('q')) {
+                queries = Arrays.asList(cmd.getOptionValue('q').split(","));
+                for (String q : queries) {
+                    if (!QueryMix.QUERIES.containsKey(q)) throw new ParseException("Unknown query: " + q);
+                }
+            }
+            int warmup = Integer.parseInt(cmd.getOptionValue('w', "3"));
+            int rounds = Integer.parseInt(cmd.getOptionValue('r', "5"));
+            if (rounds < 1) throw new ParseException("At least one measured round is required");
+            List<Integer> clients = new ArrayList<>();
+            for (String c : cmd.getOptionValue('c', "1,4").split(",")) {
+                clients.add(Integer.parseInt(c));
+            }
+
+            Configuration conf = HBaseConfiguration.create(HBaseServerTestInstance.getInstanceConfig());
+            //the SAIL tuning properties passed as generic -D options apply to the benchmarked tables
+            for (Map.Entry<String, String> me : getConf()) {
+                if (me.getKey().startsWith("halyard.")) {
+                    conf.set(me.getKey(), me.getValue());
+                }
+            }
+            File workDir = Files.createTempDirectory("halyard-macrobenchmark").toFile();
+            DatasetGenerator generator = new DatasetGenerator(scale, seed);
+            List<String> tables = new ArrayList<>();
+            List<String> report = new ArrayList<>();
+            if (!loadMethod.equals("bulk")) {
+                long time = System.currentTimeMillis();
+                long statements = loadSail(conf, generator, splitBits);
+                report.add(String.format(Locale.ENGLISH, "HBase SAIL loaded %d statements in %dms", statements, System.currentTimeMillis() - time));
+                tables.add(SAIL_TABLE);
+            }
+            if (!loadMethod.equals("sail")) {
+                File dataset = new File(workDir, "dataset.nt");
+                long statements = generate(generator, dataset);
+                long time = System.currentTimeMillis();
+                //the mapper heap must fit the Bulk Load sort buffer
+                if (ToolRunner.run(conf, new HalyardBulkLoad(), new String[]{"-D" + MRJobConfig.MAP_JAVA_OPTS + "=-Xmx2g", "-Dhalyard.table.splitbits=" + splitBits, dataset.toURI().toURL().toString(), new File(workDir, "hfiles").toURI().toURL().toString(), BULK_TABLE}) != 0) {
+                    throw new IOException("Bulk Load failed");
+                }
+                report.add(String.format(Locale.ENGLISH, "Bulk Load loaded %d statements in %dms", statements, System.currentTimeMillis() - time));
+                tables.add(BULK_TABLE);
+            }
+            try (PrintStream csv = cmd.hasOption('o') ? new PrintStream(new FileOutputStream(cmd.getOptionValue('o')), true, StandardCharsets.UTF_8.name()) : null) {
+                if (csv != null) {
+                    csv.println("table,clients,query,executions,results,mean_ms,p50_ms,p95_ms,p99_ms,max_ms,scans,scanner_opens,scanner_nexts,gets,queries_per_second");
+                }
+                for (String table : tables) {
+                    RpcCounter.install(conf, table);
+                    SailRepository rep = new SailRepository(new HBaseSail(conf, table, false, 0, true, 0, null));
+                    rep.initialize();
+                    try {
+                        benchmark(rep, table, queries, warmup, rounds, clients, report, csv);
+                    } finally {
+                        rep.shutDown();
+                    }
+                }
+            }
+            for (String line : report) {
+                System.out.println(line);
+            }
+            if (mismatches > 0) {
+                LOG.log(Level.SEVERE, "{0} query results did not match", mismatches);
+                return 1;
+            }
+            return 0;
+        } catch (Exception exp) {
+            System.out.println(exp.getMessage());
+            printHelp(options);
+            throw exp;
+        }
+    }
+
+    private static long generate(DatasetGenerator generator, File file) throws IOException {
+        final long count[] = new long[1];
+        try (OutputStream out = new FileOutputStream(file)) {
+            generator.generate(new NTriplesWriter(out) {
+                @Override
+                public void handleStatement(Statement st) throws RDFHandlerException {
+                    super.handleStatement(st);
+                    count[0]++;
+                }
+            });
+        }
+        return count[0];
+    }
+
+    private static long loadSail(Configuration conf, DatasetGenerator generator, int splitBits) throws SailException {
+        HBaseSail sail = new HBaseSail(conf, SAIL_TABLE, true, splitBits, true, 0, null);
+        sail.initialize();
+        try {
+            final SailConnection con = sail.getConnection();
+            try {
+                final long count[] = new long[1];
+                generator.generate(new AbstractRDFHandler() {
+                    @Override
+                    public void handleStatement(Statement st) throws RDFHandlerException {
+                        con.addStatement(st.getSubject(), st.getPredicate(), st.getObject());
+                        count[0]++;
+                    }
+                });
+                con.commit();
+                return count[0];
+            } finally {
+                con.close();
+            }
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static long evaluate(RepositoryConnection con, String query) {
+        long count = 0;
+        try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, QueryMix.QUERIES.get(query)).evaluate()) {
+            while (res.hasNext()) {
+                res.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private synchronized void checkResults(String table, String query, long results) {
+        Long expected = resultCounts.get(query);
+        if (expected == null) {
+            resultCounts.put(query, results);
+        } else if (expected != results) {
+            LOG.log(Level.SEVERE, "Query {0} returned {1} results from table {2}, expected {3}", new Object[]{query, results, table, expected});
+            mismatches++;
+        }
+    }
+
+    private void benchmark(final SailRepository rep, final String table, final List<String> queries, int warmup, final int rounds, List<Integer> clients, List<String> report, PrintStream csv) throws Exception {
+        try (RepositoryConnection con = rep.getConnection()) {
+            for (int i = 0; i < warmup; i++) {
+                for (String q : queries) {
+                    evaluate(con, q);
+                }
+            }
+            //each query runs alone to count its own HBase calls
+            Map<String, long[]> calls = new LinkedHashMap<>();
+            Map<String, Long> scans = new LinkedHashMap<>();
+            HalyardMetrics.Counter scansOpened = HalyardMetrics.counter("scan.opened");
+            for (String q : queries) {
+                long[] before = RpcCounter.snapshot();
+                long scansBefore = scansOpened.get();
+                checkResults(table, q, evaluate(con, q));
+                long[] after = RpcCounter.snapshot();
+                for (int i = 0; i < after.length; i++) {
+                    after[i] -= before[i];
+                }
+                calls.put(q, after);
+                scans.put(q, scansOpened.get() - scansBefore);
+            }
+            for (final int n : clients) {
+                final Map<String, List<Long>> latencies = new LinkedHashMap<>();
+                for (String q : queries) {
+                    latencies.put(q, Collections.synchronizedList(new ArrayList<Long>()));
+                }
+                ExecutorService executor = Executors.newFixedThreadPool(n);
+                List<Future<Void>> futures = new ArrayList<>();
+                long time = System.nanoTime();
+                for (int c = 0; c < n; c++) {
+                    final int client = c;
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            List<String> mix = new ArrayList<>(queries);
+                            Random random = new Random(client);
+                            try (RepositoryConnection con = rep.getConnection()) {
+                                for (int r = 0; r < rounds; r++) {
+                                    Collections.shuffle(mix, random);
+                                    for (String q : mix) {
+                                        long start = System.nanoTime();
+                                        long results = evaluate(con, q);
+                                        latencies.get(q).add(System.nanoTime() - start);
+                                        checkResults(table, q, results);
+                                    }
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                try {
+                    for (Future<Void> f : futures) {
+                        f.get();
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+                time = System.nanoTime() - time;
+                double qps = 1e9 * n * rounds * queries.size() / time;
+                report.add(String.format(Locale.ENGLISH, "%n%s, %d client(s), %.2f queries per second%n%-10s %10s %10s %10s %10s %10s %10s %8s %8s %8s %8s", table, n, qps, "query", "results", "mean_ms", "p50_ms", "p95_ms", "p99_ms", "max_ms", "scans", "opens", "nexts", "gets"));
+                List<Long> all = new ArrayList<>();
+                long total[] = new long[4], results = 0;
+                for (String q : queries) {
+                    long[] c = calls.get(q);
+                    QueryStats stats = new QueryStats(q, toArray(latencies.get(q)), resultCounts.get(q), c, scans.get(q));
+                    all.addAll(latencies.get(q));
+                    results += stats.results;
+                    total[0] += stats.scans;
+                    for (int i = 0; i < 3; i++) {
+                        total[i + 1] += c[i];
+                    }
+                    report.add(format(stats));
+                    if (csv != null) {
+                        csv.println(csv(table, n, stats, ""));
+                    }
+                }
+                QueryStats stats = new QueryStats("all", toArray(all), results, Arrays.copyOfRange(total, 1, 4), total[0]);
+                report.add(format(stats));
+                if (csv != null) {
+                    csv.println(csv(table, n, stats, String.format(Locale.ENGLISH, "%.2f", qps)));
+                }
+            }
+        }
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] a = new long[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+
+    private static String format(QueryStats s) {
+        return String.format(Locale.ENGLISH, "%-10s %10d %10.2f %10.2f %10.2f %10.2f %10.2f %10d %8d %8d %8d", s.query, s.results, s.mean() / 1e6, s.percentile(0.5) / 1e6, s.percentile(0.95) / 1e6, s.percentile(0.99) / 1e6, s.latencies[s.latencies.length - 1] / 1e6, s.scans, s.calls[0], s.calls[1], s.calls[2]);
+    }
+
+    private static String csv(String table, int clients, QueryStats s, String qps) {
+        return String.format(Locale.ENGLISH, "%s,%d,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%s", table, clients, s.query, s.latencies.length, s.results, s.mean() / 1e6, s.percentile(0.5) / 1e6, s.percentile(0.95) / 1e6, s.percentile(0.99) / 1e6, s.latencies[s.latencies.length - 1] / 1e6, s.scans, s.calls[0], s.calls[1], s.calls[2], qps);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.macrobenchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixed mix of SPARQL queries over the {@link DatasetGenerator} dataset.
+ * The mix follows the Lehigh University Benchmark queries (selective lookups, stars, chains and the triangular joins)
+ * and adds aggregation, optional, filter and distinct queries.
+ * All the queries refer only to the entities of the first university, so they are valid for any scale of the dataset.
+ * @author Adam Sotona (MSD)
+ */
+public final class QueryMix {
+
+    private static final String PREFIXES = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\nPREFIX ub: <" + DatasetGenerator.UB + ">\n";
+
+    /**
+     * Unmodifiable ordered map of the query names and SPARQL query strings
+     */
+    public static final Map<String, String> QUERIES;
+
+    static {
+        Map<String, String> q = new LinkedHashMap<>();
+        q.put("q1", "SELECT ?x WHERE {?x rdf:type ub:GraduateStudent . ?x ub:takesCourse <http://www.Department0.University0.edu/GraduateCourse0>}");
+        q.put("q2", "SELECT ?x ?y ?z WHERE {?x rdf:type ub:GraduateStudent . ?y rdf:type ub:University . ?z rdf:type ub:Department . ?x ub:memberOf ?z . ?z ub:subOrganizationOf ?y . ?x ub:undergraduateDegreeFrom ?y}");
+        q.put("q3", "SELECT ?x WHERE {?x rdf:type ub:Publication . ?x ub:publicationAuthor <http://www.Department0.University0.edu/AssistantProfessor0>}");
+        q.put("q4", "SELECT ?x ?y1 ?y2 ?y3 WHERE {?x rdf:type ub:AssociateProfessor . ?x ub:worksFor <http://www.Department0.University0.edu> . ?x ub:name ?y1 . ?x ub:emailAddress ?y2 . ?x ub:telephone ?y3}");
+        q.put("q5", "SELECT ?x WHERE {{?x rdf:type ub:UndergraduateStudent} UNION {?x rdf:type ub:GraduateStudent} ?x ub:memberOf <http://www.Department0.University0.edu>}");
+        q.put("q7", "SELECT ?x ?y WHERE {?x rdf:type ub:UndergraduateStudent . ?y rdf:type ub:Course . ?x ub:takesCourse ?y . <http://www.Department0.University0.edu/AssociateProfessor0> ub:teacherOf ?y}");
+        q.put("q8", "SELECT ?x ?y ?z WHERE {?x rdf:type ub:UndergraduateStudent . ?y rdf:type ub:Department . ?x ub:memberOf ?y . ?y ub:subOrganizationOf <http://www.University0.edu> . ?x ub:emailAddress ?z}");
+        q.put("q9", "SELECT ?x ?y ?z WHERE {?x rdf:type ub:UndergraduateStudent . ?y rdf:type ub:FullProfessor . ?z rdf:type ub:Course . ?x ub:advisor ?y . ?y ub:teacherOf ?z . ?x ub:takesCourse ?z}");
+        q.put("q12", "SELECT ?x ?y WHERE {?x rdf:type ub:FullProfessor . ?y rdf:type ub:Department . ?x ub:headOf ?y . ?y ub:subOrganizationOf <http://www.University0.edu>}");
+        q.put("q14", "SELECT ?x WHERE {?x rdf:type ub:UndergraduateStudent}");
+        q.put("aggregate", "SELECT ?d (COUNT(?x) AS ?students) (AVG(?age) AS ?avgAge) WHERE {?x rdf:type ub:UndergraduateStudent . ?x ub:memberOf ?d . ?x ub:age ?age} GROUP BY ?d ORDER BY DESC(?students) ?d LIMIT 10");
+        q.put("optional", "SELECT ?x ?n WHERE {?x ub:memberOf <http://www.Department0.University0.edu> . ?x ub:age ?age OPTIONAL {?x ub:advisor ?a . ?a ub:name ?n} FILTER (?age >= 21)}");
+        q.put("distinct", "SELECT DISTINCT ?u WHERE {?x ub:worksFor ?d . ?d ub:subOrganizationOf <http://www.University0.edu> . ?x ub:doctoralDegreeFrom ?u}");
+        for (Map.Entry<String, String> me : q.entrySet()) {
+            me.setValue(PREFIXES + me.getValue());
+        }
+        QUERIES = Collections.unmodifiableMap(q);
+    }
+
+    private QueryMix() {
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.macrobenchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+
+/**
+ * Region observer counting the region server calls served to the clients of the observed tables.
+ * The counters are static, so they are readable only when the region servers run in the same JVM (the HBase mini-cluster).
+ * @author Adam Sotona (MSD)
+ */
+public final class RpcCounter extends BaseRegionObserver {
+
+    static final AtomicLong SCANNER_OPENS = new AtomicLong(), SCANNER_NEXTS = new AtomicLong(), GETS = new AtomicLong();
+
+    /**
+     * Installs the observer to the given table
+     * @param conf Configuration of the HBase cluster
+     * @param tableName String name of the table
+     * @throws IOException in case of any HBase IO problem
+     */
+    public static void install(Configuration conf, String tableName) throws IOException {
+        TableName tn = TableName.valueOf(tableName);
+        try (Connection con = ConnectionFactory.createConnection(conf)) {
+            try (Admin admin = con.getAdmin()) {
+                HTableDescriptor desc = admin.getTableDescriptor(tn);
+                if (!desc.hasCoprocessor(RpcCounter.class.getName())) {
+                    desc.addCoprocessor(RpcCounter.class.getName());
+                    admin.disableTable(tn);
+                    admin.modifyTable(tn, desc);
+                    admin.enableTable(tn);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns actual values of the counters
+     * @return long array of the scanner opens, scanner next calls and gets
+     */
+    public static long[] snapshot() {
+        return new long[]{SCANNER_OPENS.get(), SCANNER_NEXTS.get(), GETS.get()};
+    }
+
+    @Override
+    public RegionScanner preScannerOpen(ObserverContext<RegionCoprocessorEnvironment> e, Scan scan, RegionScanner s) throws IOException {
+        SCANNER_OPENS.incrementAndGet();
+        return s;
+    }
+
+    @Override
+    public boolean preScannerNext(ObserverContext<RegionCoprocessorEnvironment> e, InternalScanner s, List<Result> result, int limit, boolean hasNext) throws IOException {
+        SCANNER_NEXTS.incrementAndGet();
+        return hasNext;
+    }
+
+    @Override
+    public void preGetOp(ObserverContext<RegionCoprocessorEnvironment> e, Get get, List<Cell> results) throws IOException {
+        GETS.incrementAndGet();
+    }
+}
@@ -25,6 +25,18 @@ public class HALYARD {
 
     public static final IRI NAMESPACE_PREFIX_PROPERTY = HALYARD.SVF.createIRI(NAMESPACE, "namespacePrefix");
 
+    public static final IRI CHARACTERISTIC_SET = SVF.createIRI(NAMESPACE, "characteristicSet");
+
+    public static final IRI MOST_COMMON_VALUES = SVF.createIRI(NAMESPACE, "mostCommonValues");
+
+    public static final IRI HISTOGRAM = SVF.createIRI(NAMESPACE, "histogram");
+
+    public static final IRI HISTOGRAM_TRIPLES = SVF.createIRI(NAMESPACE, "histogramTriples");
+
+    public static final IRI SAMPLE_RATE = SVF.createIRI(NAMESPACE, "sampleRate");
+
+    public static final IRI TRIPLES_ERROR_BOUND = SVF.createIRI(NAMESPACE, "triplesErrorBound");
+
     public final static IRI TABLE_NAME_PROPERTY = SVF.createIRI(NAMESPACE, "tableName");
 
     public final static IRI SPLITBITS_PROPERTY = SVF.createIRI(NAMESPACE, "splitBits");
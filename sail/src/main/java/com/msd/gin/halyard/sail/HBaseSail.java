@@ -20,30 +20,29 @@ import com.msd.gin.halyard.common.HalyardTableUtils;
 import com.msd.gin.halyard.strategy.HalyardEvaluationStrategy;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hbase.KeyValue;
-import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.HTable;
-import org.apache.hadoop.hbase.client.Put;
-import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Threads;
 import org.eclipse.rdf4j.IsolationLevel;
 import org.eclipse.rdf4j.IsolationLevels;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
-import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
-import org.eclipse.rdf4j.common.iteration.ExceptionConvertingIteration;
-import org.eclipse.rdf4j.common.iteration.TimeLimitIteration;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Namespace;
@@ -53,36 +52,14 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleNamespace;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
-import org.eclipse.rdf4j.model.vocabulary.SD;
-import org.eclipse.rdf4j.model.vocabulary.VOID;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
-import org.eclipse.rdf4j.query.algebra.QueryRoot;
-import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
-import org.eclipse.rdf4j.query.algebra.Var;
-import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
-import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedService;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedServiceResolver;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.RepositoryFederatedService;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.BindingAssigner;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.CompareOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.ConjunctiveConstraintSplitter;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.ConstantOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.DisjunctiveConstraintOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.FilterOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.IterativeEvaluationOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.OrderLimitOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryJoinOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryModelNormalizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.SameTermFilterOptimizer;
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy;
-import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
-import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
 import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
@@ -91,7 +68,8 @@ import org.eclipse.rdf4j.sail.UpdateContext;
 
 /**
  * HBaseSail is RDF storage implementation on top of Apache HBase.
- * It implements both interfaces - Sail and SailConnection.
+ * It serves independent {@link HBaseSailConnection}s over a shared HBase Connection.
+ * For direct embedded use it also implements SailConnection itself, backed by its own internal connection.
  * @author Adam Sotona (MSD)
  */
 public final class HBaseSail implements Sail, SailConnection, FederatedServiceResolver {
@@ -110,23 +88,96 @@ public final class HBaseSail implements Sail, SailConnection, FederatedServiceRe
 
     private static final Logger LOG = Logger.getLogger(HBaseSail.class.getName());
     private static final long STATUS_CACHING_TIMEOUT = 60000l;
-    private static final Base64.Encoder ENC = Base64.getUrlEncoder().withoutPadding();
-    private static final long DEFAULT_THRESHOLD = 1000l;
+
+    /**
+     * Configuration property of the size of the client-side write buffer in bytes (default is 8MB)
+     */
+    public static final String WRITE_BUFFER_SIZE = "halyard.write.buffer.size";
+
+    /**
+     * Configuration property of the number of threads flushing the write buffer in parallel (default is 4)
+     */
+    public static final String WRITE_THREADS = "halyard.write.threads";
+
+    /**
+     * Configuration property of the maximal number of parallel region sub-scans of each statement pattern scan (default is 1 for sequential scans)
+     */
+    public static final String SCAN_PARALLELISM = "halyard.scan.parallelism";
+
+    /**
+     * Configuration property of the maximal number of context index ranges merged into a single scan of multiple contexts (default is 1000),
+     * larger context lists are filtered from the default indices
+     */
+    public static final String SCAN_CONTEXT_RANGES = "halyard.scan.context.ranges";
+
+    /**
+     * Configuration property of the number of HBase Results asynchronously prefetched by each sequential statement pattern scan (default is 0 for no prefetch)
+     */
+    public static final String SCAN_PREFETCH = "halyard.scan.prefetch";
+
+    /**
+     * Configuration property of the memory size in bytes of the query result cache (default is 0 for no caching)
+     */
+    public static final String CACHE_SIZE = "halyard.cache.size";
+
+    /**
+     * Configuration property of the size in bytes of a single cached query result above which the result is spilled to local disk (default is 1MB)
+     */
+    public static final String CACHE_SPILL_SIZE = "halyard.cache.spill.size";
+
+    /**
+     * Configuration property of the local disk size in bytes of the spilled query results (default is 0 for no spilling)
+     */
+    public static final String CACHE_DISK_SIZE = "halyard.cache.disk.size";
+
+    /**
+     * Configuration property of the maximal number of Statements held by the cache of statement pattern scans (default is 0 for no caching)
+     */
+    public static final String PATTERN_CACHE_SIZE = "halyard.pattern.cache.size";
+
+    /**
+     * Configuration property of the time in milliseconds after which the statement pattern scans cache checks for modifications by other processes (default is 1000)
+     */
+    public static final String PATTERN_CACHE_TTL = "halyard.pattern.cache.ttl";
+
+    /**
+     * Configuration property of the maximal number of branches of each UNION evaluated in parallel (default is 10)
+     */
+    public static final String UNION_PARALLELISM = "halyard.union.parallelism";
+
+    /**
+     * Configuration property of the query evaluation time in milliseconds above which the query is logged with its resource accounting and optimized plan (default is -1 for no logging)
+     */
+    public static final String SLOW_QUERY_THRESHOLD = "halyard.query.slow.threshold";
 
     private final Configuration config;
     final String tableName;
     final boolean create;
     final boolean pushStrategy;
     final int splitBits;
-    final EvaluationStatistics statistics;
+    final HalyardEvaluationStatistics statistics;
     final int evaluationTimeout;
-    private boolean readOnly = false;
-    private long readOnlyTimestamp = -1;
-    private final Ticker ticker;
-
-    HTable table = null;
-
-    private final Map<String, Namespace> namespaces = new HashMap<>();
+    private volatile boolean readOnly = false;
+    private ScheduledExecutorService statusRefresher = null;
+    final Ticker ticker;
+
+    volatile HTable table = null;
+    Connection hConnection = null;
+    ExecutorService writePool = null;
+    long writeBufferSize;
+    ExecutorService scanPool = null;
+    int scanParallelism;
+    int scanContextRanges;
+    int scanPrefetch;
+    int unionParallelism;
+    long slowQueryThreshold = -1;
+    QueryResultCache resultCache = null;
+    PatternCache patternCache = null;
+    volatile byte[][] regionStartKeys = null;
+    private final HBaseSailConnection connection;
+    private final Set<HBaseSailConnection> activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<HBaseSailConnection, Boolean>());
+
+    final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
     private final Map<String, RepositoryFederatedService> federatedServices = new HashMap<>();
 
     /**
@@ -145,50 +196,10 @@ public final class HBaseSail implements Sail, SailConnection, FederatedServiceRe
         this.create = create;
         this.splitBits = splitBits;
         this.pushStrategy = pushStrategy;
-        this.statistics = new EvaluationStatistics() {
-            @Override
-            protected EvaluationStatistics.CardinalityCalculator createCardinalityCalculator() {
-                return new CardinalityCalculator() {
-                    @Override
-                    protected double getCardinality(StatementPattern sp) {
-                        Var contextVar = sp.getContextVar();
-                        IRI graphNode = contextVar == null || !contextVar.hasValue() ? HALYARD.STATS_ROOT_NODE : (IRI)contextVar.getValue();
-                        long triples = getTriplesCount(graphNode, -1l);
-                        if (triples > 0) {
-                            return triples
-                                    * subsetTriplesPart(graphNode, VOID_EXT.SUBJECT, sp.getSubjectVar(), triples)
-                                    * subsetTriplesPart(graphNode, VOID.PROPERTY, sp.getPredicateVar(), triples)
-                                    * subsetTriplesPart(graphNode, VOID_EXT.OBJECT, sp.getObjectVar(), triples);
-                        } else {
-                            return super.getCardinality(sp);
-                        }
-                    }
-
-                    private long getTriplesCount(IRI subjectNode, long defaultValue) {
-                        try (CloseableIteration<? extends Statement, SailException> ci = getStatements(subjectNode, VOID.TRIPLES, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
-                            if (ci.hasNext()) {
-                                Value v = ci.next().getObject();
-                                if (v instanceof Literal) try {
-                                    return ((Literal)v).longValue();
-                                } catch (NumberFormatException ignore) {}
-                                LOG.log(Level.WARNING, "Invalid statistics for:" + subjectNode);
-                            }
-                        }
-                        return defaultValue;
-                    }
-
-                    private double subsetTriplesPart(IRI graph, IRI partitionType, Var partitionVar, double total) {
-                        if (partitionVar == null || !partitionVar.hasValue()) {
-                            return 1.0;
-                        } else {
-                            return getTriplesCount(SimpleValueFactory.getInstance().createIRI(graph.stringValue() + "_" + partitionType.getLocalName() + "_" + ENC.encodeToString(HalyardTableUtils.hashKey(NTriplesUtil.toNTriplesString(partitionVar.getValue()).getBytes()))), DEFAULT_THRESHOLD) /total;
-                        }
-                    }
-                };
-            }
-        };
+        this.statistics = new HalyardEvaluationStatistics(this);
         this.evaluationTimeout = evaluationTimeout;
         this.ticker = ticker;
+        this.connection = new HBaseSailConnection(this);
     }
 
     @Override
@@ -204,6 +215,44 @@ public final class HBaseSail implements Sail, SailConnection, FederatedServiceRe
     public void initialize() throws SailException {
         try {
             table = HalyardTableUtils.getTable(config, tableName, create, splitBits);
+            //all connections share the same HBase Connection configured the same way as the table
+            //the HBaseSail properties can be also set in hbase-site.xml
+            Configuration cfg = table.getConfiguration();
+            hConnection = ConnectionFactory.createConnection(cfg);
+            int writeThreads = cfg.getInt(WRITE_THREADS, 4);
+            writePool = new ThreadPoolExecutor(writeThreads, writeThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), Threads.newDaemonThreadFactory("halyard-write"));
+            writeBufferSize = cfg.getLong(WRITE_BUFFER_SIZE, 8l * 1024 * 1024);
+            scanParallelism = cfg.getInt(SCAN_PARALLELISM, 1);
+            scanContextRanges = cfg.getInt(SCAN_CONTEXT_RANGES, 1000);
+            scanPrefetch = cfg.getInt(SCAN_PREFETCH, 0);
+            unionParallelism = cfg.getInt(UNION_PARALLELISM, HalyardEvaluationStrategy.DEFAULT_UNION_PARALLELISM);
+            slowQueryThreshold = cfg.getLong(SLOW_QUERY_THRESHOLD, -1);
+            long cacheSize = cfg.getLong(CACHE_SIZE, 0);
+            if (cacheSize > 0) {
+                resultCache = new QueryResultCache(cacheSize, cfg.getLong(CACHE_SPILL_SIZE, 1024 * 1024), cfg.getLong(CACHE_DISK_SIZE, 0));
+            }
+            long patternCacheSize = cfg.getLong(PATTERN_CACHE_SIZE, 0);
+            if (patternCacheSize > 0) {
+                patternCache = new PatternCache(this, patternCacheSize, cfg.getLong(PATTERN_CACHE_TTL, 1000));
+            }
+            if (scanParallelism > 1 || scanPrefetch > 0) {
+                scanPool = Executors.newCachedThreadPool(Threads.newDaemonThreadFactory("halyard-scan"));
+            }
+            refreshReadOnly();
+            refreshRegionStartKeys();
+            statusRefresher = Executors.newSingleThreadScheduledExecutor(Threads.newDaemonThreadFactory("halyard-status"));
+            statusRefresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshReadOnly();
+                        refreshRegionStartKeys();
+                    } catch (IOException ex) {
+                        //the last known table status is kept
+                        LOG.log(Level.WARNING, "Table status refresh failed", ex);
+                    }
+                }
+            }, STATUS_CACHING_TIMEOUT, STATUS_CACHING_TIMEOUT, TimeUnit.MILLISECONDS);
             try (CloseableIteration<? extends Statement, SailException> nsIter = getStatements(null, HALYARD.NAMESPACE_PREFIX_PROPERTY, null, true)) {
                 while (nsIter.hasNext()) {
                     Statement st = nsIter.next();
@@ -219,17 +268,41 @@ public final class HBaseSail implements Sail, SailConnection, FederatedServiceRe
         }
     }
 
+    /**
+     * Returns a new lightweight Table instance of the shared HBase Connection, the caller is responsible for closing it.
+     */
+    Table getTable() throws IOException {
+        return hConnection.getTable(table.getName());
+    }
+
+    /**
+     * Truncates the table, write buffers of the other connections continue to write into the new table.
+     */
+    synchronized void truncateTable() throws IOException {
+        table = HalyardTableUtils.truncateTable(table);
+        if (patternCache != null) {
+            patternCache.invalidate(-1);
+        }
+        refreshRegionStartKeys();
+    }
+
+    void connectionClosed(HBaseSailConnection con) {
+        activeConnections.remove(con);
+    }
+
     @Override
     public FederatedService getService(String serviceUrl) throws QueryEvaluationException {
         if (serviceUrl.startsWith(HALYARD.NAMESPACE)) {
             String federatedTable = serviceUrl.substring(HALYARD.NAMESPACE.length());
-            RepositoryFederatedService s = federatedServices.get(federatedTable);
-            if (s == null) {
-                s = new RepositoryFederatedService(new SailRepository(new HBaseSail(config, federatedTable, false, 0, true, evaluationTimeout, ticker)));
-                federatedServices.put(federatedTable, s);
-                s.initialize();
+            synchronized (federatedServices) {
+                RepositoryFederatedService s = federatedServices.get(federatedTable);
+                if (s == null) {
+                    s = new RepositoryFederatedService(new SailRepository(new HBaseSail(config, federatedTable, false, 0, true, evaluationTimeout, ticker)));
+                    federatedServices.put(federatedTable, s);
+                    s.initialize();
+                }
+                return s;
             }
-            return s;
         } else {
             throw new QueryEvaluationException("Unsupported service URL: " + serviceUrl);
         }
@@ -237,31 +310,72 @@ public final class HBaseSail implements Sail, SailConnection, FederatedServiceRe
 
     @Override
     public void shutDown() throws SailException {
+        for (HBaseSailConnection con : activeConnections) {
+            LOG.log(Level.WARNING, "Closing active connection during {0} shutdown", tableName);
+            con.close();
+        }
+        //the internal connection only releases its write buffer, so it remains usable after re-initialization
+        connection.close();
         try {
+            statusRefresher.shutdownNow();
+            statusRefresher = null;
+            writePool.shutdown();
+            writePool = null;
+            if (scanPool != null) {
+                scanPool.shutdownNow();
+                scanPool = null;
+            }
+            if (resultCache != null) {
+                resultCache.clear();
+                resultCache = null;
+            }
+            if (patternCache != null) {
+                LOG.log(Level.INFO, "{0} {1}", new Object[]{tableName, patternCache});
+                patternCache = null;
+            }
+            hConnection.close();
+            hConnection = null;
             table.close();
             table = null;
         } catch (IOException ex) {
             throw new SailException(ex);
         }
-        for (RepositoryFederatedService s : federatedServices.values()) {
-            s.shutdown();
+        synchronized (federatedServices) {
+            for (RepositoryFederatedService s : federatedServices.values()) {
+                s.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Reads the actual table status from HBase master.
+     * It is called once by initialize() and then by the background status refresher, so the write path never waits for the master RPC.
+     */
+    private void refreshReadOnly() throws IOException {
+        readOnly = table.getTableDescriptor().isReadOnly();
+    }
+
+    /**
+     * Reads the actual region boundaries used to split wide scans, it is also called by the background status refresher.
+     */
+    private void refreshRegionStartKeys() throws IOException {
+        if (scanParallelism > 1) {
+            regionStartKeys = table.getRegionLocator().getStartKeys();
         }
     }
 
     @Override
     public boolean isWritable() throws SailException {
-        if (readOnlyTimestamp + STATUS_CACHING_TIMEOUT < System.currentTimeMillis()) try {
-            readOnly = table.getTableDescriptor().isReadOnly();
-            readOnlyTimestamp = System.currentTimeMillis();
-        } catch (IOException ex) {
-            throw new SailException(ex);
-        }
+        //the status is read in initialize() and then refreshed in background
         return !readOnly;
     }
 
     @Override
     public SailConnection getConnection() throws SailException {
-        return this;
+        if (!isOpen()) throw new SailException(tableName + " is not initialized");
+        HBaseSailConnection con = new HBaseSailConnection(this);
+        activeConnections.add(con);
+        return con;
     }
 
     @Override
@@ -286,386 +400,135 @@ public final class HBaseSail implements Sail, SailConnection, FederatedServiceRe
 
     @Override
     public void close() throws SailException {
-    }
-
-    private static Resource[] normalizeContexts(Resource... contexts) {
-        if (contexts == null || contexts.length == 0) {
-            return new Resource[] {null};
-        } else {
-            return contexts;
-        }
+        //the internal connection is closed by shutDown
     }
 
     @Override
-    public CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, final boolean includeInferred) throws SailException {
-        tupleExpr = tupleExpr.clone();
-        if (!(tupleExpr instanceof QueryRoot)) {
-            // Add a dummy root node to the tuple expressions to allow the
-            // optimizers to modify the actual root node
-            tupleExpr = new QueryRoot(tupleExpr);
-        }
-        final long startTime = System.currentTimeMillis();
-        TripleSource source = new TripleSource() {
-            @Override
-            public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
-                try {
-                    return new ExceptionConvertingIteration<Statement, QueryEvaluationException>(new StatementScanner(startTime, subj, pred, obj, contexts)) {
-                        @Override
-                        protected QueryEvaluationException convert(Exception e) {
-                            return new QueryEvaluationException(e);
-                        }
-
-                    };
-                } catch (SailException ex) {
-                    throw new QueryEvaluationException(ex);
-                }
-            }
-
-            @Override
-            public ValueFactory getValueFactory() {
-                return SimpleValueFactory.getInstance();
-            }
-        };
-
-        EvaluationStrategy strategy = pushStrategy ? new HalyardEvaluationStrategy(source, dataset, this, evaluationTimeout) : new StrictEvaluationStrategy(source, dataset, this);
-
-        new BindingAssigner().optimize(tupleExpr, dataset, bindings);
-        new ConstantOptimizer(strategy).optimize(tupleExpr, dataset, bindings);
-        new CompareOptimizer().optimize(tupleExpr, dataset, bindings);
-        new ConjunctiveConstraintSplitter().optimize(tupleExpr, dataset, bindings);
-        new DisjunctiveConstraintOptimizer().optimize(tupleExpr, dataset, bindings);
-        new SameTermFilterOptimizer().optimize(tupleExpr, dataset, bindings);
-        new QueryModelNormalizer().optimize(tupleExpr, dataset, bindings);
-        new QueryJoinOptimizer(statistics).optimize(tupleExpr, dataset, bindings);
-        // new SubSelectJoinOptimizer().optimize(tupleExpr, dataset, bindings);
-        new IterativeEvaluationOptimizer().optimize(tupleExpr, dataset, bindings);
-        new FilterOptimizer().optimize(tupleExpr, dataset, bindings);
-        new OrderLimitOptimizer().optimize(tupleExpr, dataset, bindings);
+    public CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred) throws SailException {
+        return connection.evaluate(tupleExpr, dataset, bindings, includeInferred);
+    }
 
-        try {
-            CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = strategy.evaluate(tupleExpr, EmptyBindingSet.getInstance());
-            return evaluationTimeout <= 0 ? iter : new TimeLimitIteration<BindingSet, QueryEvaluationException>(iter, 1000l * evaluationTimeout) {
-                @Override
-                protected void throwInterruptedException() throws QueryEvaluationException {
-                    throw new QueryEvaluationException("Query evaluation exceeded specified timeout " + evaluationTimeout + "s");
-                }
-            };
-        } catch (QueryEvaluationException ex) {
-            throw new SailException(ex);
-        }
+    /**
+     * Explains the query plan, see {@link HBaseSailConnection#explain(TupleExpr, Dataset, BindingSet, boolean, boolean)}
+     * @param tupleExpr TupleExpr of the query
+     * @param dataset optional Dataset
+     * @param bindings BindingSet
+     * @param includeInferred boolean
+     * @param analyze boolean true to evaluate the query and collect the actual statistics
+     * @return String optimized query plan with one annotated node per line
+     * @throws SailException throws SailException in case of the evaluation problem
+     */
+    public String explain(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred, boolean analyze) throws SailException {
+        return connection.explain(tupleExpr, dataset, bindings, includeInferred, analyze);
     }
 
     @Override
     public CloseableIteration<? extends Resource, SailException> getContextIDs() throws SailException {
-        final CloseableIteration<? extends Statement, SailException> scanner = getStatements(HALYARD.STATS_ROOT_NODE, SD.NAMED_GRAPH_PROPERTY, null, true, HALYARD.STATS_GRAPH_CONTEXT);
-        return new CloseableIteration<Resource, SailException>() {
-            @Override
-            public void close() throws SailException {
-                scanner.close();
-            }
-
-            @Override
-            public boolean hasNext() throws SailException {
-                return scanner.hasNext();
-            }
-
-            @Override
-            public Resource next() throws SailException {
-                return (IRI)scanner.next().getObject();
-            }
-
-            @Override
-            public void remove() throws SailException {
-                throw new UnsupportedOperationException();
-            }
-
-        };
+        return connection.getContextIDs();
     }
 
     @Override
     public CloseableIteration<? extends Statement, SailException> getStatements(Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws SailException {
-        return new StatementScanner(System.currentTimeMillis(), subj, pred, obj, contexts);
+        return connection.getStatements(subj, pred, obj, includeInferred, contexts);
     }
 
     @Override
-    public synchronized long size(Resource... contexts) throws SailException {
-        long size = 0;
-        if (contexts != null && contexts.length > 0 && contexts[0] != null) {
-            for (Resource ctx : contexts) {
-                try (CloseableIteration<? extends Statement, SailException> scanner = getStatements(ctx, VOID.TRIPLES, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
-                    if (scanner.hasNext()) {
-                        size += ((Literal)scanner.next().getObject()).longValue();
-                    }
-                    if (scanner.hasNext()) {
-                        throw new SailException("Multiple different values");
-                    }
-                }
-            }
-        } else {
-            try (CloseableIteration<? extends Statement, SailException> scanner = getStatements(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
-                if (scanner.hasNext()) {
-                    size += ((Literal)scanner.next().getObject()).longValue();
-                }
-                if (scanner.hasNext()) {
-                    throw new SailException("Multiple different values");
-                }
-            }
-        }
-        return size;
+    public long size(Resource... contexts) throws SailException {
+        return connection.size(contexts);
     }
 
     @Override
     public void begin() throws SailException {
+        connection.begin();
     }
 
     @Override
     public void begin(IsolationLevel level) throws UnknownSailTransactionStateException, SailException {
-        if (level != null && level != IsolationLevels.NONE) {
-            throw new UnknownSailTransactionStateException("Isolation level " + level + " is not compatible with this HBaseSail");
-        }
+        connection.begin(level);
     }
 
     @Override
     public void flush() throws SailException {
+        connection.flush();
     }
 
     @Override
     public void prepare() throws SailException {
+        connection.prepare();
     }
 
     @Override
     public void commit() throws SailException {
-        try {
-            table.flushCommits();
-        } catch (IOException ex) {
-            throw new SailException(ex);
-        }
+        connection.commit();
     }
 
     @Override
     public void rollback() throws SailException {
-        throw new UnsupportedOperationException();
+        connection.rollback();
     }
 
     @Override
     public boolean isActive() throws UnknownSailTransactionStateException {
-        return true;
+        return connection.isActive();
     }
 
     @Override
     public void addStatement(UpdateContext op, Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
-        addStatement(subj, pred, obj, contexts);
+        connection.addStatement(op, subj, pred, obj, contexts);
     }
 
     @Override
     public void addStatement(Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
-        for (Resource ctx : normalizeContexts(contexts)) {
-            addStatementInternal(subj, pred, obj, ctx);
-        }
-    }
-
-    private void addStatementInternal(Resource subj, IRI pred, Value obj, Resource context) throws SailException {
-        if (!isWritable()) throw new SailException(tableName + " is read only");
-        try {
-            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, context)) {
-                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
-            }
-        } catch (IOException e) {
-            throw new SailException(e);
-        }
+        connection.addStatement(subj, pred, obj, contexts);
     }
 
     @Override
     public void removeStatement(UpdateContext op, Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
-        if (!isWritable()) throw new SailException(tableName + " is read only");
-        try {
-            List<Delete> deletes = new ArrayList<>();
-            for (Resource ctx : normalizeContexts(contexts)) {
-                for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, ctx)) {
-                    deletes.add(new Delete(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()).addColumn(kv.getFamily(), kv.getQualifier()));
-                }
-            }
-            table.delete(deletes);
-        } catch (IOException e) {
-            throw new SailException(e);
-        }
+        connection.removeStatement(op, subj, pred, obj, contexts);
     }
 
     @Override
     public void removeStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
-        if (!isWritable()) throw new SailException(tableName + " is read only");
-        contexts = normalizeContexts(contexts);
-        if (subj == null && pred == null && obj == null && contexts[0] == null) {
-            clearAll();
-        } else {
-            try (CloseableIteration<? extends Statement, SailException> iter = getStatements(subj, pred, obj, true, contexts)) {
-                while (iter.hasNext()) {
-                    Statement st = iter.next();
-                    removeStatement(null, st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
-                }
-            }
-        }
+        connection.removeStatements(subj, pred, obj, contexts);
     }
 
     @Override
     public void startUpdate(UpdateContext op) throws SailException {
+        connection.startUpdate(op);
     }
 
     @Override
     public void endUpdate(UpdateContext op) throws SailException {
+        connection.endUpdate(op);
     }
 
     @Override
     public void clear(Resource... contexts) throws SailException {
-        removeStatements(null, null, null, contexts);
-    }
-
-    private void clearAll() throws SailException {
-        if (!isWritable()) throw new SailException(tableName + " is read only");
-        try {
-            table = HalyardTableUtils.truncateTable(table);
-        } catch (IOException ex) {
-            throw new SailException(ex);
-        }
+        connection.clear(contexts);
     }
 
     @Override
     public String getNamespace(String prefix) throws SailException {
-        Namespace namespace = namespaces.get(prefix);
-        return (namespace == null) ? null : namespace.getName();
+        return connection.getNamespace(prefix);
     }
 
     @Override
     public CloseableIteration<? extends Namespace, SailException> getNamespaces() {
-        return new CloseableIteratorIteration<>(namespaces.values().iterator());
+        return connection.getNamespaces();
     }
 
     @Override
     public void setNamespace(String prefix, String name) throws SailException {
-        Namespace oldNS = namespaces.put(prefix, new SimpleNamespace(prefix, name));
-        ValueFactory vf = SimpleValueFactory.getInstance();
-        try {
-            if (oldNS != null) {
-                removeStatement(null, vf.createIRI(oldNS.getName()), HALYARD.NAMESPACE_PREFIX_PROPERTY, vf.createLiteral(prefix));
-            }
-            addStatementInternal(vf.createIRI(name), HALYARD.NAMESPACE_PREFIX_PROPERTY, vf.createLiteral(prefix), null);
-        } catch (SailException e) {
-            LOG.log(Level.WARNING, "Namespace prefix could not be presisted due to an exception", e);
-        }
+        connection.setNamespace(prefix, name);
     }
 
     @Override
     public void removeNamespace(String prefix) throws SailException {
-        ValueFactory vf = SimpleValueFactory.getInstance();
-        Namespace ns = namespaces.remove(prefix);
-        if (ns != null) try {
-            removeStatement(null, vf.createIRI(ns.getName()), HALYARD.NAMESPACE_PREFIX_PROPERTY, vf.createLiteral(prefix));
-        } catch (SailException e) {
-            LOG.log(Level.WARNING, "Namespace prefix could not be removed due to an exception", e);
-        }
+        connection.removeNamespace(prefix);
     }
 
     @Override
     public void clearNamespaces() throws SailException {
-        try {
-            removeStatements(null, HALYARD.NAMESPACE_PREFIX_PROPERTY, null);
-        } catch (SailException e) {
-            LOG.log(Level.WARNING, "Namespaces could not be cleared due to an exception", e);
-        }
-        namespaces.clear();
-    }
-
-    private class StatementScanner implements CloseableIteration<Statement, SailException> {
-
-        private final Resource subj;
-        private final IRI pred;
-        private final Value obj;
-        private final Iterator<Resource> contexts;
-        private ResultScanner rs = null;
-        private final long endTime;
-        private Statement next = null;
-        private Iterator<Statement> iter = null;
-
-        public StatementScanner(long startTime, Resource subj, IRI pred, Value obj, Resource...contexts) throws SailException {
-            this.subj = subj;
-            this.pred = pred;
-            this.obj = obj;
-            this.contexts = Arrays.asList(normalizeContexts(contexts)).iterator();
-            this.endTime = startTime + (1000l * evaluationTimeout);
-        }
-
-        private Result nextResult() throws IOException {
-            while (true) {
-                if (rs == null) {
-                    if (contexts.hasNext()) {
-                        rs = table.getScanner(HalyardTableUtils.scan(subj, pred, obj, contexts.next()));
-                    } else {
-                        return null;
-                    }
-                }
-                Result res = rs.next();
-                if (ticker != null) ticker.tick();
-                if (res == null) {
-                    rs.close();
-                    rs = null;
-                } else {
-                    return res;
-                }
-            }
-        }
-
-        @Override
-        public void close() throws SailException {
-            if (rs != null) {
-                rs.close();
-            }
-        }
-
-        @Override
-        public synchronized boolean hasNext() throws SailException {
-            if (evaluationTimeout > 0 && System.currentTimeMillis() > endTime) {
-                throw new SailException("Statements scanning exceeded specified timeout " + evaluationTimeout + "s");
-            }
-            if (next == null) try {
-                while (true) {
-                    if (iter == null) {
-                        Result res = nextResult();
-                        if (res == null) {
-                            return false;
-                        } else {
-                            iter = HalyardTableUtils.parseStatements(res).iterator();
-                        }
-                    }
-                    while (iter.hasNext()) {
-                        Statement s = iter.next();
-                        if ((subj == null || subj.equals(s.getSubject())) && (pred == null || pred.equals(s.getPredicate())) && (obj == null || obj.equals(s.getObject()))) {
-                            next = s;
-                            return true;
-                        }
-                    }
-                    iter = null;
-                }
-            } catch (IOException e) {
-                throw new SailException(e);
-            } else {
-                return true;
-            }
-        }
-
-        @Override
-        public synchronized Statement next() throws SailException {
-            if (hasNext()) {
-                Statement st = next;
-                next = null;
-                return st;
-            } else {
-                throw new NoSuchElementException();
-            }
-        }
-
-        @Override
-        public void remove() throws SailException {
-            throw new UnsupportedOperationException();
-        }
+        connection.clearNamespaces();
     }
 }
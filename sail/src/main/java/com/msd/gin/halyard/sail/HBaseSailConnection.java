@@ -0,0 +1,1027 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import com.msd.gin.halyard.strategy.HalyardEvaluationStrategy;
+import com.msd.gin.halyard.strategy.HalyardMetrics;
+import com.msd.gin.halyard.strategy.QueryAccounting;
+import com.msd.gin.halyard.strategy.QueryProfile;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.eclipse.rdf4j.IsolationLevel;
+import org.eclipse.rdf4j.IsolationLevels;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.ExceptionConvertingIteration;
+import org.eclipse.rdf4j.common.iteration.IterationWrapper;
+import org.eclipse.rdf4j.common.iteration.TimeLimitIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Namespace;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleNamespace;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.SD;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.DescribeOperator;
+import org.eclipse.rdf4j.query.algebra.MultiProjection;
+import org.eclipse.rdf4j.query.algebra.Projection;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.Reduced;
+import org.eclipse.rdf4j.query.algebra.Slice;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.BindingAssigner;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.CompareOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.ConjunctiveConstraintSplitter;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.ConstantOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.DisjunctiveConstraintOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.FilterOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.IterativeEvaluationOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.OrderLimitOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryModelNormalizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.SameTermFilterOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.UnknownSailTransactionStateException;
+import org.eclipse.rdf4j.sail.UpdateContext;
+
+/**
+ * HBaseSailConnection is a lightweight SailConnection to the HBaseSail.
+ * All connections share the HBase Connection and the namespaces of the HBaseSail, each connection has its own write buffer.
+ * @author Adam Sotona (MSD)
+ */
+public final class HBaseSailConnection implements SailConnection {
+
+    private static final Logger LOG = Logger.getLogger(HBaseSailConnection.class.getName());
+    private static final int SCAN_BUFFER_SIZE = 1000;
+    private static final Set<String> GRAPH_BINDING_NAMES = new HashSet<>(Arrays.asList("subject", "predicate", "object", "context"));
+    private static final HalyardMetrics.Counter SCANS_OPENED = HalyardMetrics.counter("scan.opened");
+    private static final HalyardMetrics.Counter SCAN_RESULTS = HalyardMetrics.counter("scan.results");
+    private static final HalyardMetrics.Counter SCAN_BYTES = HalyardMetrics.counter("scan.bytes");
+    private static final HalyardMetrics.Histogram SCAN_LATENCY = HalyardMetrics.histogram("scan.latency.ms");
+    private static final HalyardMetrics.Histogram WRITE_BATCH = HalyardMetrics.histogram("write.batch.statements");
+    private static final HalyardMetrics.Histogram FLUSH_LATENCY = HalyardMetrics.histogram("write.flush.latency.ms");
+
+    private final HBaseSail sail;
+    private volatile boolean open = true;
+
+    private BufferedMutator mutator = null;
+    private boolean pendingDeletes = false;
+    private volatile RetriesExhaustedWithDetailsException writeException = null;
+    private long writtenStatements = 0, writeStartTime = -1;
+    private boolean modified = false;
+    private final Map<Resource, Map<IRI, long[]>> statsDeltas = new HashMap<>();
+
+    HBaseSailConnection(HBaseSail sail) {
+        this.sail = sail;
+    }
+
+    /**
+     * The write buffer is created with the first write, so read-only connections remain cheap.
+     */
+    private BufferedMutator getMutator() throws IOException {
+        if (mutator == null) {
+            BufferedMutatorParams params = new BufferedMutatorParams(sail.table.getName())
+                    .writeBufferSize(sail.writeBufferSize)
+                    .pool(sail.writePool)
+                    .listener(new BufferedMutator.ExceptionListener() {
+                        @Override
+                        public void onException(RetriesExhaustedWithDetailsException exception, BufferedMutator mutator) {
+                            //failed asynchronous writes are reported by the next write or commit
+                            LOG.log(Level.WARNING, "Asynchronous write failed", exception);
+                            writeException = exception;
+                        }
+                    });
+            mutator = sail.hConnection.getBufferedMutator(params);
+        }
+        return mutator;
+    }
+
+    /**
+     * Sends the mutations through the asynchronous write buffer.
+     * Puts and Deletes are never mixed in the buffer to keep their order.
+     */
+    private synchronized void mutate(List<? extends Mutation> mutations, boolean delete) throws IOException {
+        BufferedMutator m = getMutator();
+        if (delete != pendingDeletes) {
+            m.flush();
+            pendingDeletes = delete;
+        }
+        checkWriteException();
+        if (writeStartTime < 0) {
+            writeStartTime = System.currentTimeMillis();
+            if (sail.patternCache != null) {
+                sail.patternCache.invalidate(-1);
+            }
+        }
+        m.mutate(mutations);
+        writtenStatements++;
+        modified = true;
+    }
+
+    private void checkWriteException() throws IOException {
+        RetriesExhaustedWithDetailsException ex = writeException;
+        if (ex != null) {
+            writeException = null;
+            throw ex;
+        }
+    }
+
+    private synchronized void flushMutations() throws IOException {
+        if (mutator != null) {
+            long flushStart = System.currentTimeMillis();
+            mutator.flush();
+            FLUSH_LATENCY.record(System.currentTimeMillis() - flushStart);
+        }
+        checkWriteException();
+        if (writeStartTime >= 0) {
+            long time = Math.max(1, System.currentTimeMillis() - writeStartTime);
+            WRITE_BATCH.record(writtenStatements);
+            LOG.log(Level.FINE, "{0} statements written in {1}ms ({2} statements/s)", new Object[]{writtenStatements, time, 1000l * writtenStatements / time});
+            writtenStatements = 0;
+            writeStartTime = -1;
+        }
+    }
+
+    /**
+     * The modifications invalidate all cached query results, so the table generation is incremented once per commit or close.
+     */
+    private synchronized void incrementGeneration() throws IOException {
+        if (modified) {
+            modified = false;
+            try (Table table = sail.getTable()) {
+                long generation = HalyardTableUtils.incrementGeneration(table);
+                if (sail.patternCache != null) {
+                    sail.patternCache.invalidate(generation);
+                }
+            }
+        }
+    }
+
+    private synchronized void closeMutator() throws IOException {
+        if (mutator != null) {
+            mutator.close();
+            mutator = null;
+            pendingDeletes = false;
+        }
+        checkWriteException();
+    }
+
+    @Override
+    public boolean isOpen() throws SailException {
+        return open;
+    }
+
+    @Override
+    public void close() throws SailException {
+        if (open) {
+            open = false;
+            sail.connectionClosed(this);
+        }
+        try {
+            closeMutator();
+            incrementGeneration();
+        } catch (IOException ex) {
+            throw new SailException(ex);
+        }
+    }
+
+    private static Resource[] normalizeContexts(Resource... contexts) {
+        if (contexts == null || contexts.length == 0) {
+            return new Resource[] {null};
+        } else {
+            return contexts;
+        }
+    }
+
+    @Override
+    public CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, final boolean includeInferred) throws SailException {
+        long startTime = System.currentTimeMillis();
+        HalyardMetrics.Histogram latency = HalyardMetrics.histogram("query." + queryType(tupleExpr) + ".latency.ms");
+        long slowQueryThreshold = sail.slowQueryThreshold;
+        QueryAccounting accounting = slowQueryThreshold >= 0 ? new QueryAccounting() : null;
+        long cpuStart = accounting == null ? 0 : QueryAccounting.currentThreadCpuTime();
+        TupleExpr query = tupleExpr;
+        tupleExpr = tupleExpr.clone();
+        if (!(tupleExpr instanceof QueryRoot)) {
+            // Add a dummy root node to the tuple expressions to allow the
+            // optimizers to modify the actual root node
+            tupleExpr = new QueryRoot(tupleExpr);
+        }
+        TripleSource source = new HBaseTripleSource(System.currentTimeMillis(), accounting);
+
+        EvaluationStrategy strategy;
+        if (sail.pushStrategy) {
+            HalyardEvaluationStrategy halyardStrategy = new HalyardEvaluationStrategy(source, dataset, sail, sail.statistics, sail.evaluationTimeout, sail.unionParallelism);
+            halyardStrategy.setAccounting(accounting);
+            strategy = halyardStrategy;
+        } else {
+            strategy = new StrictEvaluationStrategy(source, dataset, sail);
+        }
+
+        optimize(tupleExpr, dataset, bindings, strategy);
+
+        QueryResultCache cache = sail.resultCache;
+        String cacheKey = null;
+        long generation = 0;
+        if (cache != null) {
+            try (Table table = sail.getTable()) {
+                generation = HalyardTableUtils.getGeneration(table);
+            } catch (IOException e) {
+                throw new SailException(e);
+            }
+            cacheKey = QueryResultCache.key(generation, tupleExpr, dataset, bindings, includeInferred);
+            if (cacheKey != null) {
+                CloseableIteration<BindingSet, QueryEvaluationException> cached = cache.get(cacheKey, generation);
+                if (cached != null) {
+                    return new QueryIteration(cached, startTime, latency, accounting, cpuStart, slowQueryThreshold, query, tupleExpr);
+                }
+            }
+        }
+
+        try {
+            CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = strategy.evaluate(tupleExpr, EmptyBindingSet.getInstance());
+            if (cacheKey != null) {
+                iter = cache.record(cacheKey, generation, new ArrayList<>(tupleExpr.getBindingNames()), iter);
+            }
+            return new QueryIteration(sail.evaluationTimeout <= 0 ? iter : new TimeLimitIteration<BindingSet, QueryEvaluationException>(iter, 1000l * sail.evaluationTimeout) {
+                @Override
+                protected void throwInterruptedException() throws QueryEvaluationException {
+                    throw new QueryEvaluationException("Query evaluation exceeded specified timeout " + sail.evaluationTimeout + "s");
+                }
+            }, startTime, latency, accounting, cpuStart, slowQueryThreshold, query, tupleExpr);
+        } catch (QueryEvaluationException ex) {
+            throw new SailException(ex);
+        }
+    }
+
+    /**
+     * Distinguishes the tuple (SELECT), graph (CONSTRUCT and DESCRIBE) and boolean (ASK) queries by the shape of the parsed query model.
+     * Other evaluated expressions (for example the WHERE clauses of SPARQL updates) are of the "other" type.
+     */
+    static String queryType(TupleExpr tupleExpr) {
+        boolean reduced = false, slice = false;
+        while (true) {
+            if (tupleExpr instanceof DescribeOperator || tupleExpr instanceof MultiProjection) {
+                return "graph";
+            } else if (tupleExpr instanceof Projection) {
+                return reduced && GRAPH_BINDING_NAMES.containsAll(((Projection) tupleExpr).getProjectionElemList().getTargetNames()) ? "graph" : "tuple";
+            } else if (tupleExpr instanceof UnaryTupleOperator) {
+                reduced |= tupleExpr instanceof Reduced;
+                slice |= tupleExpr instanceof Slice && ((Slice) tupleExpr).getLimit() == 1;
+                tupleExpr = ((UnaryTupleOperator) tupleExpr).getArg();
+            } else {
+                return slice ? "boolean" : "other";
+            }
+        }
+    }
+
+    /**
+     * The query latency is measured until the results are closed.
+     * Accounted queries also sum the CPU time spent by the thread consuming the results
+     * and the queries running longer than the threshold are logged with their resource accounting, query model and optimized plan.
+     */
+    private static final class QueryIteration extends IterationWrapper<BindingSet, QueryEvaluationException> {
+
+        private final long startTime;
+        private final HalyardMetrics.Histogram latency;
+        private final QueryAccounting accounting;
+        private final long slowQueryThreshold;
+        private final TupleExpr query, plan;
+
+        QueryIteration(CloseableIteration<? extends BindingSet, QueryEvaluationException> iter, long startTime, HalyardMetrics.Histogram latency, QueryAccounting accounting, long cpuStart, long slowQueryThreshold, TupleExpr query, TupleExpr plan) {
+            super(iter);
+            this.startTime = startTime;
+            this.latency = latency;
+            this.accounting = accounting;
+            this.slowQueryThreshold = slowQueryThreshold;
+            this.query = query;
+            this.plan = plan;
+            if (accounting != null) {
+                accounting.addCpuTime(QueryAccounting.currentThreadCpuTime() - cpuStart);
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws QueryEvaluationException {
+            if (accounting == null) {
+                return super.hasNext();
+            }
+            long cpuStart = QueryAccounting.currentThreadCpuTime();
+            try {
+                return super.hasNext();
+            } finally {
+                accounting.addCpuTime(QueryAccounting.currentThreadCpuTime() - cpuStart);
+            }
+        }
+
+        @Override
+        public BindingSet next() throws QueryEvaluationException {
+            if (accounting == null) {
+                return super.next();
+            }
+            long cpuStart = QueryAccounting.currentThreadCpuTime();
+            try {
+                return super.next();
+            } finally {
+                accounting.addCpuTime(QueryAccounting.currentThreadCpuTime() - cpuStart);
+            }
+        }
+
+        @Override
+        protected void handleClose() throws QueryEvaluationException {
+            try {
+                super.handleClose();
+            } finally {
+                long time = System.currentTimeMillis() - startTime;
+                latency.record(time);
+                if (accounting != null && time >= slowQueryThreshold) {
+                    LOG.log(Level.INFO, "Slow query evaluated in {0}ms ({1})\nQuery:\n{2}Optimized plan:\n{3}", new Object[]{time, accounting, query, plan});
+                }
+            }
+        }
+    }
+
+    private void optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, EvaluationStrategy strategy) {
+        new BindingAssigner().optimize(tupleExpr, dataset, bindings);
+        new ConstantOptimizer(strategy).optimize(tupleExpr, dataset, bindings);
+        new CompareOptimizer().optimize(tupleExpr, dataset, bindings);
+        new ConjunctiveConstraintSplitter().optimize(tupleExpr, dataset, bindings);
+        new DisjunctiveConstraintOptimizer().optimize(tupleExpr, dataset, bindings);
+        new SameTermFilterOptimizer().optimize(tupleExpr, dataset, bindings);
+        new QueryModelNormalizer().optimize(tupleExpr, dataset, bindings);
+        new HalyardQueryJoinOptimizer(sail.statistics).optimize(tupleExpr, dataset, bindings);
+        // new SubSelectJoinOptimizer().optimize(tupleExpr, dataset, bindings);
+        new IterativeEvaluationOptimizer().optimize(tupleExpr, dataset, bindings);
+        new FilterOptimizer().optimize(tupleExpr, dataset, bindings);
+        new OrderLimitOptimizer().optimize(tupleExpr, dataset, bindings);
+    }
+
+    /**
+     * Explains the query plan chosen for the given query, with the estimated cardinalities of all the plan nodes.
+     * The analyzed query is fully evaluated (the results are discarded) by the push evaluation strategy, and the plan is annotated also
+     * with the actual number of evaluations, results and evaluation time of each node, and with the number of scans, statements, bytes read
+     * and the time spent waiting for HBase for each statement pattern.
+     * @param tupleExpr TupleExpr of the query
+     * @param dataset optional Dataset
+     * @param bindings BindingSet
+     * @param includeInferred boolean
+     * @param analyze boolean true to evaluate the query and collect the actual statistics
+     * @return String optimized query plan with one annotated node per line
+     * @throws SailException throws SailException in case of the evaluation problem
+     */
+    public String explain(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred, boolean analyze) throws SailException {
+        tupleExpr = tupleExpr.clone();
+        if (!(tupleExpr instanceof QueryRoot)) {
+            tupleExpr = new QueryRoot(tupleExpr);
+        }
+        HalyardEvaluationStrategy strategy = new HalyardEvaluationStrategy(new HBaseTripleSource(System.currentTimeMillis(), null), dataset, sail, sail.statistics, sail.evaluationTimeout, sail.unionParallelism);
+        optimize(tupleExpr, dataset, bindings, strategy);
+        QueryProfile profile = new QueryProfile();
+        profile.estimate(tupleExpr, sail.statistics);
+        if (analyze) {
+            strategy.setProfile(profile);
+            try (CloseableIteration<BindingSet, QueryEvaluationException> iter = strategy.evaluate(tupleExpr, EmptyBindingSet.getInstance())) {
+                while (iter.hasNext()) {
+                    iter.next();
+                }
+            } catch (QueryEvaluationException ex) {
+                throw new SailException(ex);
+            }
+        }
+        return profile.toString(tupleExpr);
+    }
+
+    private final class HBaseTripleSource implements TripleSource, HalyardEvaluationStrategy.StatementProbe {
+
+        private final long startTime;
+        private final QueryAccounting accounting;
+
+        HBaseTripleSource(long startTime, QueryAccounting accounting) {
+            this.startTime = startTime;
+            this.accounting = accounting;
+        }
+
+        @Override
+        public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+            try {
+                return new ScanningIteration(scanStatements(startTime, accounting, subj, pred, obj, contexts));
+            } catch (SailException ex) {
+                throw new QueryEvaluationException(ex);
+            }
+        }
+
+        @Override
+        public boolean hasStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+            try {
+                PatternCache cache = sail.patternCache;
+                if (cache != null) {
+                    List<Statement> cached = cache.get(PatternCache.key(subj, pred, obj, normalizeContexts(contexts)));
+                    if (cached != null) {
+                        return !cached.isEmpty();
+                    }
+                }
+                try (StatementScanner scanner = new StatementScanner(startTime, subj, pred, obj, contexts)) {
+                    scanner.probe();
+                    scanner.account(accounting);
+                    return scanner.hasNext();
+                }
+            } catch (IOException | SailException ex) {
+                throw new QueryEvaluationException(ex);
+            }
+        }
+
+        @Override
+        public ValueFactory getValueFactory() {
+            return SimpleValueFactory.getInstance();
+        }
+    }
+
+    @Override
+    public CloseableIteration<? extends Resource, SailException> getContextIDs() throws SailException {
+        final CloseableIteration<? extends Statement, SailException> scanner = getStatements(HALYARD.STATS_ROOT_NODE, SD.NAMED_GRAPH_PROPERTY, null, true, HALYARD.STATS_GRAPH_CONTEXT);
+        return new CloseableIteration<Resource, SailException>() {
+            @Override
+            public void close() throws SailException {
+                scanner.close();
+            }
+
+            @Override
+            public boolean hasNext() throws SailException {
+                return scanner.hasNext();
+            }
+
+            @Override
+            public Resource next() throws SailException {
+                return (IRI)scanner.next().getObject();
+            }
+
+            @Override
+            public void remove() throws SailException {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
+    @Override
+    public CloseableIteration<? extends Statement, SailException> getStatements(Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws SailException {
+        return scanStatements(System.currentTimeMillis(), null, subj, pred, obj, contexts);
+    }
+
+    private CloseableIteration<Statement, SailException> scanStatements(long startTime, QueryAccounting accounting, Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+        PatternCache cache = sail.patternCache;
+        if (cache != null) try {
+            //repeated patterns are served from the cache instead of HBase scanners
+            List<Object> key = PatternCache.key(subj, pred, obj, normalizeContexts(contexts));
+            long generation = cache.generation();
+            List<Statement> cached = cache.get(key);
+            if (cached != null) {
+                return new CloseableIteratorIteration<>(cached.iterator());
+            }
+            StatementScanner scanner = new StatementScanner(startTime, subj, pred, obj, contexts);
+            scanner.cache(cache, key, generation);
+            scanner.account(accounting);
+            return scanner;
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+        StatementScanner scanner = new StatementScanner(startTime, subj, pred, obj, contexts);
+        scanner.account(accounting);
+        return scanner;
+    }
+
+    @Override
+    public long size(Resource... contexts) throws SailException {
+        long size = 0;
+        if (contexts != null && contexts.length > 0 && contexts[0] != null) {
+            for (Resource ctx : contexts) {
+                try (CloseableIteration<? extends Statement, SailException> scanner = getStatements(ctx, VOID.TRIPLES, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+                    if (scanner.hasNext()) {
+                        size += ((Literal)scanner.next().getObject()).longValue();
+                    }
+                    if (scanner.hasNext()) {
+                        throw new SailException("Multiple different values");
+                    }
+                }
+            }
+        } else {
+            try (CloseableIteration<? extends Statement, SailException> scanner = getStatements(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+                if (scanner.hasNext()) {
+                    size += ((Literal)scanner.next().getObject()).longValue();
+                }
+                if (scanner.hasNext()) {
+                    throw new SailException("Multiple different values");
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void begin() throws SailException {
+    }
+
+    @Override
+    public void begin(IsolationLevel level) throws UnknownSailTransactionStateException, SailException {
+        if (level != null && level != IsolationLevels.NONE) {
+            throw new UnknownSailTransactionStateException("Isolation level " + level + " is not compatible with this HBaseSail");
+        }
+    }
+
+    @Override
+    public void flush() throws SailException {
+    }
+
+    @Override
+    public void prepare() throws SailException {
+    }
+
+    @Override
+    public void commit() throws SailException {
+        try {
+            flushMutations();
+            flushStatsDeltas();
+            incrementGeneration();
+        } catch (IOException ex) {
+            throw new SailException(ex);
+        }
+    }
+
+    @Override
+    public void rollback() throws SailException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isActive() throws UnknownSailTransactionStateException {
+        return true;
+    }
+
+    @Override
+    public void addStatement(UpdateContext op, Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+        addStatement(subj, pred, obj, contexts);
+    }
+
+    @Override
+    public void addStatement(Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+        for (Resource ctx : normalizeContexts(contexts)) {
+            addStatementInternal(subj, pred, obj, ctx);
+        }
+    }
+
+    private void addStatementInternal(Resource subj, IRI pred, Value obj, Resource context) throws SailException {
+        if (!sail.isWritable()) throw new SailException(sail.tableName + " is read only");
+        try {
+            //all index rows of the statement are sent together
+            List<Put> puts = new ArrayList<>();
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, context)) {
+                puts.add(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+            }
+            mutate(puts, false);
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+        countStatsDelta(pred, context, 1);
+    }
+
+    /**
+     * Counts the triples delta of the whole dataset and of the given context, statistics context is not counted.
+     * The deltas are approximate as added statements are not checked for existence.
+     */
+    private void countStatsDelta(IRI pred, Resource context, long delta) {
+        if (!HALYARD.STATS_GRAPH_CONTEXT.equals(context)) synchronized (statsDeltas) {
+            HalyardTableUtils.countStatsDelta(statsDeltas, pred, context, delta);
+        }
+    }
+
+    private void flushStatsDeltas() throws IOException {
+        synchronized (statsDeltas) {
+            if (!statsDeltas.isEmpty()) try (Table table = sail.getTable()) {
+                for (Map.Entry<Resource, Map<IRI, long[]>> me : statsDeltas.entrySet()) {
+                    Increment inc = null;
+                    for (Map.Entry<IRI, long[]> delta : me.getValue().entrySet()) {
+                        if (delta.getValue()[0] != 0) {
+                            KeyValue kv = HalyardTableUtils.toStatsDeltaKeyValue(me.getKey(), delta.getKey(), "", delta.getValue()[0]);
+                            if (inc == null) {
+                                inc = new Increment(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength());
+                                inc.setReturnResults(false);
+                            }
+                            inc.addColumn(CellUtil.cloneFamily(kv), CellUtil.cloneQualifier(kv), delta.getValue()[0]);
+                        }
+                    }
+                    if (inc != null) {
+                        table.increment(inc);
+                    }
+                }
+            }
+            statsDeltas.clear();
+        }
+    }
+
+    @Override
+    public void removeStatement(UpdateContext op, Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+        if (!sail.isWritable()) throw new SailException(sail.tableName + " is read only");
+        try {
+            //deletes are buffered like the puts and flushed by commit, at the end of each update operation or when the write buffer is full
+            for (Resource ctx : normalizeContexts(contexts)) {
+                deleteStatement(subj, pred, obj, ctx);
+            }
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+
+    private void deleteStatement(Resource subj, IRI pred, Value obj, Resource context) throws IOException {
+        List<Delete> deletes = new ArrayList<>();
+        for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, context)) {
+            deletes.add(new Delete(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()).addColumn(kv.getFamily(), kv.getQualifier()));
+        }
+        mutate(deletes, true);
+        countStatsDelta(pred, context, -1);
+    }
+
+    @Override
+    public void removeStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+        if (!sail.isWritable()) throw new SailException(sail.tableName + " is read only");
+        contexts = normalizeContexts(contexts);
+        if (subj == null && pred == null && obj == null && contexts[0] == null) {
+            clearAll();
+        } else {
+            //matching statements (whole graphs directly from the context indices) are streamed into the write buffer
+            //and the deletes are flushed in large batches
+            try (CloseableIteration<? extends Statement, SailException> iter = getStatements(subj, pred, obj, true, contexts)) {
+                while (iter.hasNext()) {
+                    Statement st = iter.next();
+                    deleteStatement(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                }
+                //statements removed by a pattern are immediately visible
+                flushMutations();
+            } catch (IOException e) {
+                throw new SailException(e);
+            }
+        }
+    }
+
+    @Override
+    public void startUpdate(UpdateContext op) throws SailException {
+    }
+
+    @Override
+    public void endUpdate(UpdateContext op) throws SailException {
+        //following operations of the same SPARQL update read the modifications
+        try {
+            flushMutations();
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+
+    @Override
+    public void clear(Resource... contexts) throws SailException {
+        removeStatements(null, null, null, contexts);
+    }
+
+    private void clearAll() throws SailException {
+        try {
+            synchronized (statsDeltas) {
+                statsDeltas.clear();
+            }
+            closeMutator();
+            sail.truncateTable();
+        } catch (IOException ex) {
+            throw new SailException(ex);
+        }
+    }
+
+    @Override
+    public String getNamespace(String prefix) throws SailException {
+        Namespace namespace = sail.namespaces.get(prefix);
+        return (namespace == null) ? null : namespace.getName();
+    }
+
+    @Override
+    public CloseableIteration<? extends Namespace, SailException> getNamespaces() {
+        return new CloseableIteratorIteration<>(sail.namespaces.values().iterator());
+    }
+
+    @Override
+    public void setNamespace(String prefix, String name) throws SailException {
+        Namespace oldNS = sail.namespaces.put(prefix, new SimpleNamespace(prefix, name));
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        try {
+            if (oldNS != null) {
+                removeStatement(null, vf.createIRI(oldNS.getName()), HALYARD.NAMESPACE_PREFIX_PROPERTY, vf.createLiteral(prefix));
+            }
+            addStatementInternal(vf.createIRI(name), HALYARD.NAMESPACE_PREFIX_PROPERTY, vf.createLiteral(prefix), null);
+        } catch (SailException e) {
+            LOG.log(Level.WARNING, "Namespace prefix could not be presisted due to an exception", e);
+        }
+    }
+
+    @Override
+    public void removeNamespace(String prefix) throws SailException {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Namespace ns = sail.namespaces.remove(prefix);
+        if (ns != null) try {
+            removeStatement(null, vf.createIRI(ns.getName()), HALYARD.NAMESPACE_PREFIX_PROPERTY, vf.createLiteral(prefix));
+        } catch (SailException e) {
+            LOG.log(Level.WARNING, "Namespace prefix could not be removed due to an exception", e);
+        }
+    }
+
+    @Override
+    public void clearNamespaces() throws SailException {
+        try {
+            removeStatements(null, HALYARD.NAMESPACE_PREFIX_PROPERTY, null);
+        } catch (SailException e) {
+            LOG.log(Level.WARNING, "Namespaces could not be cleared due to an exception", e);
+        }
+        sail.namespaces.clear();
+    }
+
+    private static final class ScanningIteration extends ExceptionConvertingIteration<Statement, QueryEvaluationException> implements HalyardEvaluationStrategy.ScanMetrics {
+
+        private final CloseableIteration<Statement, SailException> statements;
+
+        ScanningIteration(CloseableIteration<Statement, SailException> statements) {
+            super(statements);
+            this.statements = statements;
+        }
+
+        @Override
+        protected QueryEvaluationException convert(Exception e) {
+            return new QueryEvaluationException(e);
+        }
+
+        @Override
+        public long getBytesRead() {
+            return statements instanceof StatementScanner ? ((StatementScanner) statements).bytesRead : 0;
+        }
+    }
+
+    private class StatementScanner implements CloseableIteration<Statement, SailException> {
+
+        private final Resource subj;
+        private final IRI pred;
+        private final Value obj;
+        private final Iterator<Scan> scans;
+        private final Set<Resource> contextFilter;
+        private Table table = null;
+        private ResultScanner rs = null;
+        private final long endTime;
+        private Statement next = null;
+        private Iterator<Statement> iter = null;
+        private PatternCache cache = null;
+        private List<Object> cacheKey = null;
+        private long cacheGeneration;
+        private List<Statement> cached = null;
+        private boolean probe = false;
+        private QueryAccounting accounting = null;
+        private volatile long bytesRead = 0;
+        private long scanStart = 0;
+
+        public StatementScanner(long startTime, Resource subj, IRI pred, Value obj, Resource...contexts) throws SailException {
+            this.subj = subj;
+            this.pred = pred;
+            this.obj = obj;
+            List<Scan> scanList = new ArrayList<>();
+            Set<Resource> namedContexts = new HashSet<>();
+            for (Resource ctx : normalizeContexts(contexts)) {
+                if (ctx == null) {
+                    scanList.add(HalyardTableUtils.scan(subj, pred, obj, null));
+                } else {
+                    namedContexts.add(ctx);
+                }
+            }
+            if (namedContexts.size() > 1) {
+                //multiple contexts are retrieved in a single pass and the Statements from other contexts are filtered out
+                try {
+                    scanList.add(HalyardTableUtils.scan(subj, pred, obj, namedContexts, sail.scanContextRanges));
+                } catch (IOException e) {
+                    throw new SailException(e);
+                }
+                this.contextFilter = namedContexts;
+            } else {
+                for (Resource ctx : namedContexts) {
+                    scanList.add(HalyardTableUtils.scan(subj, pred, obj, ctx));
+                }
+                this.contextFilter = null;
+            }
+            this.scans = scanList.iterator();
+            this.endTime = startTime + (1000l * sail.evaluationTimeout);
+        }
+
+        /**
+         * The scanned Statements are cached when the scan completes
+         */
+        void cache(PatternCache cache, List<Object> key, long generation) {
+            this.cache = cache;
+            this.cacheKey = key;
+            this.cacheGeneration = generation;
+            this.cached = new ArrayList<>();
+        }
+
+        /**
+         * The scanner is used just to check existence of the first matching Statement
+         */
+        void probe() {
+            this.probe = true;
+        }
+
+        /**
+         * The scans opened and the Results read are summed by the QueryAccounting of the evaluated query
+         */
+        void account(QueryAccounting accounting) {
+            this.accounting = accounting;
+        }
+
+        private Result nextResult() throws IOException {
+            while (true) {
+                if (rs == null) {
+                    if (scans.hasNext()) {
+                        Scan scan = scans.next();
+                        if (probe) {
+                            //the first matching Result usually answers the probe, so the Results are not fetched in bulk
+                            scan.setCaching(1);
+                        }
+                        List<Scan> splits = sail.scanParallelism > 1 && !probe ? HalyardTableUtils.splitScan(scan, sail.regionStartKeys) : Collections.singletonList(scan);
+                        if (splits.size() > 1) {
+                            //wide scans spanning multiple regions are executed as parallel region sub-scans
+                            rs = new ParallelResultScanner(sail, splits, sail.scanParallelism, SCAN_BUFFER_SIZE, false, sail.evaluationTimeout > 0 ? endTime : 0);
+                        } else if (sail.scanPrefetch > 0 && !probe) {
+                            //next Results are fetched asynchronously while the current Results are processed
+                            rs = new ParallelResultScanner(sail, splits, 1, sail.scanPrefetch, false, sail.evaluationTimeout > 0 ? endTime : 0);
+                        } else {
+                            //each scanner uses its own lightweight Table instance of the shared HBase Connection
+                            if (table == null) {
+                                table = sail.getTable();
+                            }
+                            rs = table.getScanner(scan);
+                        }
+                        SCANS_OPENED.add(1);
+                        if (accounting != null) {
+                            accounting.scanOpened();
+                        }
+                        if (scanStart == 0) {
+                            scanStart = System.currentTimeMillis();
+                        }
+                    } else {
+                        if (table != null) {
+                            table.close();
+                            table = null;
+                        }
+                        scanFinished();
+                        return null;
+                    }
+                }
+                Result res = rs.next();
+                if (sail.ticker != null) sail.ticker.tick();
+                if (res == null) {
+                    rs.close();
+                    rs = null;
+                } else {
+                    long size = Result.getTotalSizeOfCells(res);
+                    bytesRead += size;
+                    SCAN_RESULTS.add(1);
+                    SCAN_BYTES.add(size);
+                    if (accounting != null) {
+                        accounting.scanned(1, size);
+                    }
+                    return res;
+                }
+            }
+        }
+
+        private void scanFinished() {
+            if (scanStart > 0) {
+                SCAN_LATENCY.record(System.currentTimeMillis() - scanStart);
+                scanStart = 0;
+            }
+        }
+
+        @Override
+        public synchronized void close() throws SailException {
+            scanFinished();
+            cached = null;
+            if (rs != null) {
+                rs.close();
+                rs = null;
+            }
+            if (table != null) try {
+                table.close();
+                table = null;
+            } catch (IOException e) {
+                throw new SailException(e);
+            }
+        }
+
+        @Override
+        public synchronized boolean hasNext() throws SailException {
+            if (sail.evaluationTimeout > 0 && System.currentTimeMillis() > endTime) {
+                throw new SailException("Statements scanning exceeded specified timeout " + sail.evaluationTimeout + "s");
+            }
+            if (next == null) try {
+                while (true) {
+                    if (iter == null) {
+                        Result res = nextResult();
+                        if (res == null) {
+                            if (cached != null) {
+                                cache.put(cacheKey, cacheGeneration, cached);
+                                cached = null;
+                            }
+                            return false;
+                        } else {
+                            iter = HalyardTableUtils.parseStatements(res).iterator();
+                        }
+                    }
+                    while (iter.hasNext()) {
+                        Statement s = iter.next();
+                        if ((subj == null || subj.equals(s.getSubject())) && (pred == null || pred.equals(s.getPredicate())) && (obj == null || obj.equals(s.getObject())) && (contextFilter == null || contextFilter.contains(s.getContext()))) {
+                            next = s;
+                            if (cached != null) {
+                                if (cached.size() < cache.maxPatternSize()) {
+                                    cached.add(s);
+                                } else {
+                                    cached = null;
+                                }
+                            }
+                            return true;
+                        }
+                    }
+                    iter = null;
+                }
+            } catch (IOException e) {
+                throw new SailException(e);
+            } else {
+                return true;
+            }
+        }
+
+        @Override
+        public synchronized Statement next() throws SailException {
+            if (hasNext()) {
+                Statement st = next;
+                next = null;
+                return st;
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public void remove() throws SailException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.query.algebra.And;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+import org.eclipse.rdf4j.sail.SailException;
+
+/**
+ * EvaluationStatistics implementation reading cardinalities from the statistics calculated by Halyard Stats.
+ * Star joins over constant predicates are estimated from the characteristic sets and chain joins are
+ * reduced by the number of distinct values of the join variables. Per-property most common values and
+ * histograms refine the estimates of constant objects and filter conditions.
+ * @author Adam Sotona (MSD)
+ */
+final class HalyardEvaluationStatistics extends EvaluationStatistics {
+
+    private static final Logger LOG = Logger.getLogger(HalyardEvaluationStatistics.class.getName());
+    private static final Base64.Encoder ENC = Base64.getUrlEncoder().withoutPadding();
+    private static final long DEFAULT_THRESHOLD = 1000l;
+    private static final long STATS_CACHING_TIMEOUT = 60000l;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final class CharacteristicSet {
+
+        final long distinctSubjects;
+        final Map<IRI, Long> propertyTriples;
+
+        CharacteristicSet(long distinctSubjects, Map<IRI, Long> propertyTriples) {
+            this.distinctSubjects = distinctSubjects;
+            this.propertyTriples = propertyTriples;
+        }
+    }
+
+    private static final class CharacteristicSets {
+
+        final long timestamp = System.currentTimeMillis();
+        final List<CharacteristicSet> sets;
+
+        CharacteristicSets(List<CharacteristicSet> sets) {
+            this.sets = sets;
+        }
+    }
+
+    private static final class PropertyStatistics {
+
+        final long timestamp = System.currentTimeMillis();
+        long triples, distinctSubjects, distinctObjects, mostCommonTriples, histogramTriples;
+        final Map<Value, Long> mostCommonValues = new HashMap<>();
+        double histogram[];
+
+        /**
+         * @param obj constant object value
+         * @return estimated number of triples with the given object or -1 if not known
+         */
+        double getObjectCardinality(Value obj) {
+            Long mcv = mostCommonValues.get(obj);
+            if (mcv != null) {
+                return mcv;
+            }
+            if (distinctObjects > mostCommonValues.size()) {
+                return Math.max(1.0, (double)(triples - mostCommonTriples) / (distinctObjects - mostCommonValues.size()));
+            }
+            return -1;
+        }
+
+        /**
+         * @param value numeric value
+         * @return estimated fraction of the triples with numeric objects lower than the given value or -1 if not known
+         */
+        double getFractionBelow(double value) {
+            if (histogram == null || histogram.length < 2 || triples <= 0) {
+                return -1;
+            }
+            int buckets = histogram.length - 1;
+            double fraction;
+            if (value <= histogram[0]) {
+                fraction = 0;
+            } else if (value > histogram[buckets]) {
+                fraction = 1;
+            } else {
+                int i = 0;
+                while (i < buckets - 1 && value > histogram[i + 1]) i++;
+                double width = histogram[i + 1] - histogram[i];
+                fraction = (i + (width > 0 ? (value - histogram[i]) / width : 0.5)) / buckets;
+            }
+            return fraction * Math.min(1.0, (double)histogramTriples / triples);
+        }
+
+        double getNumericFraction() {
+            return triples > 0 ? Math.min(1.0, (double)histogramTriples / triples) : 0;
+        }
+    }
+
+    private final HBaseSail sail;
+    private final Map<IRI, CharacteristicSets> characteristicSetsCache = new ConcurrentHashMap<>();
+    private final Map<IRI, PropertyStatistics> propertyStatisticsCache = new ConcurrentHashMap<>();
+
+    HalyardEvaluationStatistics(HBaseSail sail) {
+        this.sail = sail;
+    }
+
+    @Override
+    protected CardinalityCalculator createCardinalityCalculator() {
+        return new HalyardCardinalityCalculator();
+    }
+
+    /**
+     * Estimates cardinality of a join of statement patterns from a single graph
+     * @param patterns List of the joined StatementPatterns
+     * @return estimated cardinality or -1 when the statistics are not available
+     */
+    double getJoinCardinality(List<StatementPattern> patterns) {
+        return new HalyardCardinalityCalculator().getJoinCardinality(patterns);
+    }
+
+    private final class HalyardCardinalityCalculator extends CardinalityCalculator {
+
+        @Override
+        protected double getCardinality(StatementPattern sp) {
+            IRI graphNode = getGraphNode(sp);
+            long triples = getCount(graphNode, VOID.TRIPLES, -1l);
+            PropertyStatistics ps = triples > 0 ? getPropertyStatistics(graphNode, sp.getPredicateVar()) : null;
+            if (ps != null) {
+                double card = ps.triples;
+                Var objVar = sp.getObjectVar();
+                if (objVar.hasValue()) {
+                    double objCard = ps.getObjectCardinality(objVar.getValue());
+                    card = objCard >= 0 ? objCard : card * subsetTriplesPart(graphNode, VOID_EXT.OBJECT, objVar, triples);
+                }
+                Var subjVar = sp.getSubjectVar();
+                if (subjVar.hasValue()) {
+                    card = ps.distinctSubjects > 0 ? card / ps.distinctSubjects : card * subsetTriplesPart(graphNode, VOID_EXT.SUBJECT, subjVar, triples);
+                }
+                return card;
+            } else if (triples > 0) {
+                return triples
+                        * subsetTriplesPart(graphNode, VOID_EXT.SUBJECT, sp.getSubjectVar(), triples)
+                        * subsetTriplesPart(graphNode, VOID.PROPERTY, sp.getPredicateVar(), triples)
+                        * subsetTriplesPart(graphNode, VOID_EXT.OBJECT, sp.getObjectVar(), triples);
+            } else {
+                return super.getCardinality(sp);
+            }
+        }
+
+        @Override
+        public void meet(Join node) {
+            List<StatementPattern> patterns = new ArrayList<>();
+            if (collectStatementPatterns(node, patterns)) {
+                double joinCardinality = getJoinCardinality(patterns);
+                if (joinCardinality >= 0) {
+                    cardinality = joinCardinality;
+                    return;
+                }
+            }
+            super.meet(node);
+        }
+
+        @Override
+        public void meet(Filter node) {
+            super.meet(node);
+            List<StatementPattern> patterns = new ArrayList<>();
+            node.getArg().visit(new AbstractQueryModelVisitor<RuntimeException>() {
+                @Override
+                public void meet(StatementPattern sp) {
+                    patterns.add(sp);
+                }
+            });
+            cardinality *= getSelectivity(node.getCondition(), patterns);
+        }
+
+        private double getSelectivity(ValueExpr condition, List<StatementPattern> patterns) {
+            if (condition instanceof And) {
+                return getSelectivity(((And)condition).getLeftArg(), patterns) * getSelectivity(((And)condition).getRightArg(), patterns);
+            } else if (condition instanceof Compare) {
+                Compare cmp = (Compare)condition;
+                CompareOp op = cmp.getOperator();
+                ValueExpr varExpr = cmp.getLeftArg(), constExpr = cmp.getRightArg();
+                if (constExpr instanceof Var && varExpr instanceof ValueConstant) {
+                    varExpr = cmp.getRightArg();
+                    constExpr = cmp.getLeftArg();
+                    switch (op) {
+                        case LT: op = CompareOp.GT; break;
+                        case LE: op = CompareOp.GE; break;
+                        case GT: op = CompareOp.LT; break;
+                        case GE: op = CompareOp.LE; break;
+                    }
+                }
+                if (varExpr instanceof Var && !((Var)varExpr).hasValue() && constExpr instanceof ValueConstant) {
+                    Value value = ((ValueConstant)constExpr).getValue();
+                    for (StatementPattern sp : patterns) {
+                        if (((Var)varExpr).getName().equals(sp.getObjectVar().getName())) {
+                            PropertyStatistics ps = getPropertyStatistics(getGraphNode(sp), sp.getPredicateVar());
+                            if (ps != null) {
+                                return getSelectivity(ps, op, value);
+                            }
+                        }
+                    }
+                }
+            }
+            return 1.0;
+        }
+
+        private double getSelectivity(PropertyStatistics ps, CompareOp op, Value value) {
+            switch (op) {
+                case EQ:
+                case NE:
+                    double card = ps.getObjectCardinality(value);
+                    if (card < 0 || ps.triples <= 0) return 1.0;
+                    double eq = Math.min(1.0, card / ps.triples);
+                    return op == CompareOp.EQ ? eq : 1.0 - eq;
+                default:
+                    double numeric = numericValue(value);
+                    if (Double.isNaN(numeric)) return 1.0;
+                    double below = ps.getFractionBelow(numeric);
+                    if (below < 0) return 1.0;
+                    return op == CompareOp.LT || op == CompareOp.LE ? below : ps.getNumericFraction() - below;
+            }
+        }
+
+        private boolean collectStatementPatterns(TupleExpr expr, List<StatementPattern> patterns) {
+            if (expr instanceof Join) {
+                return collectStatementPatterns(((Join)expr).getLeftArg(), patterns) && collectStatementPatterns(((Join)expr).getRightArg(), patterns);
+            } else if (expr instanceof StatementPattern) {
+                patterns.add((StatementPattern)expr);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Estimates cardinality of a join of statement patterns from a single graph
+         * @param patterns List of the joined StatementPatterns
+         * @return estimated cardinality or -1 when the statistics are not available
+         */
+        private double getJoinCardinality(List<StatementPattern> patterns) {
+            IRI graphNode = getGraphNode(patterns.get(0));
+            for (StatementPattern sp : patterns) {
+                if (!graphNode.equals(getGraphNode(sp))) return -1;
+            }
+            long triples = getCount(graphNode, VOID.TRIPLES, -1l);
+            if (triples <= 0) return -1;
+            //group star patterns by the subject variable
+            Map<String, List<StatementPattern>> stars = new HashMap<>();
+            List<List<StatementPattern>> groups = new ArrayList<>();
+            for (StatementPattern sp : patterns) {
+                Var subj = sp.getSubjectVar();
+                Var pred = sp.getPredicateVar();
+                if (!subj.hasValue() && pred.hasValue() && pred.getValue() instanceof IRI) {
+                    List<StatementPattern> star = stars.get(subj.getName());
+                    if (star == null) {
+                        star = new ArrayList<>();
+                        stars.put(subj.getName(), star);
+                        groups.add(star);
+                    }
+                    star.add(sp);
+                } else {
+                    groups.add(Collections.singletonList(sp));
+                }
+            }
+            List<CharacteristicSet> characteristicSets = Collections.emptyList();
+            for (List<StatementPattern> star : stars.values()) {
+                if (star.size() > 1) {
+                    characteristicSets = getCharacteristicSets(graphNode);
+                    break;
+                }
+            }
+            double card = 1.0;
+            Map<String, List<Long>> varDistinctValues = new HashMap<>();
+            for (List<StatementPattern> group : groups) {
+                if (group.size() > 1 && !characteristicSets.isEmpty()) {
+                    //the star is estimated as a whole, so each of its variables is counted just once
+                    card *= getStarCardinality(graphNode, group, characteristicSets, triples);
+                    collectJoinVars(graphNode, group, varDistinctValues);
+                } else {
+                    for (StatementPattern sp : group) {
+                        card *= getCardinality(sp);
+                        collectJoinVars(graphNode, Collections.singletonList(sp), varDistinctValues);
+                    }
+                }
+            }
+            //each join reduces the cardinality by the larger number of distinct values of the join variable
+            for (List<Long> distinctValues : varDistinctValues.values()) {
+                if (distinctValues.size() > 1) {
+                    Collections.sort(distinctValues);
+                    for (int i = 1; i < distinctValues.size(); i++) {
+                        if (distinctValues.get(i) > 0) {
+                            card /= distinctValues.get(i);
+                        }
+                    }
+                }
+            }
+            return card;
+        }
+
+        private void collectJoinVars(IRI graphNode, List<StatementPattern> group, Map<String, List<Long>> varDistinctValues) {
+            Map<String, Long> groupVars = new HashMap<>();
+            for (StatementPattern sp : group) {
+                PropertyStatistics ps = getPropertyStatistics(graphNode, sp.getPredicateVar());
+                addVarDistinctValues(sp.getSubjectVar(), ps != null && ps.distinctSubjects > 0 ? ps.distinctSubjects : getCount(graphNode, VOID.DISTINCT_SUBJECTS, -1l), groupVars);
+                addVarDistinctValues(sp.getPredicateVar(), getCount(graphNode, VOID.PROPERTIES, -1l), groupVars);
+                addVarDistinctValues(sp.getObjectVar(), ps != null && ps.distinctObjects > 0 ? ps.distinctObjects : getCount(graphNode, VOID.DISTINCT_OBJECTS, -1l), groupVars);
+            }
+            for (Map.Entry<String, Long> me : groupVars.entrySet()) {
+                List<Long> distinctValues = varDistinctValues.get(me.getKey());
+                if (distinctValues == null) {
+                    distinctValues = new ArrayList<>();
+                    varDistinctValues.put(me.getKey(), distinctValues);
+                }
+                distinctValues.add(me.getValue());
+            }
+        }
+
+        private void addVarDistinctValues(Var var, long distinct, Map<String, Long> groupVars) {
+            if (var != null && !var.hasValue()) {
+                Long d = groupVars.get(var.getName());
+                //within a group the most selective pattern limits the distinct values
+                groupVars.put(var.getName(), d == null || (distinct > 0 && distinct < d) || d <= 0 ? distinct : d);
+            }
+        }
+
+        private double getStarCardinality(IRI graphNode, List<StatementPattern> star, List<CharacteristicSet> characteristicSets, long triples) {
+            double card = 0;
+            for (CharacteristicSet cs : characteristicSets) {
+                if (cs.distinctSubjects <= 0) continue;
+                double csCard = cs.distinctSubjects;
+                for (StatementPattern sp : star) {
+                    Long predTriples = cs.propertyTriples.get((IRI)sp.getPredicateVar().getValue());
+                    if (predTriples == null) {
+                        csCard = 0;
+                        break;
+                    }
+                    csCard *= (double)predTriples / cs.distinctSubjects;
+                }
+                card += csCard;
+            }
+            for (StatementPattern sp : star) {
+                Var objVar = sp.getObjectVar();
+                if (objVar != null && objVar.hasValue()) {
+                    double predPart = subsetTriplesPart(graphNode, VOID.PROPERTY, sp.getPredicateVar(), triples);
+                    double objPart = subsetTriplesPart(graphNode, VOID_EXT.OBJECT, objVar, triples);
+                    card *= predPart > 0 ? Math.min(1.0, objPart / predPart) : objPart;
+                }
+            }
+            return card;
+        }
+    }
+
+    private static IRI getGraphNode(StatementPattern sp) {
+        Var contextVar = sp.getContextVar();
+        return contextVar == null || !contextVar.hasValue() ? HALYARD.STATS_ROOT_NODE : (IRI)contextVar.getValue();
+    }
+
+    private long getCount(Resource subjectNode, IRI countProperty, long defaultValue) {
+        try (CloseableIteration<? extends Statement, SailException> ci = sail.getStatements(subjectNode, countProperty, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+            if (ci.hasNext()) {
+                Value v = ci.next().getObject();
+                if (v instanceof Literal) try {
+                    return ((Literal)v).longValue();
+                } catch (NumberFormatException ignore) {}
+                LOG.log(Level.WARNING, "Invalid statistics for:" + subjectNode);
+            }
+        }
+        return defaultValue;
+    }
+
+    private double subsetTriplesPart(IRI graph, IRI partitionType, Var partitionVar, double total) {
+        if (partitionVar == null || !partitionVar.hasValue()) {
+            return 1.0;
+        } else {
+            return getCount(SimpleValueFactory.getInstance().createIRI(graph.stringValue() + "_" + partitionType.getLocalName() + "_" + ENC.encodeToString(HalyardTableUtils.hashKey(NTriplesUtil.toNTriplesString(partitionVar.getValue()).getBytes()))), VOID.TRIPLES, DEFAULT_THRESHOLD) /total;
+        }
+    }
+
+    private static double numericValue(Value value) {
+        if (value instanceof Literal) try {
+            Literal l = (Literal)value;
+            if (XMLDatatypeUtil.isNumericDatatype(l.getDatatype())) {
+                return l.doubleValue();
+            } else if (XMLDatatypeUtil.isCalendarDatatype(l.getDatatype())) {
+                return l.calendarValue().toGregorianCalendar().getTimeInMillis();
+            }
+        } catch (IllegalArgumentException ignore) {
+            //invalid literal
+        }
+        return Double.NaN;
+    }
+
+    private PropertyStatistics getPropertyStatistics(IRI graphNode, Var predicateVar) {
+        if (predicateVar == null || !predicateVar.hasValue()) {
+            return null;
+        }
+        IRI propertyNode = SimpleValueFactory.getInstance().createIRI(graphNode.stringValue() + "_" + VOID.PROPERTY.getLocalName() + "_" + ENC.encodeToString(HalyardTableUtils.hashKey(NTriplesUtil.toNTriplesString(predicateVar.getValue()).getBytes(UTF8))));
+        PropertyStatistics ps = propertyStatisticsCache.get(propertyNode);
+        if (ps == null || ps.timestamp + STATS_CACHING_TIMEOUT < System.currentTimeMillis()) {
+            ps = new PropertyStatistics();
+            ps.triples = getCount(propertyNode, VOID.TRIPLES, -1l);
+            ps.distinctSubjects = getCount(propertyNode, VOID.DISTINCT_SUBJECTS, -1l);
+            ps.distinctObjects = getCount(propertyNode, VOID.DISTINCT_OBJECTS, -1l);
+            ps.histogramTriples = getCount(propertyNode, HALYARD.HISTOGRAM_TRIPLES, 0l);
+            String mcvs = getString(propertyNode, HALYARD.MOST_COMMON_VALUES);
+            if (mcvs != null) try {
+                for (String mcv : mcvs.split("\n")) {
+                    int i = mcv.indexOf(' ');
+                    long count = Long.parseLong(mcv.substring(0, i));
+                    ps.mostCommonValues.put(NTriplesUtil.parseValue(mcv.substring(i + 1), SimpleValueFactory.getInstance()), count);
+                    ps.mostCommonTriples += count;
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                LOG.log(Level.WARNING, "Invalid most common values statistics for:" + propertyNode);
+            }
+            String histogram = getString(propertyNode, HALYARD.HISTOGRAM);
+            if (histogram != null) try {
+                String bounds[] = histogram.split(" ");
+                ps.histogram = new double[bounds.length];
+                for (int i = 0; i < bounds.length; i++) {
+                    ps.histogram[i] = Double.parseDouble(bounds[i]);
+                }
+            } catch (NumberFormatException e) {
+                ps.histogram = null;
+                LOG.log(Level.WARNING, "Invalid histogram statistics for:" + propertyNode);
+            }
+            propertyStatisticsCache.put(propertyNode, ps);
+        }
+        return ps.triples > 0 ? ps : null;
+    }
+
+    private String getString(Resource subjectNode, IRI property) {
+        try (CloseableIteration<? extends Statement, SailException> ci = sail.getStatements(subjectNode, property, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+            if (ci.hasNext()) {
+                return ci.next().getObject().stringValue();
+            }
+        }
+        return null;
+    }
+
+    private List<CharacteristicSet> getCharacteristicSets(IRI graphNode) {
+        CharacteristicSets cached = characteristicSetsCache.get(graphNode);
+        if (cached == null || cached.timestamp + STATS_CACHING_TIMEOUT < System.currentTimeMillis()) {
+            //each characteristic set is stored as a single literal, so all sets of the graph are loaded by one scan
+            List<CharacteristicSet> sets = new ArrayList<>();
+            try (CloseableIteration<? extends Statement, SailException> ci = sail.getStatements(graphNode, HALYARD.CHARACTERISTIC_SET, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+                while (ci.hasNext()) {
+                    CharacteristicSet cs = parseCharacteristicSet(ci.next().getObject().stringValue());
+                    if (cs != null) {
+                        sets.add(cs);
+                    }
+                }
+            }
+            cached = new CharacteristicSets(sets);
+            characteristicSetsCache.put(graphNode, cached);
+        }
+        return cached.sets;
+    }
+
+    private static CharacteristicSet parseCharacteristicSet(String value) {
+        try {
+            String lines[] = value.split("\n");
+            long distinctSubjects = Long.parseLong(lines[0]);
+            if (distinctSubjects <= 0) {
+                return null;
+            }
+            Map<IRI, Long> propertyTriples = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int sep = lines[i].indexOf(' ');
+                propertyTriples.put(NTriplesUtil.parseURI(lines[i].substring(sep + 1), SimpleValueFactory.getInstance()), Long.parseLong(lines[i].substring(0, sep)));
+            }
+            return new CharacteristicSet(distinctSubjects, propertyTriples);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            LOG.log(Level.WARNING, "Invalid characteristic set statistics: " + value);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryJoinOptimizer;
+
+/**
+ * QueryJoinOptimizer choosing each next join argument by the estimated cardinality of the already joined
+ * statement patterns together with the candidate, so the correlations captured by the characteristic sets
+ * drive the join order. Joins with other arguments than statement patterns or without the statistics
+ * are ordered by the default QueryJoinOptimizer heuristics.
+ * @author Adam Sotona (MSD)
+ */
+final class HalyardQueryJoinOptimizer extends QueryJoinOptimizer {
+
+    private final HalyardEvaluationStatistics halyardStatistics;
+
+    HalyardQueryJoinOptimizer(HalyardEvaluationStatistics statistics) {
+        super(statistics);
+        this.halyardStatistics = statistics;
+    }
+
+    @Override
+    public void optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings) {
+        tupleExpr.visit(new HalyardJoinVisitor());
+    }
+
+    private final class HalyardJoinVisitor extends JoinVisitor {
+
+        //already joined statement patterns of each join in progress, null when the default heuristics took over
+        private final Map<List<TupleExpr>, List<StatementPattern>> joinedPatterns = new IdentityHashMap<>();
+
+        @Override
+        protected TupleExpr selectNextTupleExpr(List<TupleExpr> expressions, Map<TupleExpr, Double> cardinalityMap, Map<TupleExpr, List<Var>> varsMap, Map<Var, Integer> varFreqMap, Set<String> boundVars) {
+            List<StatementPattern> joined = joinedPatterns.containsKey(expressions) ? joinedPatterns.get(expressions) : new ArrayList<>();
+            TupleExpr selected = joined == null ? null : selectNextStatementPattern(expressions, joined);
+            if (selected == null) {
+                selected = super.selectNextTupleExpr(expressions, cardinalityMap, varsMap, varFreqMap, boundVars);
+            }
+            if (expressions.size() <= 1) {
+                joinedPatterns.remove(expressions);
+            } else if (joined != null && selected instanceof StatementPattern) {
+                joined.add((StatementPattern)selected);
+                joinedPatterns.put(expressions, joined);
+            } else {
+                joinedPatterns.put(expressions, null);
+            }
+            return selected;
+        }
+
+        private StatementPattern selectNextStatementPattern(List<TupleExpr> expressions, List<StatementPattern> joined) {
+            StatementPattern selected = null;
+            double lowestCardinality = Double.MAX_VALUE;
+            for (TupleExpr expr : expressions) {
+                if (!(expr instanceof StatementPattern)) return null;
+                List<StatementPattern> patterns = new ArrayList<>(joined);
+                patterns.add((StatementPattern)expr);
+                double cardinality = halyardStatistics.getJoinCardinality(patterns);
+                if (cardinality < 0) return null;
+                if (selected == null || cardinality < lowestCardinality) {
+                    selected = (StatementPattern)expr;
+                    lowestCardinality = cardinality;
+                }
+            }
+            return selected;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.hbase.client.AbstractClientScanner;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * ResultScanner executing the given HBase Scans in parallel and merging their Results through bounded buffers.
+ * The Results are returned in any order, or in the order of the Scans when ordered.
+ * Single Scan executed by ParallelResultScanner is asynchronously prefetched.
+ * @author Adam Sotona (MSD)
+ */
+final class ParallelResultScanner extends AbstractClientScanner {
+
+    //end of each Scan is marked by this instance in the buffer
+    private static final Result END = new Result();
+    private static final long POLL_INTERVAL = 1000;
+
+    private final HBaseSail sail;
+    private final List<Scan> scans;
+    private final boolean ordered;
+    private final long endTime;
+    private final BlockingQueue<Result>[] buffers;
+    private final AtomicInteger nextScan = new AtomicInteger();
+    private final List<Future<?>> workers = new ArrayList<>();
+    private volatile IOException exception = null;
+    private volatile boolean closed = false;
+    private int finished = 0;
+
+    /**
+     * Constructs and starts ParallelResultScanner
+     * @param sail HBaseSail providing the tables and the thread pool
+     * @param scans List of HBase Scans to execute
+     * @param parallelism maximal number of Scans executed at the same time
+     * @param bufferSize maximal number of Results buffered (per Scan when ordered)
+     * @param ordered boolean option to return the Results in the order of the Scans
+     * @param endTime time in milliseconds when the scanning times out and the buffers are abandoned, 0 means no timeout
+     */
+    @SuppressWarnings("unchecked")
+    ParallelResultScanner(HBaseSail sail, List<Scan> scans, int parallelism, int bufferSize, boolean ordered, long endTime) {
+        this.sail = sail;
+        this.scans = scans;
+        this.ordered = ordered;
+        this.endTime = endTime;
+        this.buffers = new BlockingQueue[scans.size()];
+        BlockingQueue<Result> shared = ordered ? null : new ArrayBlockingQueue<Result>(bufferSize);
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ordered ? new ArrayBlockingQueue<Result>(bufferSize) : shared;
+        }
+        for (int i = Math.min(parallelism, scans.size()); i > 0; i--) {
+            workers.add(sail.scanPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int i;
+                        while (!closed && (i = nextScan.getAndIncrement()) < buffers.length) {
+                            scan(i);
+                        }
+                    } catch (InterruptedException e) {
+                        //the scanner has been closed
+                    }
+                }
+            }));
+        }
+    }
+
+    private void scan(int i) throws InterruptedException {
+        try (Table table = sail.getTable(); ResultScanner rs = table.getScanner(scans.get(i))) {
+            Result res;
+            while (!closed && (res = rs.next()) != null) {
+                if (!put(buffers[i], res)) {
+                    //the Results are no longer consumed, release the HBase scanner
+                    buffers[i].offer(END);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            exception = e;
+        }
+        put(buffers[i], END);
+    }
+
+    private boolean put(BlockingQueue<Result> buffer, Result res) throws InterruptedException {
+        while (!buffer.offer(res, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                return false;
+            }
+            if (endTime > 0 && System.currentTimeMillis() > endTime) {
+                exception = new IOException("Scanning exceeded specified timeout");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Result next() throws IOException {
+        while (finished < buffers.length) {
+            Result res;
+            try {
+                res = buffers[ordered ? finished : 0].poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw (IOException)new InterruptedIOException().initCause(e);
+            }
+            if (res == null) {
+                if (endTime > 0 && System.currentTimeMillis() > endTime) {
+                    throw new IOException("Scanning exceeded specified timeout");
+                }
+                continue;
+            }
+            if (res == END) {
+                finished++;
+                IOException ex = exception;
+                if (ex != null) {
+                    throw ex;
+                }
+            } else {
+                return res;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (Future<?> f : workers) {
+                f.cancel(true);
+            }
+            for (BlockingQueue<Result> b : buffers) {
+                b.clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean renewLease() {
+        return false;
+    }
+}
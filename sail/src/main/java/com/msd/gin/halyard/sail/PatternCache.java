@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.hbase.client.Table;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Least recently used cache of decoded statement pattern scans shared by all connections of an HBaseSail.
+ * The cache is bounded by the total number of cached Statements (each cached pattern counts as one more Statement)
+ * and a single pattern may hold at most 10% of the cache.
+ * All the cached patterns are invalidated by local writes immediately and by writes of other processes (for example bulk loads)
+ * when the table generation is checked after the time-to-live period.
+ * @author Adam Sotona (MSD)
+ */
+final class PatternCache {
+
+    private final HBaseSail sail;
+    private final long maxSize, maxPatternSize, ttl;
+    private final LinkedHashMap<List<Object>, List<Statement>> patterns = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0, generation = -1, generationTimestamp = 0;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+    /**
+     * Constructs PatternCache
+     * @param sail HBaseSail providing the table to check the generation
+     * @param maxSize maximal total number of cached Statements
+     * @param ttl time in milliseconds after which the table generation is checked again
+     */
+    PatternCache(HBaseSail sail, long maxSize, long ttl) {
+        this.sail = sail;
+        this.maxSize = maxSize;
+        this.maxPatternSize = Math.max(1, maxSize / 10);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Constructs the cache key of a statement pattern
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param contexts normalized contexts
+     * @return List key
+     */
+    static List<Object> key(Resource subj, IRI pred, Value obj, Resource... contexts) {
+        return Arrays.<Object>asList(subj, pred, obj, Arrays.asList(contexts));
+    }
+
+    /**
+     * Returns the cached Statements of the pattern
+     * @param key pattern key
+     * @return List of Statements or null when the pattern is not cached
+     * @throws IOException throws IOException in case of a problem reading the table generation
+     */
+    List<Statement> get(List<Object> key) throws IOException {
+        checkGeneration();
+        List<Statement> statements;
+        synchronized (this) {
+            statements = patterns.get(key);
+        }
+        (statements == null ? misses : hits).incrementAndGet();
+        return statements;
+    }
+
+    /**
+     * Returns the actual generation of the cache, which must be passed back with the scanned Statements
+     * @return long generation
+     * @throws IOException throws IOException in case of a problem reading the table generation
+     */
+    long generation() throws IOException {
+        checkGeneration();
+        synchronized (this) {
+            return generation;
+        }
+    }
+
+    /**
+     * Caches the complete Statements of a pattern scan
+     * @param key pattern key
+     * @param generation long generation of the cache when the scan started
+     * @param statements List of all the scanned Statements
+     */
+    synchronized void put(List<Object> key, long generation, List<Statement> statements) {
+        if (generation != this.generation || statements.size() > maxPatternSize) {
+            return;
+        }
+        List<Statement> old = patterns.put(key, statements);
+        size += weight(statements) - (old == null ? 0 : weight(old));
+        Iterator<List<Statement>> it = patterns.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= weight(it.next());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long weight(List<Statement> statements) {
+        return statements.size() + 1;
+    }
+
+    /**
+     * Maximal number of Statements of a single cached pattern
+     * @return long maximal pattern size
+     */
+    long maxPatternSize() {
+        return maxPatternSize;
+    }
+
+    /**
+     * Invalidates all the cached patterns
+     * @param newGeneration new table generation or -1 when unknown
+     */
+    synchronized void invalidate(long newGeneration) {
+        patterns.clear();
+        size = 0;
+        generation = newGeneration;
+        generationTimestamp = newGeneration < 0 ? 0 : System.currentTimeMillis();
+    }
+
+    private void checkGeneration() throws IOException {
+        synchronized (this) {
+            if (System.currentTimeMillis() - generationTimestamp <= ttl) {
+                return;
+            }
+        }
+        long g;
+        try (Table table = sail.getTable()) {
+            g = HalyardTableUtils.getGeneration(table);
+        }
+        synchronized (this) {
+            if (g != generation) {
+                invalidate(g);
+            } else {
+                generationTimestamp = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Number of pattern lookups served from the cache
+     * @return long number of cache hits
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of pattern lookups not found in the cache
+     * @return long number of cache misses
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of patterns evicted from the cache to keep its size limit
+     * @return long number of evictions
+     */
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PatternCache{patterns=" + patterns.size() + ", statements=" + size + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+}
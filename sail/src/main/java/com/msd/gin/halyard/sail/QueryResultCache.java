@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.BNodeGenerator;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.datetime.Now;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.numeric.Rand;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.rdfterm.STRUUID;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.TupleQueryResultBuilder;
+import org.eclipse.rdf4j.query.resultio.binary.BinaryQueryResultParser;
+import org.eclipse.rdf4j.query.resultio.binary.BinaryQueryResultWriter;
+
+/**
+ * Least recently used cache of query results, stored in the compact binary query results format.
+ * The memory held by the cached results is bounded and large results are spilled to local disk files.
+ * The cache keys include the table generation, so the results of a modified table are never returned.
+ * @author Adam Sotona (MSD)
+ */
+final class QueryResultCache {
+
+    private static final Logger LOG = Logger.getLogger(QueryResultCache.class.getName());
+    private static final Pattern ANONYMOUS_VAR = Pattern.compile("_anon_[0-9a-fA-F_\\-]+");
+    //the SPARQL builtin functions are called by their exact names
+    private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<>(Arrays.asList(new Rand().getURI(), new Now().getURI(),
+            new org.eclipse.rdf4j.query.algebra.evaluation.function.rdfterm.UUID().getURI(), new STRUUID().getURI()));
+
+    private static final class Entry {
+        final byte[] data;
+        final File file;
+        final long size;
+
+        Entry(byte[] data, File file, long size) {
+            this.data = data;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private final long memorySize, spillSize, diskSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed = 0, diskUsed = 0, generation = 0;
+
+    /**
+     * Constructs QueryResultCache
+     * @param memorySize maximal size in bytes of the results held in memory
+     * @param spillSize size in bytes of a single result above which the result is spilled to disk
+     * @param diskSize maximal size in bytes of the results spilled to disk, 0 means large results are not cached
+     */
+    QueryResultCache(long memorySize, long spillSize, long diskSize) {
+        this.memorySize = memorySize;
+        this.spillSize = Math.min(spillSize, memorySize);
+        this.diskSize = diskSize;
+    }
+
+    /**
+     * Constructs the cache key from the optimized query algebra, or returns null for queries with volatile results.
+     * Randomly named anonymous variables are renamed in the order of their appearance.
+     * @param generation long table generation
+     * @param tupleExpr optimized TupleExpr
+     * @param dataset optional Dataset
+     * @param bindings BindingSet
+     * @param includeInferred boolean
+     * @return String cache key or null
+     */
+    static String key(long generation, TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred) {
+        final boolean[] cacheable = {true};
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(Service node) {
+                cacheable[0] = false;
+            }
+
+            @Override
+            public void meet(BNodeGenerator node) {
+                cacheable[0] = false;
+            }
+
+            @Override
+            public void meet(FunctionCall node) {
+                if (VOLATILE_FUNCTIONS.contains(node.getURI())) {
+                    cacheable[0] = false;
+                }
+                super.meet(node);
+            }
+        });
+        if (!cacheable[0]) {
+            return null;
+        }
+        Map<String, String> anonymousVars = new HashMap<>();
+        Matcher m = ANONYMOUS_VAR.matcher(tupleExpr.toString());
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            String name = anonymousVars.get(m.group());
+            if (name == null) {
+                name = "_anon_" + anonymousVars.size();
+                anonymousVars.put(m.group(), name);
+            }
+            m.appendReplacement(sb, name);
+        }
+        m.appendTail(sb);
+        return sb.append('\n').append(generation).append('\n').append(dataset).append('\n').append(bindings).append('\n').append(includeInferred).toString();
+    }
+
+    /**
+     * Returns the cached results
+     * @param key String cache key
+     * @param generation long actual table generation
+     * @return CloseableIteration of the cached BindingSets or null if the results are not cached
+     */
+    CloseableIteration<BindingSet, QueryEvaluationException> get(String key, long generation) {
+        Entry e;
+        synchronized (this) {
+            if (generation != this.generation) {
+                //the table has been modified and all the cached results are obsolete
+                clear();
+                this.generation = generation;
+                return null;
+            }
+            e = entries.get(key);
+        }
+        if (e == null) {
+            return null;
+        }
+        TupleQueryResultBuilder builder = new TupleQueryResultBuilder();
+        try (InputStream in = e.data != null ? new ByteArrayInputStream(e.data) : new BufferedInputStream(new FileInputStream(e.file))) {
+            BinaryQueryResultParser parser = new BinaryQueryResultParser();
+            parser.setQueryResultHandler(builder);
+            parser.parse(in);
+        } catch (IOException | RuntimeException ex) {
+            //the spilled file may be already evicted
+            LOG.log(Level.FINE, "Cached query results not available", ex);
+            return null;
+        }
+        return builder.getQueryResult();
+    }
+
+    /**
+     * Wraps the evaluated results, so the results are cached when iterated completely
+     * @param key String cache key
+     * @param generation long table generation the results are evaluated from
+     * @param bindingNames List of the result binding names
+     * @param iter CloseableIteration of the evaluated results
+     * @return CloseableIteration of the same results
+     */
+    CloseableIteration<BindingSet, QueryEvaluationException> record(final String key, final long generation, final List<String> bindingNames, final CloseableIteration<? extends BindingSet, QueryEvaluationException> iter) {
+        return new CloseableIteration<BindingSet, QueryEvaluationException>() {
+            private Recorder recorder = new Recorder(bindingNames);
+
+            @Override
+            public boolean hasNext() throws QueryEvaluationException {
+                boolean hasNext = iter.hasNext();
+                if (!hasNext && recorder != null) {
+                    put(key, generation, recorder.finish());
+                    recorder = null;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public BindingSet next() throws QueryEvaluationException {
+                BindingSet bs = iter.next();
+                if (recorder != null && !recorder.record(bs)) {
+                    recorder = null;
+                }
+                return bs;
+            }
+
+            @Override
+            public void remove() throws QueryEvaluationException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() throws QueryEvaluationException {
+                if (recorder != null) {
+                    //incomplete results are not cached
+                    recorder.abort();
+                    recorder = null;
+                }
+                iter.close();
+            }
+        };
+    }
+
+    private synchronized void put(String key, long generation, Entry e) {
+        if (e == null) {
+            return;
+        }
+        if (generation != this.generation) {
+            delete(e.file);
+            return;
+        }
+        Entry old = entries.put(key, e);
+        if (old != null) {
+            release(old);
+        }
+        if (e.data != null) {
+            memoryUsed += e.size;
+        } else {
+            diskUsed += e.size;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while ((memoryUsed > memorySize || diskUsed > diskSize) && it.hasNext()) {
+            Entry eldest = it.next();
+            if ((eldest.data != null && memoryUsed > memorySize) || (eldest.file != null && diskUsed > diskSize)) {
+                it.remove();
+                release(eldest);
+            }
+        }
+    }
+
+    private void release(Entry e) {
+        if (e.data != null) {
+            memoryUsed -= e.size;
+        } else {
+            diskUsed -= e.size;
+            delete(e.file);
+        }
+    }
+
+    private static void delete(File file) {
+        if (file != null && !file.delete()) {
+            LOG.log(Level.WARNING, "Unable to delete spilled query results {0}", file);
+        }
+    }
+
+    /**
+     * Removes all the cached results
+     */
+    synchronized void clear() {
+        for (Entry e : entries.values()) {
+            release(e);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Serializes the results into memory and spills them into a temporary file once they exceed the spill size.
+     */
+    private final class Recorder extends OutputStream {
+        private final BinaryQueryResultWriter writer;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private File file = null;
+        private OutputStream out = buffer;
+        private long size = 0;
+        private boolean failed = false;
+
+        Recorder(List<String> bindingNames) {
+            writer = new BinaryQueryResultWriter(this);
+            try {
+                writer.startQueryResult(bindingNames);
+            } catch (RuntimeException e) {
+                abort();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            size += len;
+            if (size > Math.max(spillSize, diskSize)) {
+                throw new IOException("Query results exceed the cache limits");
+            }
+            if (file == null && size > spillSize) {
+                if (diskSize <= 0) {
+                    throw new IOException("Query results exceed the cache limits");
+                }
+                file = File.createTempFile("halyard-cache", ".bin");
+                file.deleteOnExit();
+                out = new BufferedOutputStream(new FileOutputStream(file));
+                buffer.writeTo(out);
+                buffer = null;
+            }
+            out.write(b, off, len);
+        }
+
+        boolean record(BindingSet bs) {
+            if (!failed) try {
+                writer.handleSolution(bs);
+            } catch (RuntimeException e) {
+                //the results are too large or not serializable
+                abort();
+            }
+            return !failed;
+        }
+
+        Entry finish() {
+            if (!failed) try {
+                writer.endQueryResult();
+                if (file == null) {
+                    return new Entry(buffer.toByteArray(), null, size);
+                } else {
+                    out.close();
+                    return new Entry(null, file, size);
+                }
+            } catch (IOException | RuntimeException e) {
+                abort();
+            }
+            return null;
+        }
+
+        void abort() {
+            failed = true;
+            buffer = null;
+            if (file != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+                delete(file);
+                file = null;
+            }
+        }
+    }
+}
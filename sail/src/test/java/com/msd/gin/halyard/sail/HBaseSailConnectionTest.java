@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class HBaseSailConnectionTest {
+
+    @Test
+    public void testConcurrentConnections() throws Exception {
+        final HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "concurrentConnectionsTable", true, 0, true, 0, null);
+        sail.initialize();
+        final ValueFactory vf = SimpleValueFactory.getInstance();
+        final IRI pred = vf.createIRI("http://whatever/pred");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        SailConnection con = sail.getConnection();
+                        try {
+                            IRI subj = vf.createIRI("http://whatever/subj" + thread);
+                            for (int i = 0; i < 100; i++) {
+                                con.addStatement(subj, pred, vf.createLiteral(i));
+                            }
+                            con.commit();
+                            return count(con, subj);
+                        } finally {
+                            con.close();
+                        }
+                    }
+                }));
+            }
+            for (Future<Integer> f : results) {
+                assertEquals(100, (int)f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        SailConnection con = sail.getConnection();
+        assertEquals(400, count(con, null));
+        con.close();
+        sail.shutDown();
+    }
+
+    @Test
+    public void testSharedNamespaces() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "sharedNamespacesTable", true, 0, true, 0, null);
+        sail.initialize();
+        SailConnection con1 = sail.getConnection();
+        SailConnection con2 = sail.getConnection();
+        con1.setNamespace("prefix", "http://whatever/namespace/");
+        assertEquals("http://whatever/namespace/", con2.getNamespace("prefix"));
+        con2.removeNamespace("prefix");
+        assertNull(con1.getNamespace("prefix"));
+        con1.close();
+        con2.close();
+        sail.shutDown();
+    }
+
+    @Test
+    public void testRepositoryConnections() throws Exception {
+        SailRepository rep = new SailRepository(new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "repositoryConnectionsTable", true, 0, true, 0, null));
+        rep.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        try (RepositoryConnection con = rep.getConnection()) {
+            con.add(vf.createIRI("http://whatever/subj"), vf.createIRI("http://whatever/pred"), vf.createLiteral("whatever"));
+        }
+        try (RepositoryConnection con = rep.getConnection()) {
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s ?p ?o}").evaluate()) {
+                assertTrue(res.hasNext());
+                assertEquals("whatever", res.next().getValue("o").stringValue());
+                assertFalse(res.hasNext());
+            }
+        }
+        rep.shutDown();
+    }
+
+    private static int count(SailConnection con, IRI subj) throws SailException {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> it = con.getStatements(subj, null, null, true)) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -17,29 +17,49 @@
 package com.msd.gin.halyard.sail;
 
 import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import com.msd.gin.halyard.strategy.HalyardMetrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.eclipse.rdf4j.IsolationLevel;
 import org.eclipse.rdf4j.IsolationLevels;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.SD;
 import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.query.GraphQueryResult;
 import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.UnknownSailTransactionStateException;
 import org.junit.Test;
@@ -90,15 +110,18 @@ public class HBaseSailTest {
     public void testWriteToReadOnly() throws Exception {
         HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertableRO", true, 0, true, 0, null);
         sail.initialize();
-        try {
-            HTableDescriptor desc = sail.table.getTableDescriptor();
-            try (Connection con = ConnectionFactory.createConnection(HBaseServerTestInstance.getInstanceConfig())) {
-                try (Admin ha = con.getAdmin()) {
-                    desc = new HTableDescriptor(desc);
-                    desc.setReadOnly(true);
-                    ha.modifyTable(desc.getTableName(), desc);
-                }
+        HTableDescriptor desc = sail.table.getTableDescriptor();
+        sail.shutDown();
+        try (Connection con = ConnectionFactory.createConnection(HBaseServerTestInstance.getInstanceConfig())) {
+            try (Admin ha = con.getAdmin()) {
+                desc = new HTableDescriptor(desc);
+                desc.setReadOnly(true);
+                ha.modifyTable(desc.getTableName(), desc);
             }
+        }
+        //the table status is read by initialize() and then refreshed in background
+        sail.initialize();
+        try {
             ValueFactory vf = SimpleValueFactory.getInstance();
             sail.addStatement(vf.createIRI("http://whatever/subj"), vf.createIRI("http://whatever/pred"), vf.createLiteral("whatever"));
         } finally {
@@ -109,7 +132,23 @@ public class HBaseSailTest {
     @Test
     public void testGetConnection() throws Exception {
         HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertable", true, 0, true, 0, null);
-        assertSame(sail, sail.getConnection());
+        sail.initialize();
+        SailConnection con1 = sail.getConnection();
+        SailConnection con2 = sail.getConnection();
+        assertTrue(con1 instanceof HBaseSailConnection);
+        assertNotSame(sail, con1);
+        assertNotSame(con1, con2);
+        assertTrue(con1.isOpen());
+        con1.close();
+        assertFalse(con1.isOpen());
+        assertTrue(con2.isOpen());
+        sail.shutDown();
+        assertFalse(con2.isOpen());
+    }
+
+    @Test(expected = SailException.class)
+    public void testGetConnectionNotInitialized() throws Exception {
+        new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertable", true, 0, true, 0, null).getConnection();
     }
 
     @Test
@@ -154,6 +193,118 @@ public class HBaseSailTest {
         assertEquals(567, sail.size());
     }
 
+    @Test
+    public void testBufferedWrites() throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setLong(HBaseSail.WRITE_BUFFER_SIZE, 1024);
+        conf.setInt(HBaseSail.WRITE_THREADS, 2);
+        HBaseSail sail = new HBaseSail(conf, "bufferedWritesTable", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        for (int i = 0; i < 1000; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i), i % 2 == 0 ? null : vf.createIRI("http://whatever/graph"));
+        }
+        sail.commit();
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, null, null, true)) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        assertEquals(1000, count);
+        //the removed statements are buffered until commit
+        for (int i = 1; i < 10; i += 2) {
+            sail.removeStatement(null, vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i), vf.createIRI("http://whatever/graph"));
+        }
+        sail.commit();
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, null, null, true, vf.createIRI("http://whatever/graph"))) {
+            count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        assertEquals(495, count);
+        sail.shutDown();
+        //following operations of a SPARQL update read the buffered deletes
+        SailRepository rep = new SailRepository(new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bufferedWritesTable", false, 0, true, 0, null));
+        rep.initialize();
+        try (RepositoryConnection con = rep.getConnection()) {
+            con.prepareUpdate(QueryLanguage.SPARQL, "delete data {<http://whatever/subj0> <http://whatever/pred> \"0\"^^<http://www.w3.org/2001/XMLSchema#int>}; insert {<http://whatever/count> <http://whatever/value> ?c} where {select (count(*) as ?c) where {?s <http://whatever/pred> ?o}}").execute();
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select ?c where {<http://whatever/count> <http://whatever/value> ?c}").evaluate()) {
+                assertEquals(994, ((Literal)res.next().getValue("c")).intValue());
+            }
+        }
+        rep.shutDown();
+    }
+
+    @Test
+    public void testMultiContextStatements() throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.SCAN_CONTEXT_RANGES, 5);
+        HBaseSail sail = new HBaseSail(conf, "multiContextTable", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI subj = vf.createIRI("http://whatever/subj");
+        IRI pred = vf.createIRI("http://whatever/pred");
+        Resource[] contexts = new Resource[20];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = vf.createIRI("http://whatever/graph" + i);
+            sail.addStatement(subj, pred, vf.createLiteral(i), contexts[i]);
+        }
+        sail.addStatement(subj, pred, vf.createLiteral("default"));
+        sail.commit();
+        assertEquals(3, count(sail.getStatements(null, null, null, true, contexts[0], contexts[1], contexts[2])));
+        assertEquals(3, count(sail.getStatements(subj, pred, null, true, contexts[0], contexts[1], contexts[2])));
+        assertEquals(10, count(sail.getStatements(subj, null, null, true, Arrays.copyOf(contexts, 10))));
+        assertEquals(11, count(sail.getStatements(subj, pred, null, true, Arrays.copyOf(contexts, 11))));
+        assertEquals(4, count(sail.getStatements(subj, pred, null, true, null, contexts[5], contexts[6])));
+        sail.shutDown();
+    }
+
+    private static int count(CloseableIteration<? extends Statement, SailException> it) throws SailException {
+        int count = 0;
+        try {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        } finally {
+            it.close();
+        }
+        return count;
+    }
+
+    @Test
+    public void testStatsDeltas() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertabledeltas", true, 0, true, 0, null);
+        sail.initialize();
+        IRI pred = vf.createIRI("http://whatever/pred");
+        IRI ctx = vf.createIRI("http://whatever/ctx");
+        for (int i = 0; i < 10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i), ctx);
+        }
+        sail.removeStatement(null, vf.createIRI("http://whatever/subj0"), pred, vf.createLiteral(0), ctx);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(567), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.commit();
+        Map<String, Long> deltas = new HashMap<>();
+        try (ResultScanner rs = sail.table.getScanner(HalyardTableUtils.statsDeltaScan())) {
+            for (Result r : rs) {
+                for (Cell c : r.rawCells()) {
+                    deltas.put(Bytes.toString(CellUtil.cloneRow(c), 1, c.getRowLength() - 1) + " " + Bytes.toString(CellUtil.cloneQualifier(c)), Bytes.toLong(CellUtil.cloneValue(c)));
+                }
+            }
+        }
+        assertEquals(4, deltas.size());
+        assertEquals(Long.valueOf(9), deltas.get(" \u0000"));
+        assertEquals(Long.valueOf(9), deltas.get(" <http://whatever/pred>\u0000"));
+        assertEquals(Long.valueOf(9), deltas.get("<http://whatever/ctx> \u0000"));
+        assertEquals(Long.valueOf(9), deltas.get("<http://whatever/ctx> <http://whatever/pred>\u0000"));
+        sail.shutDown();
+    }
+
     @Test(expected = UnknownSailTransactionStateException.class)
     public void testBegin() throws Exception {
         new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertable", true, 0, true, 0, null).begin(IsolationLevels.READ_COMMITTED);
@@ -260,6 +411,47 @@ public class HBaseSailTest {
         rep.shutDown();
     }
 
+    @Test
+    public void testEvaluateExists() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        IRI other = vf.createIRI("http://whatever/other/");
+        IRI context = vf.createIRI("http://whatever/context/");
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whateverexists", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        for (int i = 0; i < 10; i++) {
+            Resource subj = vf.createIRI("http://whatever/subj" + i);
+            sail.addStatement(subj, pred, vf.createLiteral(i));
+            if (i % 2 == 0) {
+                sail.addStatement(subj, other, vf.createLiteral(i));
+            }
+            if (i % 5 == 0) {
+                sail.addStatement(subj, other, vf.createLiteral("context"), context);
+            }
+        }
+        sail.commit();
+        RepositoryConnection con = rep.getConnection();
+        assertEquals(5, count(con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred/> ?o filter exists {?s <http://whatever/other/> ?o}}").evaluate()));
+        assertEquals(5, count(con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred/> ?o filter not exists {?s <http://whatever/other/> ?o}}").evaluate()));
+        assertEquals(2, count(con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred/> ?o filter exists {graph <http://whatever/context/> {?s <http://whatever/other/> \"context\"}}}").evaluate()));
+        assertEquals(0, count(con.prepareTupleQuery(QueryLanguage.SPARQL, "select * from <http://whatever/context/> where {?s <http://whatever/pred/> ?o filter exists {?s <http://whatever/other/> ?o}}").evaluate()));
+        assertTrue(con.prepareBooleanQuery(QueryLanguage.SPARQL, "ask {?s <http://whatever/pred/> ?o}").evaluate());
+        assertFalse(con.prepareBooleanQuery(QueryLanguage.SPARQL, "ask {?s <http://whatever/pred/> \"whatever\"}").evaluate());
+        con.close();
+        rep.shutDown();
+    }
+
+    private static int count(TupleQueryResult res) {
+        int count = 0;
+        while (res.hasNext()) {
+            res.next();
+            count++;
+        }
+        res.close();
+        return count;
+    }
+
     @Test
     public void testEvaluateService() throws Exception {
         ValueFactory vf = SimpleValueFactory.getInstance();
@@ -332,6 +524,107 @@ public class HBaseSailTest {
         }
     }
 
+    @Test
+    public void testExplain() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "explaintable", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        for (int i = 0; i < 10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i));
+        }
+        sail.commit();
+        TupleExpr q = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred> ?o}", "http://whatever/").getTupleExpr();
+        String plan = sail.explain(q, null, EmptyBindingSet.getInstance(), true, false);
+        assertTrue(plan, plan.contains("StatementPattern [estimated="));
+        assertFalse(plan, plan.contains("scans="));
+        plan = sail.explain(q, null, EmptyBindingSet.getInstance(), true, true);
+        assertTrue(plan, plan.contains("evaluations=1, results=10, "));
+        assertTrue(plan, plan.contains("scans=1, statements=10, bytes="));
+        assertFalse(plan, plan.contains("bytes=0,"));
+        sail.shutDown();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "metricstable", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        long batches = HalyardMetrics.histogram("write.batch.statements").getCount();
+        for (int i = 0; i < 10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i));
+        }
+        sail.commit();
+        assertTrue(HalyardMetrics.histogram("write.batch.statements").getCount() > batches);
+        long scans = HalyardMetrics.counter("scan.opened").get();
+        long results = HalyardMetrics.counter("scan.results").get();
+        long tupleQueries = HalyardMetrics.histogram("query.tuple.latency.ms").getCount();
+        long booleanQueries = HalyardMetrics.histogram("query.boolean.latency.ms").getCount();
+        long graphQueries = HalyardMetrics.histogram("query.graph.latency.ms").getCount();
+        RepositoryConnection con = rep.getConnection();
+        TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred> ?o}").evaluate();
+        assertEquals(10, count(res));
+        assertTrue(con.prepareBooleanQuery(QueryLanguage.SPARQL, "ask {?s <http://whatever/pred> ?o}").evaluate());
+        GraphQueryResult gres = con.prepareGraphQuery(QueryLanguage.SPARQL, "construct {?s <http://whatever/other> ?o} where {?s <http://whatever/pred> ?o}").evaluate();
+        while (gres.hasNext()) {
+            gres.next();
+        }
+        gres.close();
+        con.close();
+        assertTrue(HalyardMetrics.counter("scan.opened").get() >= scans + 3);
+        assertTrue(HalyardMetrics.counter("scan.results").get() >= results + 20);
+        assertEquals(tupleQueries + 1, HalyardMetrics.histogram("query.tuple.latency.ms").getCount());
+        assertEquals(booleanQueries + 1, HalyardMetrics.histogram("query.boolean.latency.ms").getCount());
+        assertEquals(graphQueries + 1, HalyardMetrics.histogram("query.graph.latency.ms").getCount());
+        rep.shutDown();
+    }
+
+    @Test
+    public void testSlowQueryLog() throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setLong(HBaseSail.SLOW_QUERY_THRESHOLD, 0);
+        HBaseSail sail = new HBaseSail(conf, "slowquerytable", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        for (int i = 0; i < 10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i));
+        }
+        sail.commit();
+        final List<String> messages = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(new SimpleFormatter().formatMessage(record));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger log = Logger.getLogger(HBaseSailConnection.class.getName());
+        log.addHandler(handler);
+        try {
+            RepositoryConnection con = rep.getConnection();
+            assertEquals(10, count(con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred> ?o} order by ?o").evaluate()));
+            con.close();
+        } finally {
+            log.removeHandler(handler);
+        }
+        assertEquals(1, messages.size());
+        String message = messages.get(0);
+        assertTrue(message, message.startsWith("Slow query evaluated in "));
+        assertTrue(message, message.contains(", scans=1, rows=10, bytes="));
+        assertFalse(message, message.contains("spilled=0"));
+        assertTrue(message, message.contains("Query:\n"));
+        assertTrue(message, message.contains("Optimized plan:\n"));
+        rep.shutDown();
+    }
+
     @Test
     public void testCardinalityCalculator() throws Exception {
         HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "cardinalitytable", true, 0, true, 0, null);
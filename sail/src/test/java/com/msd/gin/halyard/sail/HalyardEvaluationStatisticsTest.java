@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.Var;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class HalyardEvaluationStatisticsTest {
+
+    @Test
+    public void testStarJoinCardinality() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "evaluationStatisticsTable", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI name = vf.createIRI("http://whatever/name");
+        IRI age = vf.createIRI("http://whatever/age");
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, RDF.TYPE, VOID.DATASET, HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(1000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, VOID.DISTINCT_SUBJECTS, vf.createLiteral(150l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("100\n200 <http://whatever/age>\n100 <http://whatever/name>"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("50\n50 <http://whatever/name>"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.commit();
+
+        Join star = new Join(new StatementPattern(new Var("s"), new Var("p1", name), new Var("o1")), new StatementPattern(new Var("s"), new Var("p2", age), new Var("o2")));
+        //only the 100 subjects of the first characteristic set have both properties, each with one name and two ages
+        assertEquals(200.0, sail.statistics.getCardinality(star), 0.001);
+
+        Join single = new Join(new StatementPattern(new Var("s"), new Var("p1", name), new Var("o1")), new StatementPattern(new Var("s"), new Var("p2", name), new Var("o2")));
+        assertEquals(150.0, sail.statistics.getCardinality(single), 0.001);
+        sail.shutDown();
+    }
+
+    @Test
+    public void testPropertyStatistics() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "evaluationStatisticsTable2", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI age = vf.createIRI("http://whatever/age");
+        IRI status = vf.createIRI("http://whatever/status");
+        IRI ageNode = vf.createIRI(HALYARD.STATS_ROOT_NODE.stringValue() + "_property_" + Base64.getUrlEncoder().withoutPadding().encodeToString(HalyardTableUtils.hashKey("<http://whatever/age>".getBytes(StandardCharsets.UTF_8))));
+        IRI statusNode = vf.createIRI(HALYARD.STATS_ROOT_NODE.stringValue() + "_property_" + Base64.getUrlEncoder().withoutPadding().encodeToString(HalyardTableUtils.hashKey("<http://whatever/status>".getBytes(StandardCharsets.UTF_8))));
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(10000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(ageNode, VOID.TRIPLES, vf.createLiteral(1000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(ageNode, VOID.DISTINCT_SUBJECTS, vf.createLiteral(1000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(ageNode, VOID.DISTINCT_OBJECTS, vf.createLiteral(100l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(ageNode, HALYARD.HISTOGRAM, vf.createLiteral("0 25 50 75 100"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(ageNode, HALYARD.HISTOGRAM_TRIPLES, vf.createLiteral(1000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(statusNode, VOID.TRIPLES, vf.createLiteral(1000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(statusNode, VOID.DISTINCT_SUBJECTS, vf.createLiteral(1000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(statusNode, VOID.DISTINCT_OBJECTS, vf.createLiteral(12l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(statusNode, HALYARD.MOST_COMMON_VALUES, vf.createLiteral("700 \"active\"\n200 \"inactive\""), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.commit();
+
+        assertEquals(700.0, sail.statistics.getCardinality(new StatementPattern(new Var("s"), new Var("p", status), new Var("o", vf.createLiteral("active")))), 0.001);
+        assertEquals(10.0, sail.statistics.getCardinality(new StatementPattern(new Var("s"), new Var("p", status), new Var("o", vf.createLiteral("other")))), 0.001);
+        assertEquals(1.0, sail.statistics.getCardinality(new StatementPattern(new Var("s", vf.createIRI("http://whatever/subj")), new Var("p", status), new Var("o"))), 0.001);
+
+        StatementPattern agePattern = new StatementPattern(new Var("s"), new Var("p", age), new Var("o"));
+        assertEquals(375.0, sail.statistics.getCardinality(new Filter(agePattern, new Compare(new Var("o"), new ValueConstant(vf.createLiteral(37.5)), Compare.CompareOp.LT))), 0.001);
+        assertEquals(625.0, sail.statistics.getCardinality(new Filter(agePattern.clone(), new Compare(new ValueConstant(vf.createLiteral(37.5)), new Var("o"), Compare.CompareOp.LE))), 0.001);
+
+        //chain join reduced by the number of distinct objects of age
+        Join chain = new Join(new StatementPattern(new Var("s"), new Var("p1", status), new Var("x")), new StatementPattern(new Var("x"), new Var("p2", age), new Var("o")));
+        assertEquals(1000.0, sail.statistics.getCardinality(chain), 0.001);
+        sail.shutDown();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryJoinOptimizer;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class HalyardQueryJoinOptimizerTest {
+
+    @Test
+    public void testCorrelatedStarJoinOrder() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "queryJoinOptimizerTable", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(8000l), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, VOID.DISTINCT_SUBJECTS, vf.createLiteral(5000l), HALYARD.STATS_GRAPH_CONTEXT);
+        addPropertyStatistics(sail, "a", 1000l, 1000l);
+        addPropertyStatistics(sail, "b", 4000l, 2000l);
+        addPropertyStatistics(sail, "c", 3000l, 3000l);
+        //almost all subjects with property a have also property c, only a few of them have property b
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("10\n10 <http://whatever/a>\n20 <http://whatever/b>"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("990\n990 <http://whatever/a>\n990 <http://whatever/c>"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("1990\n3980 <http://whatever/b>"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("2010\n2010 <http://whatever/c>"), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.commit();
+
+        String query = "select * where {?s <http://whatever/a> ?x . ?s <http://whatever/b> ?y . ?s <http://whatever/c> ?z}";
+        TupleExpr independent = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null).getTupleExpr();
+        new QueryJoinOptimizer(sail.statistics).optimize(independent, null, EmptyBindingSet.getInstance());
+        //the independence assumption prefers the smaller property c
+        assertEquals(Arrays.asList("a", "c", "b"), getJoinOrder(independent));
+
+        TupleExpr correlated = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null).getTupleExpr();
+        new HalyardQueryJoinOptimizer(sail.statistics).optimize(correlated, null, EmptyBindingSet.getInstance());
+        //the characteristic sets tell that the join of a and b is much smaller than the join of a and c
+        assertEquals(Arrays.asList("a", "b", "c"), getJoinOrder(correlated));
+        sail.shutDown();
+    }
+
+    private static void addPropertyStatistics(HBaseSail sail, String property, long triples, long distinctSubjects) {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI node = vf.createIRI(HALYARD.STATS_ROOT_NODE.stringValue() + "_property_" + Base64.getUrlEncoder().withoutPadding().encodeToString(HalyardTableUtils.hashKey(("<http://whatever/" + property + ">").getBytes(StandardCharsets.UTF_8))));
+        sail.addStatement(node, VOID.TRIPLES, vf.createLiteral(triples), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(node, VOID.DISTINCT_SUBJECTS, vf.createLiteral(distinctSubjects), HALYARD.STATS_GRAPH_CONTEXT);
+        sail.addStatement(node, VOID.DISTINCT_OBJECTS, vf.createLiteral(triples), HALYARD.STATS_GRAPH_CONTEXT);
+    }
+
+    private static List<String> getJoinOrder(TupleExpr expr) {
+        final List<String> order = new ArrayList<>();
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(StatementPattern node) {
+                order.add(((IRI)node.getPredicateVar().getValue()).getLocalName());
+            }
+        });
+        return order;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.SailException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class ParallelResultScannerTest {
+
+    private static HBaseSail sail;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.SCAN_PARALLELISM, 4);
+        sail = new HBaseSail(conf, "parallelScanTable", true, 2, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred");
+        for (int i = 0; i < 1000; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        sail.shutDown();
+    }
+
+    @Test
+    public void testParallelStatementScan() throws Exception {
+        Set<Statement> statements = new HashSet<>();
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, null, null, true)) {
+            while (it.hasNext()) {
+                assertTrue(statements.add(it.next()));
+            }
+        }
+        assertEquals(1000, statements.size());
+    }
+
+    @Test
+    public void testOrderedScan() throws Exception {
+        List<Scan> scans = HalyardTableUtils.splitScan(HalyardTableUtils.scan(null, null, null, null), sail.regionStartKeys);
+        assertEquals(4, scans.size());
+        byte[] lastRow = new byte[0];
+        int count = 0;
+        try (ResultScanner rs = new ParallelResultScanner(sail, scans, 4, 3, true, 0)) {
+            Result res;
+            while ((res = rs.next()) != null) {
+                assertTrue(Bytes.compareTo(lastRow, res.getRow()) <= 0);
+                lastRow = res.getRow();
+                count += res.rawCells().length;
+            }
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testUnorderedScan() throws Exception {
+        List<Scan> scans = HalyardTableUtils.splitScan(HalyardTableUtils.scan(null, null, null, null), sail.regionStartKeys);
+        int count = 0;
+        try (ResultScanner rs = new ParallelResultScanner(sail, scans, 2, 3, false, 0)) {
+            for (Result res : rs) {
+                count += res.rawCells().length;
+            }
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testEarlyClose() throws Exception {
+        List<Scan> scans = HalyardTableUtils.splitScan(HalyardTableUtils.scan(null, null, null, null), sail.regionStartKeys);
+        ResultScanner rs = new ParallelResultScanner(sail, scans, 4, 1, false, 0);
+        assertNotNull(rs.next());
+        rs.close();
+        rs.close();
+    }
+
+    @Test
+    public void testPrefetchedStatementScan() throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.SCAN_PREFETCH, 2);
+        HBaseSail prefetchSail = new HBaseSail(conf, "parallelScanTable", false, 0, true, 0, null);
+        prefetchSail.initialize();
+        try {
+            int count = 0;
+            try (CloseableIteration<? extends Statement, SailException> it = prefetchSail.getStatements(null, null, null, true)) {
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+            }
+            assertEquals(1000, count);
+        } finally {
+            prefetchSail.shutDown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testAbandonedScanTimeout() throws Exception {
+        List<Scan> scans = Collections.singletonList(HalyardTableUtils.scan(null, null, null, null));
+        try (ResultScanner rs = new ParallelResultScanner(sail, scans, 1, 1, false, System.currentTimeMillis() + 500)) {
+            Thread.sleep(2000);
+            while (rs.next() != null);
+        }
+    }
+}
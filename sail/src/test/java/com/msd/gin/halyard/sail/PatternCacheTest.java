@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.SailException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class PatternCacheTest {
+
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+    private static final IRI PRED = VF.createIRI("http://whatever/pred");
+
+    private static HBaseSail createSail(String tableName, long size, long ttl) throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setLong(HBaseSail.PATTERN_CACHE_SIZE, size);
+        conf.setLong(HBaseSail.PATTERN_CACHE_TTL, ttl);
+        HBaseSail sail = new HBaseSail(conf, tableName, true, 0, true, 0, null);
+        sail.initialize();
+        return sail;
+    }
+
+    private static int count(HBaseSail sail, IRI subj) throws SailException {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(subj, null, null, true)) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void putDirectly(HBaseSail sail, IRI subj, int value) throws Exception {
+        try (HTable table = HalyardTableUtils.getTable(sail.table.getConfiguration(), sail.tableName, false, 0)) {
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, PRED, VF.createLiteral(value), null)) {
+                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+            }
+            table.flushCommits();
+        }
+    }
+
+    @Test
+    public void testCachedPatterns() throws Exception {
+        HBaseSail sail = createSail("patternCacheTable", 1000, 60000);
+        IRI subj = VF.createIRI("http://whatever/subj");
+        for (int i = 0; i < 5; i++) {
+            sail.addStatement(subj, PRED, VF.createLiteral(i));
+        }
+        sail.commit();
+        assertEquals(5, count(sail, subj));
+        assertEquals(5, count(sail, subj));
+        assertEquals(1, sail.patternCache.getHits());
+        putDirectly(sail, subj, 5);
+        assertEquals(5, count(sail, subj));
+        sail.addStatement(subj, PRED, VF.createLiteral(6));
+        sail.commit();
+        assertEquals(7, count(sail, subj));
+        sail.shutDown();
+    }
+
+    @Test
+    public void testGenerationCheck() throws Exception {
+        HBaseSail sail = createSail("patternCacheGenerationTable", 1000, 0);
+        IRI subj = VF.createIRI("http://whatever/subj");
+        sail.addStatement(subj, PRED, VF.createLiteral(0));
+        sail.commit();
+        assertEquals(1, count(sail, subj));
+        putDirectly(sail, subj, 1);
+        try (HTable table = HalyardTableUtils.getTable(sail.table.getConfiguration(), sail.tableName, false, 0)) {
+            HalyardTableUtils.incrementGeneration(table);
+        }
+        assertEquals(2, count(sail, subj));
+        sail.shutDown();
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        HBaseSail sail = createSail("patternCacheEvictionTable", 30, 60000);
+        for (int i = 0; i < 10; i++) {
+            IRI subj = VF.createIRI("http://whatever/subj" + i);
+            sail.addStatement(subj, PRED, VF.createLiteral(i));
+            sail.addStatement(subj, PRED, VF.createLiteral("value" + i));
+        }
+        IRI large = VF.createIRI("http://whatever/large");
+        for (int i = 0; i < 4; i++) {
+            sail.addStatement(large, PRED, VF.createLiteral(i));
+        }
+        sail.commit();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(2, count(sail, VF.createIRI("http://whatever/subj" + i)));
+        }
+        assertEquals(0, sail.patternCache.getEvictions());
+        assertEquals(2, count(sail, VF.createIRI("http://whatever/subj0")));
+        assertEquals(1, sail.patternCache.getHits());
+        assertEquals(0, count(sail, VF.createIRI("http://whatever/subj10")));
+        assertEquals(1, sail.patternCache.getEvictions());
+        assertEquals(2, count(sail, VF.createIRI("http://whatever/subj0")));
+        assertEquals(2, sail.patternCache.getHits());
+        assertEquals(2, count(sail, VF.createIRI("http://whatever/subj1")));
+        assertEquals(2, sail.patternCache.getHits());
+        assertEquals(4, count(sail, large));
+        assertEquals(4, count(sail, large));
+        assertEquals(2, sail.patternCache.getHits());
+        List<Object> key = PatternCache.key(large, null, null, (Resource)null);
+        assertNull(sail.patternCache.get(key));
+        sail.patternCache.put(key, sail.patternCache.generation(), Collections.<Statement>emptyList());
+        assertNotNull(sail.patternCache.get(key));
+        sail.shutDown();
+    }
+}
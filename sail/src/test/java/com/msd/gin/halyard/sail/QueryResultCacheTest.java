@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class QueryResultCacheTest {
+
+    private static TupleExpr parse(String query) {
+        return QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, "http://whatever/").getTupleExpr();
+    }
+
+    private static String key(String query) {
+        return QueryResultCache.key(1, parse(query), null, EmptyBindingSet.getInstance(), true);
+    }
+
+    private static List<BindingSet> results(int count) {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        List<BindingSet> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            QueryBindingSet bs = new QueryBindingSet();
+            bs.addBinding("s", vf.createIRI("http://whatever/subj" + i));
+            bs.addBinding("o", vf.createLiteral("value " + i));
+            results.add(bs);
+        }
+        return results;
+    }
+
+    private static int consume(CloseableIteration<? extends BindingSet, QueryEvaluationException> it) {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private static void record(QueryResultCache cache, String key, int count) {
+        consume(cache.record(key, 1, Arrays.asList("s", "o"), new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(results(count).iterator())));
+    }
+
+    @Test
+    public void testKey() {
+        String query = "select * where {?s ?p [?p2 ?o]}";
+        assertEquals(key(query), key(query));
+        assertNotEquals(key(query), key("select * where {?s ?p [?p2 ?o2]}"));
+        assertNotEquals(key(query), QueryResultCache.key(2, parse(query), null, EmptyBindingSet.getInstance(), true));
+        assertNull(key("select * where {?s ?p ?o filter (?o < rand())}"));
+        assertNull(key("select * where {bind (struuid() as ?s)}"));
+        assertNull(key("select * where {bind (uuid() as ?s)}"));
+        assertNull(key("select * where {bind (now() as ?s)}"));
+        //custom functions are not confused with the volatile builtins
+        assertNotNull(key("prefix ex: <http://whatever/> select * where {?s ?p ?o filter (ex:brand(?o) || ex:getKnow(?o) || ex:UUID(?o))}"));
+        assertNull(key("select * where {service <http://whatever/endpoint> {?s ?p ?o}}"));
+    }
+
+    @Test
+    public void testRecordAndGet() {
+        QueryResultCache cache = new QueryResultCache(1024 * 1024, 1024, 0);
+        assertNull(cache.get("key", 1));
+        record(cache, "key", 10);
+        assertEquals(10, consume(cache.get("key", 1)));
+        assertNull(cache.get("key", 2));
+        assertNull(cache.get("key", 2));
+    }
+
+    @Test
+    public void testIncompleteResultsNotCached() {
+        QueryResultCache cache = new QueryResultCache(1024 * 1024, 1024, 0);
+        assertNull(cache.get("key", 1));
+        CloseableIteration<BindingSet, QueryEvaluationException> it = cache.record("key", 1, Arrays.asList("s", "o"), new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(results(10).iterator()));
+        it.next();
+        it.close();
+        assertNull(cache.get("key", 1));
+    }
+
+    @Test
+    public void testSpillAndEviction() {
+        QueryResultCache cache = new QueryResultCache(1024 * 1024, 1024, 100000);
+        assertNull(cache.get("key", 1));
+        record(cache, "small", 5);
+        record(cache, "large1", 1000);
+        assertEquals(1000, consume(cache.get("large1", 1)));
+        record(cache, "large2", 1000);
+        record(cache, "large3", 1000);
+        assertEquals(5, consume(cache.get("small", 1)));
+        assertEquals(1000, consume(cache.get("large3", 1)));
+        assertNull(cache.get("large1", 1));
+        record(cache, "huge", 10000);
+        assertNull(cache.get("huge", 1));
+        cache.clear();
+        assertNull(cache.get("small", 1));
+    }
+
+    @Test
+    public void testCachedQueries() throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setLong(HBaseSail.CACHE_SIZE, 1024 * 1024);
+        SailRepository rep = new SailRepository(new HBaseSail(conf, "resultCacheTable", true, 0, true, 0, null));
+        rep.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        try (RepositoryConnection con = rep.getConnection()) {
+            con.add(vf.createIRI("http://whatever/subj1"), vf.createIRI("http://whatever/pred"), vf.createLiteral("whatever"));
+            con.commit();
+            for (int i = 0; i < 3; i++) {
+                try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s ?p ?o}").evaluate()) {
+                    assertEquals(1, consume(res));
+                }
+            }
+            //direct table modification is not visible through the cached results
+            try (HTable table = HalyardTableUtils.getTable(conf, "resultCacheTable", false, 0)) {
+                for (KeyValue kv : HalyardTableUtils.toKeyValues(vf.createIRI("http://whatever/subj2"), vf.createIRI("http://whatever/pred"), vf.createLiteral("whatever"), null)) {
+                    table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+                }
+                table.flushCommits();
+            }
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s ?p ?o}").evaluate()) {
+                assertEquals(1, consume(res));
+            }
+            con.add(vf.createIRI("http://whatever/subj3"), vf.createIRI("http://whatever/pred"), vf.createLiteral("whatever"));
+            con.commit();
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s ?p ?o}").evaluate()) {
+                assertEquals(3, consume(res));
+            }
+            //the table generation is incremented once per commit
+            long generation;
+            try (HTable table = HalyardTableUtils.getTable(conf, "resultCacheTable", false, 0)) {
+                generation = HalyardTableUtils.getGeneration(table);
+            }
+            con.begin();
+            con.remove(vf.createIRI("http://whatever/subj1"), null, null);
+            con.remove(vf.createIRI("http://whatever/subj2"), null, null);
+            con.commit();
+            try (HTable table = HalyardTableUtils.getTable(conf, "resultCacheTable", false, 0)) {
+                assertEquals(generation + 1, HalyardTableUtils.getGeneration(table));
+            }
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s ?p ?o}").evaluate()) {
+                assertEquals(1, consume(res));
+            }
+        }
+        rep.shutDown();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.AbstractBindingSet;
+import org.eclipse.rdf4j.query.Binding;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.impl.SimpleBinding;
+
+/**
+ * Immutable BindingSet held in two parallel arrays of binding names and values.
+ * Extending another CompactBindingSet just copies its arrays, so the parent bindings are shared without re-hashing
+ * and the binding names (usually the same String instances of the query algebra) are mostly matched by identity.
+ * The bindings are iterated in the same order as they are added, so the hash code is equal to the hash code
+ * of an equivalent QueryBindingSet.
+ * @author Adam Sotona (MSD)
+ */
+final class CompactBindingSet extends AbstractBindingSet {
+
+    private static final long serialVersionUID = 2356374512937862144L;
+
+    private final String[] names;
+    private final Value[] values;
+
+    /**
+     * Constructs CompactBindingSet as an extension of the parent BindingSet
+     * @param parent BindingSet of the parent bindings
+     * @param names array of the additional binding names, the names must not be already bound in the parent
+     * @param values array of the additional binding values, null values are skipped
+     */
+    CompactBindingSet(BindingSet parent, String[] names, Value[] values) {
+        int parentSize = parent.size();
+        int size = parentSize;
+        for (Value v : values) {
+            if (v != null) {
+                size++;
+            }
+        }
+        this.names = new String[size];
+        this.values = new Value[size];
+        if (parent instanceof CompactBindingSet) {
+            System.arraycopy(((CompactBindingSet) parent).names, 0, this.names, 0, parentSize);
+            System.arraycopy(((CompactBindingSet) parent).values, 0, this.values, 0, parentSize);
+        } else {
+            int i = 0;
+            for (Binding b : parent) {
+                this.names[i] = b.getName();
+                this.values[i++] = b.getValue();
+            }
+        }
+        int i = parentSize;
+        for (int j = 0; j < values.length; j++) {
+            if (values[j] != null) {
+                this.names[i] = names[j];
+                this.values[i++] = values[j];
+            }
+        }
+    }
+
+    private int indexOf(String bindingName) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == bindingName) {
+                return i;
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(bindingName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterator<Binding> iterator() {
+        return new Iterator<Binding>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < names.length;
+            }
+
+            @Override
+            public Binding next() {
+                if (i >= names.length) {
+                    throw new NoSuchElementException();
+                }
+                Binding b = new SimpleBinding(names[i], values[i]);
+                i++;
+                return b;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public Set<String> getBindingNames() {
+        return new LinkedHashSet<>(Arrays.asList(names));
+    }
+
+    @Override
+    public Binding getBinding(String bindingName) {
+        int i = indexOf(bindingName);
+        return i < 0 ? null : new SimpleBinding(names[i], values[i]);
+    }
+
+    @Override
+    public boolean hasBinding(String bindingName) {
+        return indexOf(bindingName) >= 0;
+    }
+
+    @Override
+    public Value getValue(String bindingName) {
+        int i = indexOf(bindingName);
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+}
@@ -17,11 +17,14 @@
 package com.msd.gin.halyard.strategy;
 
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.ValueExpr;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
@@ -29,6 +32,7 @@ import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedService;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedServiceResolver;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
 import org.eclipse.rdf4j.query.algebra.evaluation.util.EvaluationStrategies;
 
 /**
@@ -37,10 +41,46 @@ import org.eclipse.rdf4j.query.algebra.evaluation.util.EvaluationStrategies;
  */
 public final class HalyardEvaluationStrategy implements EvaluationStrategy {
 
+    /**
+     * StatementProbe is an optional extension of the TripleSource able to check existence of matching statements
+     * cheaper than by a full statements retrieval. It is used for example to evaluate EXISTS of a single statement pattern.
+     */
+    public interface StatementProbe {
+
+        /**
+         * Checks if there is at least one statement matching the given pattern
+         * @param subj optional subject Resource
+         * @param pred optional predicate IRI
+         * @param obj optional object Value
+         * @param contexts contexts to search, empty array means all contexts
+         * @return true if there is at least one matching statement
+         * @throws QueryEvaluationException
+         */
+        public boolean hasStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException;
+    }
+
+    /**
+     * ScanMetrics is an optional extension of the statement iterations returned by the TripleSource, reporting the amount of data read from the storage.
+     * It is used to profile the query evaluation.
+     */
+    public interface ScanMetrics {
+
+        /**
+         * Returns number of bytes read so far
+         * @return long number of bytes
+         */
+        public long getBytesRead();
+    }
+
     private final FederatedServiceResolver serviceResolver;
     private final HalyardTupleExprEvaluation tupleEval;
     private final HalyardValueExprEvaluation valueEval;
 
+    /**
+     * Default maximal number of UNION branches evaluated in parallel
+     */
+    public static final int DEFAULT_UNION_PARALLELISM = 10;
+
     Value sharedValueOfNow;
 
     /**
@@ -51,8 +91,21 @@ public final class HalyardEvaluationStrategy implements EvaluationStrategy {
      * @param timeout long query evaluation timeout in seconds, negative values mean no timeout
      */
     public HalyardEvaluationStrategy(TripleSource tripleSource, Dataset dataset, FederatedServiceResolver serviceResolver, long timeout) {
+        this(tripleSource, dataset, serviceResolver, null, timeout, DEFAULT_UNION_PARALLELISM);
+    }
+
+    /**
+     * Constructor of HalyardEvaluationStrategy with evaluation statistics and limited parallel evaluation of UNION branches
+     * @param tripleSource TripleSource
+     * @param dataset Dataset
+     * @param serviceResolver FederatedServiceResolver
+     * @param statistics optional EvaluationStatistics used to choose between alternative evaluation methods, null means default statistics
+     * @param timeout long query evaluation timeout in seconds, negative values mean no timeout
+     * @param unionParallelism int maximal number of branches of each UNION evaluated in parallel, the other branches wait until some of the running branches finish
+     */
+    public HalyardEvaluationStrategy(TripleSource tripleSource, Dataset dataset, FederatedServiceResolver serviceResolver, EvaluationStatistics statistics, long timeout, int unionParallelism) {
         this.serviceResolver = serviceResolver;
-        this.tupleEval = new HalyardTupleExprEvaluation(this, tripleSource, dataset, timeout);
+        this.tupleEval = new HalyardTupleExprEvaluation(this, tripleSource, dataset, statistics == null ? new EvaluationStatistics() : statistics, timeout, unionParallelism);
         this.valueEval = new HalyardValueExprEvaluation(this, tripleSource.getValueFactory());
         EvaluationStrategies.register(this);
     }
@@ -89,6 +142,26 @@ public final class HalyardEvaluationStrategy implements EvaluationStrategy {
         return tupleEval.evaluate(expr, bindings);
     }
 
+    boolean hasStatements(StatementPattern sp, BindingSet bindings) throws QueryEvaluationException {
+        return tupleEval.hasStatements(sp, bindings);
+    }
+
+    /**
+     * Sets QueryProfile collecting the runtime statistics of the following evaluations
+     * @param profile QueryProfile or null to stop profiling
+     */
+    public void setProfile(QueryProfile profile) {
+        tupleEval.setProfile(profile);
+    }
+
+    /**
+     * Sets QueryAccounting summing the resources consumed by the following evaluations
+     * @param accounting QueryAccounting or null to stop the accounting
+     */
+    public void setAccounting(QueryAccounting accounting) {
+        tupleEval.setAccounting(accounting);
+    }
+
     @Override
     public Value evaluate(ValueExpr expr, BindingSet bindings) throws ValueExprEvaluationException, QueryEvaluationException {
         return valueEval.evaluate(expr, bindings);
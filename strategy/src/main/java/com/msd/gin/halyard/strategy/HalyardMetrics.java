@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide metrics of the Halyard query evaluation and of the HBase Sail.
+ * All the metrics are exposed as read-only attributes of the JMX MBean {@code com.msd.gin.halyard:type=Metrics}
+ * and all the counter and histogram updates are also forwarded to an optional pluggable {@link Registry}
+ * (for example an adapter to an external metrics library computing rates and reporting to a monitoring system).
+ * @author Adam Sotona (MSD)
+ */
+public final class HalyardMetrics {
+
+    private static final Logger LOG = Logger.getLogger(HalyardMetrics.class.getName());
+
+    /**
+     * JMX object name of the metrics MBean
+     */
+    public static final String OBJECT_NAME = "com.msd.gin.halyard:type=Metrics";
+
+    /**
+     * Registry is an optional pluggable receiver of all the metric updates
+     */
+    public interface Registry {
+
+        /**
+         * Receives a counter increment
+         * @param name String metric name
+         * @param delta long increment
+         */
+        public void count(String name, long delta);
+
+        /**
+         * Receives a histogram sample
+         * @param name String metric name
+         * @param value long sample value
+         */
+        public void record(String name, long value);
+    }
+
+    /**
+     * Gauge is a metric computed at the time it is read
+     */
+    public interface Gauge {
+
+        /**
+         * Returns the actual value
+         * @return Number or any other Object represented by its String value
+         */
+        public Object getValue();
+    }
+
+    /**
+     * Monotonically increasing counter
+     */
+    public static final class Counter {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Increments the counter
+         * @param delta long increment
+         */
+        public void add(long delta) {
+            value.addAndGet(delta);
+            Registry r = registry;
+            if (r != null) {
+                r.count(name, delta);
+            }
+        }
+
+        /**
+         * Returns the actual count
+         * @return long count
+         */
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Histogram of non-negative samples with exponential (power of two) buckets
+     */
+    public static final class Histogram {
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+        private Histogram(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records a sample
+         * @param value long non-negative sample value
+         */
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while ((m = max.get()) < value && !max.compareAndSet(m, value));
+            Registry r = registry;
+            if (r != null) {
+                r.record(name, value);
+            }
+        }
+
+        /**
+         * Returns number of the recorded samples
+         * @return long count
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns mean value of the recorded samples
+         * @return double mean or 0 if there are no samples
+         */
+        public double getMean() {
+            long c = count.get();
+            return c == 0 ? 0 : (double) sum.get() / c;
+        }
+
+        /**
+         * Returns maximal recorded sample
+         * @return long maximum
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns approximate quantile as the upper bound of the bucket containing it
+         * @param quantile double between 0 and 1
+         * @return long approximate quantile value
+         */
+        public long getQuantile(double quantile) {
+            long rank = (long) Math.ceil(quantile * count.get());
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0 : (1l << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    private static final ConcurrentSkipListMap<String, Object> METRICS = new ConcurrentSkipListMap<>();
+    private static volatile Registry registry = null;
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+        } catch (Exception | LinkageError e) {
+            LOG.log(Level.WARNING, "Halyard metrics MBean registration failed", e);
+        }
+    }
+
+    private HalyardMetrics() {
+    }
+
+    /**
+     * Returns the named counter, the counter is created when it does not exist yet
+     * @param name String metric name
+     * @return Counter
+     */
+    public static Counter counter(String name) {
+        Object m = METRICS.get(name);
+        if (m == null) {
+            Object old = METRICS.putIfAbsent(name, m = new Counter(name));
+            if (old != null) {
+                m = old;
+            }
+        }
+        return (Counter) m;
+    }
+
+    /**
+     * Returns the named histogram, the histogram is created when it does not exist yet
+     * @param name String metric name
+     * @return Histogram
+     */
+    public static Histogram histogram(String name) {
+        Object m = METRICS.get(name);
+        if (m == null) {
+            Object old = METRICS.putIfAbsent(name, m = new Histogram(name));
+            if (old != null) {
+                m = old;
+            }
+        }
+        return (Histogram) m;
+    }
+
+    /**
+     * Registers the named gauge, replacing any previous gauge of the same name
+     * @param name String metric name
+     * @param gauge Gauge
+     */
+    public static void gauge(String name, Gauge gauge) {
+        METRICS.put(name, gauge);
+    }
+
+    /**
+     * Sets the pluggable Registry receiving all the following counter and histogram updates
+     * @param registry Registry or null
+     */
+    public static void setRegistry(Registry registry) {
+        HalyardMetrics.registry = registry;
+    }
+
+    /**
+     * Returns actual values of all the metrics, histograms are expanded into their count, mean, quantiles and maximum
+     * @return Map of the metric names and values
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Object> me : METRICS.entrySet()) {
+            String name = me.getKey();
+            Object m = me.getValue();
+            if (m instanceof Counter) {
+                snapshot.put(name, ((Counter) m).get());
+            } else if (m instanceof Histogram) {
+                Histogram h = (Histogram) m;
+                snapshot.put(name + ".count", h.getCount());
+                snapshot.put(name + ".mean", h.getMean());
+                snapshot.put(name + ".p50", h.getQuantile(0.5));
+                snapshot.put(name + ".p95", h.getQuantile(0.95));
+                snapshot.put(name + ".p99", h.getQuantile(0.99));
+                snapshot.put(name + ".max", h.getMax());
+            } else {
+                Object value;
+                try {
+                    value = ((Gauge) m).getValue();
+                } catch (RuntimeException e) {
+                    value = null;
+                }
+                snapshot.put(name, value instanceof Number || value == null ? value : String.valueOf(value));
+            }
+        }
+        return snapshot;
+    }
+
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Map<String, Object> snapshot = snapshot();
+            if (!snapshot.containsKey(attribute)) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return snapshot.get(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Read-only attribute " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> snapshot = snapshot();
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                if (snapshot.containsKey(a)) {
+                    list.add(new Attribute(a, snapshot.get(a)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Object> snapshot = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> me : snapshot.entrySet()) {
+                Object v = me.getValue();
+                attributes[i++] = new MBeanAttributeInfo(me.getKey(), v == null ? String.class.getName() : v.getClass().getName(), me.getKey(), true, false, false);
+            }
+            return new MBeanInfo(HalyardMetrics.class.getName(), "Halyard metrics", attributes, null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
@@ -16,13 +16,18 @@
  */
 package com.msd.gin.halyard.strategy;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.common.iteration.ConvertingIteration;
@@ -38,8 +43,9 @@ import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.Filter;
 import org.eclipse.rdf4j.query.algebra.QueryModelNode;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Union;
 import org.eclipse.rdf4j.query.algebra.Var;
-import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 
@@ -51,16 +57,94 @@ final class HalyardStatementPatternEvaluation {
 
     private static final int THREADS = 50;
 
+    /**
+     * Maximal number of distinct values interned during the evaluation of a single query
+     */
+    private static final int MAX_INTERNED_VALUES = 100000;
+
     private static class PipeAndIteration {
 
         private final HalyardTupleExprEvaluation.BindingSetPipe pipe;
         private final CloseableIteration<BindingSet, QueryEvaluationException> iter;
         private final int priority;
+        private final CancellationToken token;
 
-        public PipeAndIteration(HalyardTupleExprEvaluation.BindingSetPipe pipe, CloseableIteration<BindingSet, QueryEvaluationException> iter, int priority) {
+        public PipeAndIteration(HalyardTupleExprEvaluation.BindingSetPipe pipe, CloseableIteration<BindingSet, QueryEvaluationException> iter, int priority, CancellationToken token) {
             this.pipe = pipe;
             this.iter = iter;
             this.priority = priority;
+            this.token = token;
+        }
+
+        void close() {
+            if (token != null) {
+                token.iterations.remove(this);
+            }
+            try {
+                iter.close();
+            } catch (QueryEvaluationException e) {
+                //closing iteration is not interesting for the evaluation anymore
+            }
+        }
+    }
+
+    /**
+     * Cancellation token of a sub-evaluation (for example of the whole query or of a satisfied Slice).
+     * Cancelled token immediately closes all the iterations waiting in the queue under it and all its nested tokens,
+     * the iterations being just processed are closed by their threads as their pipes are closed.
+     */
+    static final class CancellationToken {
+
+        private final CancellationToken parent;
+        private final Set<PipeAndIteration> iterations = Collections.newSetFromMap(new ConcurrentHashMap<PipeAndIteration, Boolean>());
+        private final Set<CancellationToken> children = Collections.newSetFromMap(new ConcurrentHashMap<CancellationToken, Boolean>());
+        private final QueryAccounting accounting;
+        private volatile boolean cancelled = false;
+
+        /**
+         * Constructs CancellationToken
+         * @param parent optional CancellationToken of the enclosing evaluation
+         */
+        CancellationToken(CancellationToken parent) {
+            this(parent, parent == null ? null : parent.accounting);
+        }
+
+        /**
+         * Constructs CancellationToken
+         * @param parent optional CancellationToken of the enclosing evaluation
+         * @param accounting optional QueryAccounting of the CPU time consumed by the iterations under this token
+         */
+        CancellationToken(CancellationToken parent, QueryAccounting accounting) {
+            this.parent = parent;
+            this.accounting = accounting;
+            if (parent != null) {
+                parent.children.add(this);
+                if (parent.cancelled) {
+                    cancel();
+                }
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (parent != null) {
+                parent.children.remove(this);
+            }
+            for (CancellationToken child : children) {
+                child.cancel();
+            }
+            for (PipeAndIteration pai : iterations) {
+                if (PRIORITY_QUEUE.remove(pai.priority, pai)) {
+                    pai.close();
+                }
+            }
         }
     }
 
@@ -91,6 +175,10 @@ final class HalyardStatementPatternEvaluation {
             return null;
         }
 
+        public synchronized boolean remove(int level, E e) {
+            return level < q.length && q[level] != null && q[level].remove(e);
+        }
+
         public synchronized E take() throws InterruptedException {
             E e;
             while ((e = poll()) == null) {
@@ -98,6 +186,29 @@ final class HalyardStatementPatternEvaluation {
             }
             return e;
         }
+
+        public synchronized int size() {
+            int size = 0;
+            for (LinkedList<E> subQueue : q) {
+                if (subQueue != null) {
+                    size += subQueue.size();
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Returns sizes of the non-empty sub-queues keyed by the priority level
+         */
+        public synchronized Map<Integer, Integer> levels() {
+            Map<Integer, Integer> levels = new TreeMap<>();
+            for (int i = 0; i < q.length; i++) {
+                if (q[i] != null && !q[i].isEmpty()) {
+                    levels.put(i, q[i].size());
+                }
+            }
+            return levels;
+        }
     }
 
     private static class IdentityWrapper<T> {
@@ -125,12 +236,23 @@ final class HalyardStatementPatternEvaluation {
 
     private final Dataset dataset;
     private final TripleSource tripleSource;
+    private final ConcurrentHashMap<Value, Value> internedValues = new ConcurrentHashMap<>();
+    private volatile QueryProfile profile;
     private static final Map<IdentityWrapper<QueryModelNode>, Integer> PRIORITY_MAP_CACHE = Collections.synchronizedMap(new WeakHashMap<>());
     private static final PriorityQueue<PipeAndIteration> PRIORITY_QUEUE = new PriorityQueue<>();
 
     static void enqueue(HalyardTupleExprEvaluation.BindingSetPipe pipe,  CloseableIteration<BindingSet, QueryEvaluationException> iter, QueryModelNode node) {
         int priority = getPriorityForNode(node);
-        PRIORITY_QUEUE.put(priority, new PipeAndIteration(pipe, iter, priority));
+        CancellationToken token = pipe.getCancellationToken();
+        PipeAndIteration pai = new PipeAndIteration(pipe, iter, priority, token);
+        if (token != null) {
+            token.iterations.add(pai);
+            if (token.isCancelled()) {
+                pai.close();
+                return;
+            }
+        }
+        PRIORITY_QUEUE.put(priority, pai);
     }
 
     private static int getPriorityForNode(final QueryModelNode node) {
@@ -157,12 +279,54 @@ final class HalyardStatementPatternEvaluation {
                     node.getCondition().visit(this);
                 }
 
+                @Override
+                public void meet(Union n) throws RuntimeException {
+                    //all branches of the (nested) unions start at the same priority, so they are scheduled independently of their position
+                    int pp = counter.getAndIncrement();
+                    PRIORITY_MAP_CACHE.put(new IdentityWrapper<QueryModelNode>(n), pp);
+                    if (n == node) ret.set(pp);
+                    int start = counter.get(), end = start;
+                    for (TupleExpr branch : HalyardTupleExprEvaluation.getUnionBranches(n, new ArrayList<TupleExpr>())) {
+                        counter.set(start);
+                        branch.visit(this);
+                        end = Math.max(end, counter.get());
+                    }
+                    counter.set(end);
+                }
+
             }.meetOther(root);
             return ret.get();
         }
     }
 
+    private static final AtomicInteger BUSY_THREADS = new AtomicInteger();
+    private static final HalyardMetrics.Counter BUSY_TIME = HalyardMetrics.counter("executor.busy.time.ns");
+
     static {
+        HalyardMetrics.gauge("executor.queue.depth", new HalyardMetrics.Gauge() {
+            @Override
+            public Object getValue() {
+                return PRIORITY_QUEUE.size();
+            }
+        });
+        HalyardMetrics.gauge("executor.queue.levels", new HalyardMetrics.Gauge() {
+            @Override
+            public Object getValue() {
+                return PRIORITY_QUEUE.levels();
+            }
+        });
+        HalyardMetrics.gauge("executor.threads", new HalyardMetrics.Gauge() {
+            @Override
+            public Object getValue() {
+                return THREADS;
+            }
+        });
+        HalyardMetrics.gauge("executor.threads.busy", new HalyardMetrics.Gauge() {
+            @Override
+            public Object getValue() {
+                return BUSY_THREADS.get();
+            }
+        });
         ThreadGroup tg = new ThreadGroup("Halyard Executors");
         for (int i = 0; i < THREADS; i++) {
             final int threadNum = i;
@@ -175,23 +339,38 @@ final class HalyardStatementPatternEvaluation {
                             if (pai.priority % THREADS == threadNum) {
                                 PRIORITY_QUEUE.put(pai.priority, pai); //always keep some threads out of execution to avoid thread exhaustion
                                 Thread.sleep(100);
-                            } else try {
-                                if (pai.pipe.isClosed()) {
-                                    pai.iter.close();
-                                } else {
-                                    BindingSet bs = pai.iter.next();
-                                    if (pai.pipe.push(bs)) {
-                                        if (bs != null) {
+                            } else {
+                                long busySince = System.nanoTime();
+                                QueryAccounting accounting = pai.token == null ? null : pai.token.accounting;
+                                long cpuSince = accounting == null ? 0 : QueryAccounting.currentThreadCpuTime();
+                                BUSY_THREADS.incrementAndGet();
+                                try {
+                                    if (pai.pipe.isClosed()) {
+                                        pai.close();
+                                    } else {
+                                        BindingSet bs = pai.iter.next();
+                                        if (pai.pipe.push(bs) && bs != null) {
                                             PRIORITY_QUEUE.put(pai.priority, pai);
+                                        } else {
+                                            pai.close();
                                         }
-                                    } else {
-                                        pai.iter.close();
+                                    }
+                                } catch (NoSuchElementException e) {
+                                    pai.close();
+                                    pai.pipe.push(null);
+                                } catch (Exception e) {
+                                    pai.close();
+                                    if (!pai.pipe.isClosed()) {
+                                        //exceptions of cancelled evaluations (for example of closed scanners) are not reported
+                                        pai.pipe.handleException(e);
+                                    }
+                                } finally {
+                                    BUSY_THREADS.decrementAndGet();
+                                    BUSY_TIME.add(System.nanoTime() - busySince);
+                                    if (accounting != null) {
+                                        accounting.addCpuTime(QueryAccounting.currentThreadCpuTime() - cpuSince);
                                     }
                                 }
-                            } catch (NoSuchElementException e) {
-                                pai.pipe.push(null);
-                            } catch (Exception e) {
-                                pai.pipe.handleException(e);
                             }
                         }
                     } catch (InterruptedException e) {
@@ -209,7 +388,182 @@ final class HalyardStatementPatternEvaluation {
         this.tripleSource = tripleSource;
     }
 
+    void setProfile(QueryProfile profile) {
+        this.profile = profile;
+    }
+
     void evaluateStatementPattern(final HalyardTupleExprEvaluation.BindingSetPipe parent, final StatementPattern sp, final BindingSet bindings) {
+        // Resolve the unbound variables and their positions in the statement just once for all the statements
+        final Var[] spVars = {sp.getSubjectVar(), sp.getPredicateVar(), sp.getObjectVar(), sp.getContextVar()};
+        final List<String> names = new ArrayList<>(4);
+        final int[] positions = new int[4];
+        for (int i = 0; i < spVars.length; i++) {
+            Var var = spVars[i];
+            if (var != null && !var.isConstant() && !bindings.hasBinding(var.getName()) && !names.contains(var.getName())) {
+                positions[names.size()] = i;
+                names.add(var.getName());
+            }
+        }
+        final String[] bindingNames = names.toArray(new String[names.size()]);
+
+        CloseableIteration<? extends Statement, QueryEvaluationException> stIter;
+        try {
+            stIter = getStatements(sp, bindings);
+        } catch (QueryEvaluationException e) {
+            parent.handleException(e);
+            return;
+        }
+        if (stIter == null) {
+            try {
+                parent.push(null);
+            } catch (InterruptedException e) {
+                parent.handleException(e);
+            }
+            return;
+        }
+
+        // Return an iterator that converts the statements to var bindings
+        enqueue(parent, new ConvertingIteration<Statement, BindingSet, QueryEvaluationException>(stIter) {
+
+            @Override
+            protected BindingSet convert(Statement st) {
+                Value[] values = new Value[bindingNames.length];
+                for (int i = 0; i < values.length; i++) {
+                    switch (positions[i]) {
+                        case 0:
+                            values[i] = intern(st.getSubject());
+                            break;
+                        case 1:
+                            values[i] = intern(st.getPredicate());
+                            break;
+                        case 2:
+                            values[i] = intern(st.getObject());
+                            break;
+                        default:
+                            values[i] = intern(st.getContext());
+                    }
+                }
+                return new CompactBindingSet(bindings, bindingNames, values);
+            }
+        }, sp);
+    }
+
+    /**
+     * Returns a shared instance of the equal value, so the values repeated in many results of the query
+     * are held in memory just once and mostly compared by identity in joins, DISTINCT and GROUP BY
+     * @param value Value or null
+     * @return the interned or the original Value
+     */
+    private Value intern(Value value) {
+        if (value == null) {
+            return null;
+        }
+        Value interned = internedValues.get(value);
+        if (interned == null) {
+            if (internedValues.size() >= MAX_INTERNED_VALUES) {
+                return value;
+            }
+            interned = internedValues.putIfAbsent(value, value);
+        }
+        return interned == null ? value : interned;
+    }
+
+    /**
+     * Checks if the statement pattern matches at least one statement. The check is performed synchronously and it is short-circuited
+     * by a single probe of the {@link HalyardEvaluationStrategy.StatementProbe} when the TripleSource supports it.
+     * @param sp StatementPattern
+     * @param bindings BindingSet
+     * @return true if there is at least one matching statement
+     * @throws QueryEvaluationException
+     */
+    boolean hasStatements(StatementPattern sp, BindingSet bindings) throws QueryEvaluationException {
+        if (tripleSource instanceof HalyardEvaluationStrategy.StatementProbe && !hasRepeatedVars(sp, bindings)) try {
+            Resource[] contexts = getContexts(sp, getVarValue(sp.getContextVar(), bindings));
+            if (contexts == null) {
+                return false;
+            }
+            if (contexts.length > 0 || sp.getScope() != StatementPattern.Scope.NAMED_CONTEXTS) {
+                return ((HalyardEvaluationStrategy.StatementProbe) tripleSource).hasStatements((Resource) getVarValue(sp.getSubjectVar(), bindings), (IRI) getVarValue(sp.getPredicateVar(), bindings), getVarValue(sp.getObjectVar(), bindings), contexts);
+            }
+        } catch (ClassCastException e) {
+            // Invalid value type for subject, predicate and/or context
+            return false;
+        }
+        CloseableIteration<? extends Statement, QueryEvaluationException> stIter = getStatements(sp, bindings);
+        if (stIter == null) {
+            return false;
+        }
+        try {
+            return stIter.hasNext();
+        } finally {
+            stIter.close();
+        }
+    }
+
+    /**
+     * Resolves contexts of the statement pattern with respect to the dataset
+     * @param sp StatementPattern
+     * @param contextValue optional bound context Value
+     * @return array of contexts (empty for all contexts) or null when the statement pattern can not match any statement
+     */
+    private Resource[] getContexts(StatementPattern sp, Value contextValue) {
+        Set<IRI> graphs = null;
+        boolean emptyGraph = false;
+
+        if (dataset != null) {
+            if (sp.getScope() == StatementPattern.Scope.DEFAULT_CONTEXTS) {
+                graphs = dataset.getDefaultGraphs();
+                emptyGraph = graphs.isEmpty() && !dataset.getNamedGraphs().isEmpty();
+            } else {
+                graphs = dataset.getNamedGraphs();
+                emptyGraph = graphs.isEmpty() && !dataset.getDefaultGraphs().isEmpty();
+            }
+        }
+
+        if (emptyGraph) {
+            // Search zero contexts
+            return null;
+        } else if (graphs == null || graphs.isEmpty()) {
+            // store default behaivour
+            if (contextValue != null) {
+                return new Resource[]{(Resource) contextValue};
+            } /* TODO activate this to have an exclusive (rather than inclusive) interpretation of the default graph in SPARQL querying.
+             else if (sp.getScope() == Scope.DEFAULT_CONTEXTS ) {
+             return new Resource[] { (Resource)null };
+             }
+             */ else {
+                return new Resource[0];
+            }
+        } else if (contextValue != null) {
+            if (graphs.contains(contextValue)) {
+                return new Resource[]{(Resource) contextValue};
+            } else {
+                // Statement pattern specifies a context that is not part of
+                // the dataset
+                return null;
+            }
+        } else {
+            Resource[] contexts = new Resource[graphs.size()];
+            int i = 0;
+            for (IRI graph : graphs) {
+                IRI context = null;
+                if (!SESAME.NIL.equals(graph)) {
+                    context = graph;
+                }
+                contexts[i++] = context;
+            }
+            return contexts;
+        }
+    }
+
+    /**
+     * Retrieves statements matching the statement pattern
+     * @param sp StatementPattern
+     * @param bindings BindingSet
+     * @return CloseableIteration of the matching statements or null when the statement pattern can not match any statement
+     * @throws QueryEvaluationException
+     */
+    private CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(StatementPattern sp, BindingSet bindings) throws QueryEvaluationException {
         final Var subjVar = sp.getSubjectVar();
         final Var predVar = sp.getPredicateVar();
         final Var objVar = sp.getObjectVar();
@@ -220,89 +574,42 @@ final class HalyardStatementPatternEvaluation {
         final Value objValue = getVarValue(objVar, bindings);
         final Value contextValue = getVarValue(conVar, bindings);
 
-        CloseableIteration<? extends Statement, QueryEvaluationException> stIter = null;
+        CloseableIteration<? extends Statement, QueryEvaluationException> stIter;
 
         try {
-            try {
-                Resource[] contexts;
-
-                Set<IRI> graphs = null;
-                boolean emptyGraph = false;
-
-                if (dataset != null) {
-                    if (sp.getScope() == StatementPattern.Scope.DEFAULT_CONTEXTS) {
-                        graphs = dataset.getDefaultGraphs();
-                        emptyGraph = graphs.isEmpty() && !dataset.getNamedGraphs().isEmpty();
-                    } else {
-                        graphs = dataset.getNamedGraphs();
-                        emptyGraph = graphs.isEmpty() && !dataset.getDefaultGraphs().isEmpty();
-                    }
-                }
-
-                if (emptyGraph) {
-                    // Search zero contexts
-                    parent.push(null);
-                    return;
-                } else if (graphs == null || graphs.isEmpty()) {
-                    // store default behaivour
-                    if (contextValue != null) {
-                        contexts = new Resource[]{(Resource) contextValue};
-                    } /* TODO activate this to have an exclusive (rather than inclusive) interpretation of the default graph in SPARQL querying.
-                     else if (sp.getScope() == Scope.DEFAULT_CONTEXTS ) {
-                     contexts = new Resource[] { (Resource)null };
-                     }
-                     */ else {
-                        contexts = new Resource[0];
-                    }
-                } else if (contextValue != null) {
-                    if (graphs.contains(contextValue)) {
-                        contexts = new Resource[]{(Resource) contextValue};
-                    } else {
-                        // Statement pattern specifies a context that is not part of
-                        // the dataset
-                        parent.push(null);
-                        return;
-                    }
-                } else {
-                    contexts = new Resource[graphs.size()];
-                    int i = 0;
-                    for (IRI graph : graphs) {
-                        IRI context = null;
-                        if (!SESAME.NIL.equals(graph)) {
-                            context = graph;
-                        }
-                        contexts[i++] = context;
-                    }
-                }
+            Resource[] contexts = getContexts(sp, contextValue);
+            if (contexts == null) {
+                return null;
+            }
 
-                stIter = tripleSource.getStatements((Resource) subjValue, (IRI) predValue, objValue, contexts);
+            stIter = tripleSource.getStatements((Resource) subjValue, (IRI) predValue, objValue, contexts);
+            QueryProfile p = profile;
+            if (p != null) {
+                stIter = p.scan(sp, stIter);
+            }
 
-                if (contexts.length == 0 && sp.getScope() == StatementPattern.Scope.NAMED_CONTEXTS) {
-                    // Named contexts are matched by retrieving all statements from
-                    // the store and filtering out the statements that do not have a
-                    // context.
-                    stIter = new FilterIteration<Statement, QueryEvaluationException>(stIter) {
+            if (contexts.length == 0 && sp.getScope() == StatementPattern.Scope.NAMED_CONTEXTS) {
+                // Named contexts are matched by retrieving all statements from
+                // the store and filtering out the statements that do not have a
+                // context.
+                stIter = new FilterIteration<Statement, QueryEvaluationException>(stIter) {
 
-                        @Override
-                        protected boolean accept(Statement st) {
-                            return st.getContext() != null;
-                        }
+                    @Override
+                    protected boolean accept(Statement st) {
+                        return st.getContext() != null;
+                    }
 
-                    }; // end anonymous class
-                }
-            } catch (ClassCastException e) {
-                // Invalid value type for subject, predicate and/or context
-                parent.push(null);
-                return;
+                }; // end anonymous class
             }
-        } catch (InterruptedException | QueryEvaluationException e) {
-            parent.handleException(e);
+        } catch (ClassCastException e) {
+            // Invalid value type for subject, predicate and/or context
+            return null;
         }
 
         // The same variable might have been used multiple times in this
         // StatementPattern, verify value equality in those cases.
         // TODO: skip this filter if not necessary
-        stIter = new FilterIteration<Statement, QueryEvaluationException>(stIter) {
+        return new FilterIteration<Statement, QueryEvaluationException>(stIter) {
 
             @Override
             protected boolean accept(Statement st) {
@@ -341,31 +648,16 @@ final class HalyardStatementPatternEvaluation {
                 return true;
             }
         };
+    }
 
-        // Return an iterator that converts the statements to var bindings
-        enqueue(parent, new ConvertingIteration<Statement, BindingSet, QueryEvaluationException>(stIter) {
-
-            @Override
-            protected BindingSet convert(Statement st) {
-                QueryBindingSet result = new QueryBindingSet(bindings);
-
-                if (subjVar != null && !subjVar.isConstant() && !result.hasBinding(subjVar.getName())) {
-                    result.addBinding(subjVar.getName(), st.getSubject());
-                }
-                if (predVar != null && !predVar.isConstant() && !result.hasBinding(predVar.getName())) {
-                    result.addBinding(predVar.getName(), st.getPredicate());
-                }
-                if (objVar != null && !objVar.isConstant() && !result.hasBinding(objVar.getName())) {
-                    result.addBinding(objVar.getName(), st.getObject());
-                }
-                if (conVar != null && !conVar.isConstant() && !result.hasBinding(conVar.getName())
-                        && st.getContext() != null) {
-                    result.addBinding(conVar.getName(), st.getContext());
-                }
-
-                return result;
+    private static boolean hasRepeatedVars(StatementPattern sp, BindingSet bindings) {
+        Set<String> unboundVars = new HashSet<>();
+        for (Var var : sp.getVarList()) {
+            if (getVarValue(var, bindings) == null && !unboundVars.add(var.getName())) {
+                return true;
             }
-        }, sp);
+        }
+        return false;
     }
 
     private static Value getVarValue(Var var, BindingSet bindings) {
@@ -16,22 +16,27 @@
  */
 package com.msd.gin.halyard.strategy;
 
+import com.msd.gin.halyard.strategy.HalyardStatementPatternEvaluation.CancellationToken;
 import com.msd.gin.halyard.strategy.HalyardTupleExprEvaluation.BindingSetPipe;
 import com.msd.gin.halyard.strategy.collections.BigHashSet;
 import com.msd.gin.halyard.strategy.collections.Sorter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.ConvertingIteration;
 import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.Binding;
@@ -47,6 +52,7 @@ import org.eclipse.rdf4j.query.algebra.DescribeOperator;
 import org.eclipse.rdf4j.query.algebra.Difference;
 import org.eclipse.rdf4j.query.algebra.Distinct;
 import org.eclipse.rdf4j.query.algebra.EmptySet;
+import org.eclipse.rdf4j.query.algebra.Exists;
 import org.eclipse.rdf4j.query.algebra.Extension;
 import org.eclipse.rdf4j.query.algebra.ExtensionElem;
 import org.eclipse.rdf4j.query.algebra.Filter;
@@ -56,6 +62,7 @@ import org.eclipse.rdf4j.query.algebra.Join;
 import org.eclipse.rdf4j.query.algebra.LeftJoin;
 import org.eclipse.rdf4j.query.algebra.MultiProjection;
 import org.eclipse.rdf4j.query.algebra.Order;
+import org.eclipse.rdf4j.query.algebra.Not;
 import org.eclipse.rdf4j.query.algebra.OrderElem;
 import org.eclipse.rdf4j.query.algebra.Projection;
 import org.eclipse.rdf4j.query.algebra.ProjectionElemList;
@@ -78,6 +85,7 @@ import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedService;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.ExternalSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.iterator.DescribeIteration;
@@ -100,6 +108,22 @@ final class HalyardTupleExprEvaluation {
 
     private static final int MAX_QUEUE_SIZE = 1000;
 
+    /**
+     * Number of statements scanned in about the same time as a single existence probe (an HBase round trip),
+     * used to choose between the build-side hash set and the probes of the semi-joins and anti-joins
+     */
+    private static final int SEMI_JOIN_PROBE_COST = 100;
+
+    /**
+     * Maximal number of probe results remembered by each semi-join or anti-join
+     */
+    private static final int SEMI_JOIN_CACHE_SIZE = 10000;
+
+    /**
+     * Number of left bindings of an optional join grouped together, so the optional part is evaluated only once for each distinct join key
+     */
+    private static final int LEFT_JOIN_BATCH_SIZE = 100;
+
     static abstract class BindingSetPipe {
 
         protected final BindingSetPipe parent;
@@ -133,17 +157,67 @@ final class HalyardTupleExprEvaluation {
                 return false;
             }
         }
+
+        /**
+         * Returns CancellationToken of the nearest enclosing sub-evaluation, which closes all the iterations feeding this pipe once the sub-evaluation is not interested in more data
+         * @return CancellationToken or null
+         */
+        protected CancellationToken getCancellationToken() {
+            if (parent != null) {
+                return parent.getCancellationToken();
+            } else {
+                return null;
+            }
+        }
     }
 
     private final HalyardEvaluationStrategy parentStrategy;
     private final HalyardStatementPatternEvaluation statementEvaluation;
+    private final EvaluationStatistics statistics;
     private final long startTime, timeout;
+    private final int unionParallelism;
+    private volatile QueryProfile profile;
+    private volatile QueryAccounting accounting;
 
-    HalyardTupleExprEvaluation(HalyardEvaluationStrategy parentStrategy, TripleSource tripleSource, Dataset dataset, long timeout) {
+    HalyardTupleExprEvaluation(HalyardEvaluationStrategy parentStrategy, TripleSource tripleSource, Dataset dataset, EvaluationStatistics statistics, long timeout, int unionParallelism) {
         this.parentStrategy = parentStrategy;
         this.statementEvaluation = new HalyardStatementPatternEvaluation(dataset, tripleSource);
+        this.statistics = statistics;
         this.startTime = System.currentTimeMillis();
         this.timeout = timeout;
+        this.unionParallelism = Math.max(1, unionParallelism);
+    }
+
+    void setProfile(QueryProfile profile) {
+        this.profile = profile;
+        statementEvaluation.setProfile(profile);
+    }
+
+    void setAccounting(QueryAccounting accounting) {
+        this.accounting = accounting;
+    }
+
+    boolean hasStatements(StatementPattern sp, BindingSet bindings) throws QueryEvaluationException {
+        return statementEvaluation.hasStatements(sp, bindings);
+    }
+
+    /**
+     * Counts the evaluations and the results of a node and the time from the start of each evaluation to its end of data
+     */
+    private static BindingSetPipe profilingPipe(BindingSetPipe parent, final QueryProfile.NodeStatistics stats) {
+        final long start = System.nanoTime();
+        stats.evaluations.incrementAndGet();
+        return new BindingSetPipe(parent) {
+            @Override
+            public boolean push(BindingSet bs) throws InterruptedException {
+                if (bs == null) {
+                    stats.nanos.addAndGet(System.nanoTime() - start);
+                } else {
+                    stats.results.incrementAndGet();
+                }
+                return parent.push(bs);
+            }
+        };
     }
 
     CloseableIteration<BindingSet, QueryEvaluationException> evaluate(TupleExpr expr, BindingSet bindings) {
@@ -153,6 +227,10 @@ final class HalyardTupleExprEvaluation {
     }
 
     private void evaluateTupleExpr(BindingSetPipe parent, TupleExpr expr, BindingSet bindings) {
+        QueryProfile p = profile;
+        if (p != null) {
+            parent = profilingPipe(parent, p.get(expr));
+        }
         if (expr instanceof StatementPattern) {
             statementEvaluation.evaluateStatementPattern(parent, (StatementPattern) expr, bindings);
         } else if (expr instanceof UnaryTupleOperator) {
@@ -249,7 +327,12 @@ final class HalyardTupleExprEvaluation {
     }
 
     private void evaluateFilter(BindingSetPipe parent, final Filter filter, final BindingSet bindings) {
-        final Set<String> scopeBindingNames = filter.getBindingNames();
+        ValueExpr condition = filter.getCondition();
+        final boolean anti = condition instanceof Not && ((Not) condition).getArg() instanceof Exists;
+        if ((anti || condition instanceof Exists) && !isPartOfSubQuery(filter)) {
+            evaluateSemiJoin(parent, filter, ((Exists) (anti ? ((Not) condition).getArg() : condition)).getSubQuery(), anti, bindings);
+            return;
+        }
         evaluateTupleExpr(new BindingSetPipe(parent) {
             @Override
             public boolean push(BindingSet bs) throws InterruptedException {
@@ -257,7 +340,7 @@ final class HalyardTupleExprEvaluation {
                     return parent.push(null);
                 }
                 try {
-                    if (accept(bs)) {
+                    if (accept(filter, bs)) {
                         return parent.push(bs);
                     } else {
                         return true;
@@ -267,25 +350,130 @@ final class HalyardTupleExprEvaluation {
                 }
                 return false;
             }
-            private boolean accept(BindingSet bindings) throws QueryEvaluationException {
+        }, filter.getArg(), bindings);
+    }
+
+    private boolean accept(Filter filter, BindingSet bindings) throws QueryEvaluationException {
+        try {
+            // Limit the bindings to the ones that are in scope for this filter
+            QueryBindingSet scopeBindings = new QueryBindingSet(bindings);
+            // FIXME J1 scopeBindingNames should include bindings from superquery if the filter
+            // is part of a subquery. This is a workaround: we should fix the settings of scopeBindingNames,
+            // rather than skipping the limiting of bindings.
+            if (!isPartOfSubQuery(filter)) {
+                scopeBindings.retainAll(filter.getBindingNames());
+            }
+            return parentStrategy.isTrue(filter.getCondition(), scopeBindings);
+        } catch (ValueExprEvaluationException e) {
+            // failed to evaluate condition
+            return false;
+        }
+    }
+
+    /**
+     * Evaluates FILTER EXISTS as a semi-join and FILTER NOT EXISTS as an anti-join on the variables shared between the filtered rows and the sub-query.
+     * When the sub-query is estimated to be small enough (and all the shared variables are always bound by the sub-query) it is evaluated just once
+     * into a build-side hash set of the shared variable values. Otherwise the sub-query is probed for each distinct combination of the shared variable values.
+     */
+    private void evaluateSemiJoin(BindingSetPipe parent, final Filter filter, TupleExpr subQuery, final boolean anti, BindingSet bindings) {
+        QueryBindingSet scopeBindings = new QueryBindingSet(bindings);
+        scopeBindings.retainAll(filter.getBindingNames());
+        VarNameCollector collector = new VarNameCollector();
+        subQuery.visit(collector);
+        final Set<String> sharedNames = collector.getVarNames();
+        sharedNames.retainAll(filter.getArg().getBindingNames());
+        sharedNames.removeAll(scopeBindings.getBindingNames());
+        if (subQuery.getAssuredBindingNames().containsAll(sharedNames) && statistics.getCardinality(subQuery) <= SEMI_JOIN_PROBE_COST * statistics.getCardinality(filter.getArg())) {
+            evaluateHashSemiJoin(parent, filter, subQuery, sharedNames, anti, scopeBindings, bindings);
+            return;
+        }
+        final Map<BindingSet, Boolean> probes = new LinkedHashMap<BindingSet, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BindingSet, Boolean> eldest) {
+                return size() > SEMI_JOIN_CACHE_SIZE;
+            }
+        };
+        evaluateTupleExpr(new BindingSetPipe(parent) {
+            @Override
+            public boolean push(BindingSet bs) throws InterruptedException {
+                if (bs == null) {
+                    return parent.push(null);
+                }
                 try {
-                    // Limit the bindings to the ones that are in scope for this filter
-                    QueryBindingSet scopeBindings = new QueryBindingSet(bindings);
-                    // FIXME J1 scopeBindingNames should include bindings from superquery if the filter
-                    // is part of a subquery. This is a workaround: we should fix the settings of scopeBindingNames,
-                    // rather than skipping the limiting of bindings.
-                    if (!isPartOfSubQuery(filter)) {
-                        scopeBindings.retainAll(scopeBindingNames);
+                    //the result of the probe depends only on the shared variables, so each distinct combination is probed just once
+                    BindingSet key = project(bs, sharedNames);
+                    Boolean accepted;
+                    synchronized (probes) {
+                        accepted = probes.get(key);
                     }
-                    return parentStrategy.isTrue(filter.getCondition(), scopeBindings);
-                } catch (ValueExprEvaluationException e) {
-                    // failed to evaluate condition
-                    return false;
+                    if (accepted == null) {
+                        accepted = accept(filter, bs);
+                        synchronized (probes) {
+                            probes.put(key, accepted);
+                        }
+                    }
+                    return accepted ? parent.push(bs) : true;
+                } catch (QueryEvaluationException e) {
+                    parent.handleException(e);
                 }
+                return false;
             }
         }, filter.getArg(), bindings);
     }
 
+    private void evaluateHashSemiJoin(final BindingSetPipe topPipe, final Filter filter, TupleExpr subQuery, final Set<String> sharedNames, final boolean anti, BindingSet scopeBindings, final BindingSet bindings) {
+        evaluateTupleExpr(new BindingSetPipe(topPipe) {
+            private final BigHashSet<BindingSet> matches = new BigHashSet<>(accounting);
+            @Override
+            protected void handleException(Exception e) {
+                matches.close();
+                super.handleException(e);
+            }
+            @Override
+            public boolean push(BindingSet bs) throws InterruptedException {
+                if (bs != null) try {
+                    matches.add(project(bs, sharedNames));
+                    return true;
+                } catch (IOException e) {
+                    handleException(e);
+                    return false;
+                } else {
+                    evaluateTupleExpr(new BindingSetPipe(topPipe) {
+                        @Override
+                        public boolean push(BindingSet bs) throws InterruptedException {
+                            try {
+                                if (bs == null) {
+                                    matches.close();
+                                    return parent.push(null);
+                                }
+                                BindingSet key = project(bs, sharedNames);
+                                //rows with unbound shared variables are checked individually
+                                boolean accepted = key.size() == sharedNames.size() ? matches.contains(key) != anti : accept(filter, bs);
+                                return accepted ? parent.push(bs) : true;
+                            } catch (IOException | QueryEvaluationException e) {
+                                matches.close();
+                                parent.handleException(e);
+                                return false;
+                            }
+                        }
+                    }, filter.getArg(), bindings);
+                }
+                return false;
+            }
+        }, subQuery, scopeBindings);
+    }
+
+    private static BindingSet project(BindingSet bs, Set<String> names) {
+        QueryBindingSet projected = new QueryBindingSet();
+        for (String name : names) {
+            Value value = bs.getValue(name);
+            if (value != null) {
+                projected.addBinding(name, value);
+            }
+        }
+        return projected;
+    }
+
     private void evaluateDescribeOperator(BindingSetPipe parent, DescribeOperator operator, BindingSet bindings) {
         HalyardStatementPatternEvaluation.enqueue(parent, new DescribeIteration(evaluate(operator.getArg(), bindings), parentStrategy, operator.getBindingNames(), bindings), operator);
     }
@@ -344,7 +532,7 @@ final class HalyardTupleExprEvaluation {
 
     private void evaluateOrder(final BindingSetPipe parent, final Order order, BindingSet bindings) {
 //        try {
-            final Sorter<ComparableBindingSetWrapper> sorter = new Sorter<>(getLimit(order), isReducedOrDistinct(order));
+            final Sorter<ComparableBindingSetWrapper> sorter = new Sorter<>(getLimit(order), isReducedOrDistinct(order), accounting);
             final AtomicLong minorOrder = new AtomicLong();
             evaluateTupleExpr(new BindingSetPipe(parent) {
 
@@ -374,10 +562,10 @@ final class HalyardTupleExprEvaluation {
                                 }
                             }
                         }
-                        return parent.push(null);
                     } finally {
                         sorter.close();
                     }
+                    return parent.push(null);
                 }
             }, order.getArg(), bindings);
 //        } catch (IOException e) {
@@ -414,7 +602,7 @@ final class HalyardTupleExprEvaluation {
 
     private void evaluateDistinct(BindingSetPipe parent, final Distinct distinct, BindingSet bindings) {
         evaluateTupleExpr(new BindingSetPipe(parent) {
-            private final BigHashSet<BindingSet> set = new BigHashSet<>();
+            private final BigHashSet<BindingSet> set = new BigHashSet<>(accounting);
             @Override
             protected void handleException(Exception e) {
                 set.close();
@@ -475,19 +663,55 @@ final class HalyardTupleExprEvaluation {
     private void evaluateSlice(BindingSetPipe parent, Slice slice, BindingSet bindings) {
         final long offset = slice.hasOffset() ? slice.getOffset() : 0;
         final long limit = slice.hasLimit() ? offset + slice.getLimit() : Long.MAX_VALUE;
+        if (limit <= offset) {
+            try {
+                parent.push(null);
+            } catch (InterruptedException e) {
+                parent.handleException(e);
+            }
+            return;
+        }
         evaluateTupleExpr(new BindingSetPipe(parent) {
             private final AtomicLong ll = new AtomicLong(0);
+            private final AtomicLong pushed = new AtomicLong(offset);
+            private final AtomicBoolean finished = new AtomicBoolean(false);
+            private final CancellationToken token = new CancellationToken(parent.getCancellationToken());
             @Override
             public boolean push(BindingSet bs) throws InterruptedException {
-                if (bs == null) return parent.push(null);
+                if (bs == null) return finish();
                 long l = ll.incrementAndGet();
                 if (l <= offset) {
                     return true;
                 } else if (l <= limit) {
-                    return parent.push(bs);
+                    if (l == limit) {
+                        //all the other iterations under this Slice are closed immediately, the pushes up to the limit are already in progress
+                        token.cancel();
+                    }
+                    boolean more = parent.push(bs);
+                    //the limit is satisfied once all the results up to the limit are pushed, so the null does not overtake them
+                    return pushed.incrementAndGet() == limit ? finish() : more;
                 } else {
-                    return parent.push(null);
+                    return false;
+                }
+            }
+
+            private boolean finish() throws InterruptedException {
+                if (finished.compareAndSet(false, true)) {
+                    token.cancel();
+                    parent.push(null);
                 }
+                return false;
+            }
+
+            @Override
+            protected CancellationToken getCancellationToken() {
+                return token;
+            }
+
+            @Override
+            protected boolean isClosed() {
+                //satisfied limit closes all the remaining scanners below
+                return ll.get() >= limit || finished.get() || super.isClosed();
             }
         }, slice.getArg(), bindings);
     }
@@ -625,8 +849,11 @@ final class HalyardTupleExprEvaluation {
         final Set<String> problemVars = optionalVarCollector.getVarNames();
         problemVars.removeAll(leftJoin.getLeftArg().getBindingNames());
         problemVars.retainAll(bindings.getBindingNames());
+        //the optional part depends only on the values of its own variables
+        VarNameCollector rightVarCollector = new VarNameCollector();
+        leftJoin.getRightArg().visit(rightVarCollector);
+        final Set<String> joinNames = rightVarCollector.getVarNames();
         final AtomicLong joinsInProgress = new AtomicLong(1);
-        final Set<String> scopeBindingNames = leftJoin.getBindingNames();
         final BindingSetPipe topPipe = problemVars.isEmpty() ? parentPipe : new BindingSetPipe(parentPipe) {
             //Handle badly designed left join
             @Override
@@ -655,83 +882,192 @@ final class HalyardTupleExprEvaluation {
             }
         };
         evaluateTupleExpr(new BindingSetPipe(topPipe) {
+            private List<BindingSet> batch = new ArrayList<>(LEFT_JOIN_BATCH_SIZE);
             @Override
             public boolean push(final BindingSet leftBindings) throws InterruptedException {
-                if (leftBindings == null) {
-                    if (joinsInProgress.decrementAndGet() == 0) {
-                        parent.push(null);
-                    }
-                } else {
-                    joinsInProgress.incrementAndGet();
-                    evaluateTupleExpr(new BindingSetPipe(topPipe) {
-                        private boolean failed = true;
-                        @Override
-                        public boolean push(BindingSet rightBindings) throws InterruptedException {
-                            if (rightBindings == null) {
-                                if (failed) {
-                                    // Join failed, return left arg's bindings
-                                    parent.push(leftBindings);
-                                }
-                                if (joinsInProgress.decrementAndGet() == 0) {
-                                    parent.push(null);
-                                }
-                                return false;
-                            } else try {
-                                if (leftJoin.getCondition() == null) {
-                                    failed = false;
-                                    return parent.push(rightBindings);
-                                } else {
-                                    // Limit the bindings to the ones that are in scope for
-                                    // this filter
-                                    QueryBindingSet scopeBindings = new QueryBindingSet(rightBindings);
-                                    scopeBindings.retainAll(scopeBindingNames);
-                                    if (parentStrategy.isTrue(leftJoin.getCondition(), scopeBindings)) {
-                                        failed = false;
-                                        return parent.push(rightBindings);
-                                    }
-                                }
-                            } catch (ValueExprEvaluationException ignore) {
-                            } catch (QueryEvaluationException e) {
-                                parent.handleException(e);
-                            }
+                List<BindingSet> fullBatch;
+                synchronized (this) {
+                    if (leftBindings != null) {
+                        batch.add(leftBindings);
+                        if (batch.size() < LEFT_JOIN_BATCH_SIZE) {
                             return true;
                         }
-                    }, leftJoin.getRightArg(), leftBindings);
+                    }
+                    fullBatch = batch;
+                    batch = new ArrayList<>(LEFT_JOIN_BATCH_SIZE);
+                }
+                evaluateLeftJoinBatch(parent, leftJoin, fullBatch, joinNames, joinsInProgress);
+                if (leftBindings == null && joinsInProgress.decrementAndGet() == 0) {
+                    parent.push(null);
                 }
                 return true;
             }
         }, leftJoin.getLeftArg(), problemVars.isEmpty() ? bindings : getFilteredBindings(bindings, problemVars));
     }
 
+    /**
+     * Evaluates the optional part once for each group of the left bindings sharing the same join key
+     * and joins all the right bindings with all the left bindings of the group.
+     * Left bindings not joined with any right bindings are returned alone.
+     */
+    private void evaluateLeftJoinBatch(BindingSetPipe topPipe, final LeftJoin leftJoin, List<BindingSet> batch, Set<String> joinNames, final AtomicLong joinsInProgress) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final Set<String> scopeBindingNames = leftJoin.getBindingNames();
+        Map<BindingSet, List<BindingSet>> groups = new LinkedHashMap<>();
+        for (BindingSet leftBindings : batch) {
+            BindingSet key = project(leftBindings, joinNames);
+            List<BindingSet> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(leftBindings);
+        }
+        for (Map.Entry<BindingSet, List<BindingSet>> group : groups.entrySet()) {
+            final List<BindingSet> leftGroup = group.getValue();
+            final boolean[] joined = new boolean[leftGroup.size()];
+            joinsInProgress.incrementAndGet();
+            evaluateTupleExpr(new BindingSetPipe(topPipe) {
+                @Override
+                public boolean push(BindingSet rightBindings) throws InterruptedException {
+                    if (rightBindings == null) {
+                        for (int i = 0; i < joined.length; i++) {
+                            boolean failed;
+                            synchronized (joined) {
+                                failed = !joined[i];
+                            }
+                            if (failed) {
+                                // Join failed, return left arg's bindings
+                                parent.push(leftGroup.get(i));
+                            }
+                        }
+                        if (joinsInProgress.decrementAndGet() == 0) {
+                            parent.push(null);
+                        }
+                        return false;
+                    }
+                    for (int i = 0; i < joined.length; i++) try {
+                        QueryBindingSet result = new QueryBindingSet(leftGroup.get(i));
+                        for (Binding b : rightBindings) {
+                            if (!result.hasBinding(b.getName())) {
+                                result.addBinding(b);
+                            }
+                        }
+                        if (leftJoin.getCondition() != null) {
+                            // Limit the bindings to the ones that are in scope for
+                            // this filter
+                            QueryBindingSet scopeBindings = new QueryBindingSet(result);
+                            scopeBindings.retainAll(scopeBindingNames);
+                            if (!parentStrategy.isTrue(leftJoin.getCondition(), scopeBindings)) {
+                                continue;
+                            }
+                        }
+                        synchronized (joined) {
+                            joined[i] = true;
+                        }
+                        if (!parent.push(result)) {
+                            return false;
+                        }
+                    } catch (ValueExprEvaluationException ignore) {
+                    } catch (QueryEvaluationException e) {
+                        parent.handleException(e);
+                        return false;
+                    }
+                    return true;
+                }
+            }, leftJoin.getRightArg(), group.getKey());
+        }
+    }
+
     private static QueryBindingSet getFilteredBindings(BindingSet bindings, Set<String> problemVars) {
             QueryBindingSet filteredBindings = new QueryBindingSet(bindings);
             filteredBindings.removeAll(problemVars);
             return filteredBindings;
     }
 
+    /**
+     * Collects branches of the given Union and of all the directly nested Unions
+     * @param union Union
+     * @param branches List to collect the branches into
+     * @return the same List of the branches
+     */
+    static List<TupleExpr> getUnionBranches(Union union, List<TupleExpr> branches) {
+        for (TupleExpr arg : new TupleExpr[] {union.getLeftArg(), union.getRightArg()}) {
+            if (arg instanceof Union) {
+                getUnionBranches((Union) arg, branches);
+            } else {
+                branches.add(arg);
+            }
+        }
+        return branches;
+    }
+
     private void evaluateUnion(BindingSetPipe parent, Union union, BindingSet bindings) {
-        BindingSetPipe pipe = new BindingSetPipe(parent) {
-            AtomicInteger args = new AtomicInteger(2);
-            @Override
-            public boolean push(BindingSet bs) throws InterruptedException {
-                if (bs == null) {
-                    if (args.decrementAndGet() == 0) {
-                        return parent.push(null);
-                    } else {
-                        return false;
+        new UnionPipe(parent, getUnionBranches(union, new ArrayList<TupleExpr>()), bindings).dispatch();
+    }
+
+    /**
+     * Evaluates up to unionParallelism branches of a Union at once and starts the next branch whenever one of the running branches finishes.
+     * Once the parent does not expect more data (for example a satisfied Slice) no more branches are started and the running branches are closed.
+     */
+    private final class UnionPipe extends BindingSetPipe {
+
+        private final List<TupleExpr> branches;
+        private final BindingSet bindings;
+        private final AtomicInteger nextBranch = new AtomicInteger(0), runningBranches = new AtomicInteger(0), dispatching = new AtomicInteger(0);
+        private final AtomicInteger remainingBranches;
+        private volatile boolean closed = false;
+
+        UnionPipe(BindingSetPipe parent, List<TupleExpr> branches, BindingSet bindings) {
+            super(parent);
+            this.branches = branches;
+            this.bindings = bindings;
+            this.remainingBranches = new AtomicInteger(branches.size());
+        }
+
+        void dispatch() {
+            //branches are started by a single thread at a time, other threads just request another dispatch round instead of recursion
+            if (dispatching.getAndIncrement() == 0) do {
+                while (!isClosed() && runningBranches.get() < unionParallelism && nextBranch.get() < branches.size()) {
+                    runningBranches.incrementAndGet();
+                    evaluateTupleExpr(this, branches.get(nextBranch.getAndIncrement()), bindings);
+                }
+            } while (dispatching.decrementAndGet() > 0);
+        }
+
+        @Override
+        public boolean push(BindingSet bs) throws InterruptedException {
+            if (bs == null) {
+                runningBranches.decrementAndGet();
+                if (remainingBranches.decrementAndGet() == 0) {
+                    if (!closed) {
+                        parent.push(null);
                     }
                 } else {
-                    return parent.push(bs);
+                    dispatch();
                 }
+                return false;
+            } else if (closed) {
+                return false;
+            } else if (parent.push(bs)) {
+                return true;
+            } else {
+                closed = true;
+                return false;
             }
-        };
-        evaluateTupleExpr(pipe, union.getLeftArg(), bindings);
-        evaluateTupleExpr(pipe, union.getRightArg(), bindings);
+        }
+
+        @Override
+        protected boolean isClosed() {
+            return closed || super.isClosed();
+        }
     }
 
     private void evaluateIntersection(final BindingSetPipe topPipe, final Intersection intersection, final BindingSet bindings) {
         evaluateTupleExpr(new BindingSetPipe(topPipe) {
-            private final BigHashSet<BindingSet> secondSet = new BigHashSet<>();
+            private final BigHashSet<BindingSet> secondSet = new BigHashSet<>(accounting);
             @Override
             protected void handleException(Exception e) {
                 secondSet.close();
@@ -768,8 +1104,18 @@ final class HalyardTupleExprEvaluation {
     }
 
     private void evaluateDifference(final BindingSetPipe topPipe, final Difference difference, final BindingSet bindings) {
+        //only the variables shared by both sides (including the incoming bindings) decide about the exclusion
+        final Set<String> sharedNames = new HashSet<>(difference.getLeftArg().getBindingNames());
+        sharedNames.retainAll(difference.getRightArg().getBindingNames());
+        sharedNames.addAll(bindings.getBindingNames());
+        if (sharedNames.isEmpty()) {
+            // disjoint sets are never excluded
+            evaluateTupleExpr(topPipe, difference.getLeftArg(), bindings);
+            return;
+        }
         evaluateTupleExpr(new BindingSetPipe(topPipe) {
-            private final BigHashSet<BindingSet> excludeSet = new BigHashSet<>();
+            private final BigHashSet<BindingSet> excludeSet = new BigHashSet<>(accounting);
+            private volatile boolean partial = false;
             @Override
             protected void handleException(Exception e) {
                 excludeSet.close();
@@ -778,7 +1124,14 @@ final class HalyardTupleExprEvaluation {
             @Override
             public boolean push(BindingSet bs) throws InterruptedException {
                 if (bs != null) try {
-                    excludeSet.add(bs);
+                    BindingSet key = project(bs, sharedNames);
+                    //rows sharing no variables never exclude anything
+                    if (key.size() > 0) {
+                        if (key.size() < sharedNames.size()) {
+                            partial = true;
+                        }
+                        excludeSet.add(key);
+                    }
                     return true;
                 } catch (IOException e) {
                     handleException(e);
@@ -791,6 +1144,15 @@ final class HalyardTupleExprEvaluation {
                                 excludeSet.close();
                                 return parent.push(null);
                             }
+                            BindingSet key = project(bs, sharedNames);
+                            if (!partial && key.size() == sharedNames.size()) try {
+                                //all the shared variables are bound on both sides, so only the equal values are compatible
+                                return excludeSet.contains(key) ? true : parent.push(bs);
+                            } catch (IOException e) {
+                                excludeSet.close();
+                                parent.handleException(e);
+                                return false;
+                            }
                             for (BindingSet excluded : excludeSet) {
                                 // build set of shared variable names
                                 Set<String> sharedBindingNames = new HashSet<>(excluded.getBindingNames());
@@ -801,7 +1163,7 @@ final class HalyardTupleExprEvaluation {
                                 // be filtered out.
                                 // See http://www.w3.org/TR/sparql11-query/#sparqlAlgebra
                                 if (!sharedBindingNames.isEmpty()) {
-                                    if (QueryResults.bindingSetsCompatible(excluded, bs)) {
+                                    if (QueryResults.bindingSetsCompatible(excluded, key)) {
                                         // at least one compatible bindingset has been found in the
                                         // exclude set, therefore the object is compatible, therefore it
                                         // should not be accepted.
@@ -879,12 +1241,22 @@ final class HalyardTupleExprEvaluation {
             HalyardStatementPatternEvaluation.enqueue(parent, new PathIteration(new StrictEvaluationStrategy(null, null) {
                 @Override
                 public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(ZeroLengthPath zlp, BindingSet bindings) throws QueryEvaluationException {
-                    return parentStrategy.evaluate(zlp, bindings);
+                    return modifiable(parentStrategy.evaluate(zlp, bindings));
                 }
 
                 @Override
                 public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(TupleExpr expr, BindingSet bindings) throws QueryEvaluationException {
-                    return parentStrategy.evaluate(expr, bindings);
+                    return modifiable(parentStrategy.evaluate(expr, bindings));
+                }
+
+                //PathIteration modifies the evaluated QueryBindingSets
+                private CloseableIteration<BindingSet, QueryEvaluationException> modifiable(CloseableIteration<BindingSet, QueryEvaluationException> iter) {
+                    return new ConvertingIteration<BindingSet, BindingSet, QueryEvaluationException>(iter) {
+                        @Override
+                        protected BindingSet convert(BindingSet bs) {
+                            return bs instanceof QueryBindingSet ? bs : new QueryBindingSet(bs);
+                        }
+                    };
                 }
 
             }, scope, subjectVar, pathExpression, objVar, contextVar, minLength, bindings), alp);
@@ -986,6 +1358,7 @@ final class HalyardTupleExprEvaluation {
     private final class BindingSetPipeIterator extends LookAheadIteration<BindingSet, QueryEvaluationException> {
 
         private final LinkedBlockingQueue<BindingSet> queue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+        private final CancellationToken token = new CancellationToken(null, accounting);
         private Exception exception = null;
 
         private final BindingSetPipe pipe = new BindingSetPipe(null) {
@@ -1011,6 +1384,11 @@ final class HalyardTupleExprEvaluation {
             protected boolean isClosed() {
                 return BindingSetPipeIterator.this.isClosed();
             }
+
+            @Override
+            protected CancellationToken getCancellationToken() {
+                return token;
+            }
         };
 
         @Override
@@ -1032,6 +1410,7 @@ final class HalyardTupleExprEvaluation {
         @Override
         protected void handleClose() throws QueryEvaluationException {
             super.handleClose();
+            token.cancel();
             queue.clear();
             queue.add(NULL);
         }
@@ -65,6 +65,7 @@ import org.eclipse.rdf4j.query.algebra.Not;
 import org.eclipse.rdf4j.query.algebra.Or;
 import org.eclipse.rdf4j.query.algebra.Regex;
 import org.eclipse.rdf4j.query.algebra.SameTerm;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.Str;
 import org.eclipse.rdf4j.query.algebra.ValueConstant;
 import org.eclipse.rdf4j.query.algebra.ValueExpr;
@@ -770,6 +771,10 @@ class HalyardValueExprEvaluation {
     }
 
     private Value evaluate(Exists node, BindingSet bindings) throws ValueExprEvaluationException, QueryEvaluationException {
+        if (node.getSubQuery() instanceof StatementPattern) {
+            //single statement pattern is checked directly instead of the whole evaluation pipeline
+            return BooleanLiteral.valueOf(parentStrategy.hasStatements((StatementPattern) node.getSubQuery(), bindings));
+        }
         try (CloseableIteration<BindingSet, QueryEvaluationException> iter = parentStrategy.evaluate(node.getSubQuery(), bindings)) {
             return BooleanLiteral.valueOf(iter.hasNext());
         }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryAccounting sums the resources consumed by the evaluation of a single query:
+ * the CPU time of all the threads working on the query, the storage scans opened, the rows and bytes scanned
+ * and the bytes written to the temporary files of the disk-backed collections.
+ * Unlike {@link QueryProfile} it does not measure the individual nodes of the query plan, so it is cheap enough to account all the queries.
+ * @author Adam Sotona (MSD)
+ */
+public final class QueryAccounting {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+
+    private final AtomicLong cpuNanos = new AtomicLong(), scans = new AtomicLong(), rows = new AtomicLong(), bytes = new AtomicLong(), spilledBytes = new AtomicLong();
+
+    /**
+     * Returns CPU time of the current thread
+     * @return long CPU time in nanoseconds or 0 if the JVM does not support thread CPU time measurement
+     */
+    public static long currentThreadCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Adds CPU time consumed by the query
+     * @param nanos long CPU time in nanoseconds
+     */
+    public void addCpuTime(long nanos) {
+        cpuNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Counts a storage scan opened by the query
+     */
+    public void scanOpened() {
+        scans.incrementAndGet();
+    }
+
+    /**
+     * Adds rows and bytes read from the storage
+     * @param rows long number of rows
+     * @param bytes long number of bytes
+     */
+    public void scanned(long rows, long bytes) {
+        this.rows.addAndGet(rows);
+        this.bytes.addAndGet(bytes);
+    }
+
+    /**
+     * Adds bytes written to a temporary file
+     * @param bytes long number of bytes
+     */
+    public void spilled(long bytes) {
+        spilledBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return long CPU time in nanoseconds
+     */
+    public long getCpuTime() {
+        return cpuNanos.get();
+    }
+
+    /**
+     * @return long number of the storage scans opened
+     */
+    public long getScans() {
+        return scans.get();
+    }
+
+    /**
+     * @return long number of the rows scanned
+     */
+    public long getRows() {
+        return rows.get();
+    }
+
+    /**
+     * @return long number of the bytes scanned
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return long number of the bytes written to temporary files
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "cpu=" + TimeUnit.NANOSECONDS.toMillis(cpuNanos.get()) + "ms, scans=" + scans + ", rows=" + rows + ", bytes=" + bytes + ", spilled=" + spilledBytes;
+    }
+}
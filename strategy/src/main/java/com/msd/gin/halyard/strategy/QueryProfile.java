@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.rdf4j.common.iteration.AbstractCloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+
+/**
+ * QueryProfile collects the estimated and the actual statistics of the individual nodes of an evaluated query plan.
+ * The actual statistics are the number of evaluations of each node, the number of results pushed, the cumulative evaluation time
+ * and for the statement patterns also the number of scans opened, the statements and bytes read and the time spent waiting for the storage.
+ * @author Adam Sotona (MSD)
+ */
+public final class QueryProfile {
+
+    static final class NodeStatistics {
+        final AtomicLong evaluations = new AtomicLong(), results = new AtomicLong(), nanos = new AtomicLong();
+        final AtomicLong scans = new AtomicLong(), statements = new AtomicLong(), bytes = new AtomicLong(), waitNanos = new AtomicLong();
+        volatile double estimate = -1;
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            if (estimate >= 0) {
+                sb.append("estimated=").append(Math.round(estimate)).append(", ");
+            }
+            if (evaluations.get() > 0) {
+                sb.append("evaluations=").append(evaluations).append(", results=").append(results).append(", time=").append(TimeUnit.NANOSECONDS.toMillis(nanos.get())).append("ms, ");
+            }
+            if (scans.get() > 0) {
+                sb.append("scans=").append(scans).append(", statements=").append(statements).append(", bytes=").append(bytes).append(", wait=").append(TimeUnit.NANOSECONDS.toMillis(waitNanos.get())).append("ms, ");
+            }
+            return sb.length() > 1 ? sb.replace(sb.length() - 2, sb.length(), "]").toString() : "";
+        }
+    }
+
+    private final Map<QueryModelNode, NodeStatistics> nodes = new IdentityHashMap<>();
+
+    synchronized NodeStatistics get(QueryModelNode node) {
+        NodeStatistics stats = nodes.get(node);
+        if (stats == null) {
+            stats = new NodeStatistics();
+            nodes.put(node, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Records the estimated cardinalities of all the nodes of the query plan
+     * @param tupleExpr optimized query plan
+     * @param statistics EvaluationStatistics used to optimize the query plan
+     */
+    public void estimate(TupleExpr tupleExpr, final EvaluationStatistics statistics) {
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            protected void meetNode(QueryModelNode node) {
+                if (node instanceof TupleExpr && !(node instanceof QueryRoot)) try {
+                    get(node).estimate = statistics.getCardinality((TupleExpr) node);
+                } catch (RuntimeException e) {
+                    //not all the nodes can be estimated
+                }
+                super.meetNode(node);
+            }
+        });
+    }
+
+    /**
+     * Wraps the statements iteration of a statement pattern to count the scanned statements and the time spent waiting for them
+     * @param node statement pattern
+     * @param iter CloseableIteration of the scanned statements
+     * @return CloseableIteration of the same statements
+     */
+    CloseableIteration<Statement, QueryEvaluationException> scan(QueryModelNode node, final CloseableIteration<? extends Statement, QueryEvaluationException> iter) {
+        final NodeStatistics stats = get(node);
+        stats.scans.incrementAndGet();
+        return new AbstractCloseableIteration<Statement, QueryEvaluationException>() {
+            @Override
+            public boolean hasNext() throws QueryEvaluationException {
+                if (isClosed()) {
+                    return false;
+                }
+                long time = System.nanoTime();
+                try {
+                    return iter.hasNext();
+                } finally {
+                    stats.waitNanos.addAndGet(System.nanoTime() - time);
+                }
+            }
+
+            @Override
+            public Statement next() throws QueryEvaluationException {
+                long time = System.nanoTime();
+                try {
+                    Statement st = iter.next();
+                    stats.statements.incrementAndGet();
+                    return st;
+                } finally {
+                    stats.waitNanos.addAndGet(System.nanoTime() - time);
+                }
+            }
+
+            @Override
+            public void remove() throws QueryEvaluationException {
+                iter.remove();
+            }
+
+            @Override
+            protected void handleClose() throws QueryEvaluationException {
+                try {
+                    if (iter instanceof HalyardEvaluationStrategy.ScanMetrics) {
+                        stats.bytes.addAndGet(((HalyardEvaluationStrategy.ScanMetrics) iter).getBytesRead());
+                    }
+                } finally {
+                    iter.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Renders the query plan annotated with the collected statistics
+     * @param tupleExpr query plan
+     * @return String query plan with one node per line
+     */
+    public String toString(TupleExpr tupleExpr) {
+        final StringBuilder sb = new StringBuilder();
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            private int indent = 0;
+
+            @Override
+            protected void meetNode(QueryModelNode node) {
+                for (int i = 0; i < indent; i++) {
+                    sb.append("   ");
+                }
+                sb.append(node.getSignature());
+                NodeStatistics stats;
+                synchronized (QueryProfile.this) {
+                    stats = nodes.get(node);
+                }
+                if (stats != null) {
+                    String s = stats.toString();
+                    if (!s.isEmpty()) {
+                        sb.append(' ').append(s);
+                    }
+                }
+                sb.append('\n');
+                indent++;
+                super.meetNode(node);
+                indent--;
+            }
+        });
+        return sb.toString();
+    }
+}
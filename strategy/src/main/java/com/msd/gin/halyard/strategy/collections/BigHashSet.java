@@ -16,6 +16,8 @@
  */
 package com.msd.gin.halyard.strategy.collections;
 
+import com.msd.gin.halyard.strategy.HalyardMetrics;
+import com.msd.gin.halyard.strategy.QueryAccounting;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Serializable;
@@ -23,6 +25,7 @@ import java.util.Iterator;
 import java.util.Set;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.mapdb.Store;
 
 /**
  * TODO
@@ -33,9 +36,27 @@ import org.mapdb.DBMaker;
 public class BigHashSet<E extends Serializable> implements Iterable<E>, Closeable {
 
     private static final String SET_NAME = "temp";
+    private static final HalyardMetrics.Counter SPILLED = HalyardMetrics.counter("hashset.spill.elements");
+    private static final HalyardMetrics.Counter SPILLED_BYTES = HalyardMetrics.counter("hashset.spill.bytes");
 
     private final DB db = DBMaker.newTempFileDB().deleteFilesAfterClose().closeOnJvmShutdown().transactionDisable().make();
     private final Set<E> set = db.getHashSet(SET_NAME);
+    private final QueryAccounting accounting;
+
+    /**
+     * Constructs BigHashSet
+     */
+    public BigHashSet() {
+        this(null);
+    }
+
+    /**
+     * Constructs BigHashSet accounting its temporary file size at close
+     * @param accounting optional QueryAccounting of the evaluated query
+     */
+    public BigHashSet(QueryAccounting accounting) {
+        this.accounting = accounting;
+    }
 
     /**
      * Adds element to the BigHashSet
@@ -45,6 +66,7 @@ public class BigHashSet<E extends Serializable> implements Iterable<E>, Closeabl
      */
     public boolean add(E e) throws IOException {
         try {
+            SPILLED.add(1);
             return set.add(e);
         } catch (IllegalAccessError err) {
             throw new IOException(err);
@@ -73,7 +95,17 @@ public class BigHashSet<E extends Serializable> implements Iterable<E>, Closeabl
     @Override
     public void close() {
         try {
-            db.close();
+            synchronized (db) {
+                if (db.isClosed()) {
+                    return;
+                }
+                long bytes = Store.forDB(db).getCurrSize();
+                SPILLED_BYTES.add(bytes);
+                if (accounting != null) {
+                    accounting.spilled(bytes);
+                }
+                db.close();
+            }
         } catch (IllegalAccessError ignore) {
             //silent close
         }
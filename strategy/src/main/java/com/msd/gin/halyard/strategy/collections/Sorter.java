@@ -16,6 +16,8 @@
  */
 package com.msd.gin.halyard.strategy.collections;
 
+import com.msd.gin.halyard.strategy.HalyardMetrics;
+import com.msd.gin.halyard.strategy.QueryAccounting;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Serializable;
@@ -24,6 +26,7 @@ import java.util.Map;
 import java.util.NavigableMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.mapdb.Store;
 
 /**
  * Sorter does not preserve unique instances. All equal instances are mapped to a single instance.
@@ -35,11 +38,14 @@ import org.mapdb.DBMaker;
 public class Sorter <E extends Comparable<E> & Serializable> implements Iterable<Map.Entry<E, Long>>, Closeable {
 
     private static final String MAP_NAME = "temp";
+    private static final HalyardMetrics.Counter SPILLED = HalyardMetrics.counter("sorter.spill.elements");
+    private static final HalyardMetrics.Counter SPILLED_BYTES = HalyardMetrics.counter("sorter.spill.bytes");
 
     private final DB db;
     private final NavigableMap<E, Long> map;
     private final long limit;
     private final boolean distinct;
+    private final QueryAccounting accounting;
     private long size = 0;
 
     /**
@@ -48,10 +54,21 @@ public class Sorter <E extends Comparable<E> & Serializable> implements Iterable
      * @param distinct optional boolean switch to do not preserve multiple equal elements
      */
     public Sorter(long limit, boolean distinct) {
+        this(limit, distinct, null);
+    }
+
+    /**
+     * Constructs Sorter with optional limit and optional distinct filtering, accounting its temporary file size at close
+     * @param limit long limit, where Long.MAXLONG means no limit
+     * @param distinct optional boolean switch to do not preserve multiple equal elements
+     * @param accounting optional QueryAccounting of the evaluated query
+     */
+    public Sorter(long limit, boolean distinct, QueryAccounting accounting) {
         this.db = DBMaker.newTempFileDB().deleteFilesAfterClose().closeOnJvmShutdown().transactionDisable().make();
         this.map = db.createTreeMap(MAP_NAME).make();
         this.limit = limit;
         this.distinct = distinct;
+        this.accounting = accounting;
     }
 
     /**
@@ -61,6 +78,7 @@ public class Sorter <E extends Comparable<E> & Serializable> implements Iterable
      */
     public void add(E e) throws IOException {
         if (size < limit || e.compareTo(map.lastKey()) < 0) try {
+            SPILLED.add(1);
             Long c = map.get(e);
             if (c == null) {
                 map.put(e, 1l);
@@ -93,7 +111,17 @@ public class Sorter <E extends Comparable<E> & Serializable> implements Iterable
     @Override
     public void close() {
         try {
-            db.close();
+            synchronized (db) {
+                if (db.isClosed()) {
+                    return;
+                }
+                long bytes = Store.forDB(db).getCurrSize();
+                SPILLED_BYTES.add(bytes);
+                if (accounting != null) {
+                    accounting.spilled(bytes);
+                }
+                db.close();
+            }
         } catch (IllegalAccessError ignore) {
             //silent close
         }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import static junit.framework.TestCase.*;
+import java.util.Arrays;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class CompactBindingSetTest {
+
+    @Test
+    public void testEqualToQueryBindingSet() {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        QueryBindingSet parent = new QueryBindingSet();
+        parent.addBinding("a", vf.createLiteral(1));
+        CompactBindingSet first = new CompactBindingSet(parent, new String[]{"s", "c"}, new Value[]{vf.createIRI("http://whatever/subj"), null});
+        CompactBindingSet second = new CompactBindingSet(first, new String[]{new String("o")}, new Value[]{vf.createLiteral("value")});
+        QueryBindingSet expected = new QueryBindingSet(parent);
+        expected.addBinding("s", vf.createIRI("http://whatever/subj"));
+        expected.addBinding("o", vf.createLiteral("value"));
+        assertEquals(3, second.size());
+        assertEquals(Arrays.asList("a", "s", "o"), Arrays.asList(second.getBindingNames().toArray()));
+        assertEquals(vf.createLiteral("value"), second.getValue("o"));
+        assertFalse(second.hasBinding("c"));
+        assertNull(second.getBinding("c"));
+        assertEquals(expected, second);
+        assertEquals(second, expected);
+        assertEquals(expected.hashCode(), second.hashCode());
+        assertEquals(EmptyBindingSet.getInstance(), new CompactBindingSet(EmptyBindingSet.getInstance(), new String[0], new Value[0]));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import static junit.framework.TestCase.*;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class HalyardMetricsTest {
+
+    @Test
+    public void testCounterAndRegistry() throws Exception {
+        final Map<String, Long> forwarded = new HashMap<>();
+        HalyardMetrics.setRegistry(new HalyardMetrics.Registry() {
+            @Override
+            public synchronized void count(String name, long delta) {
+                Long v = forwarded.get(name);
+                forwarded.put(name, v == null ? delta : v + delta);
+            }
+
+            @Override
+            public void record(String name, long value) {
+            }
+        });
+        try {
+            HalyardMetrics.Counter c = HalyardMetrics.counter("test.counter");
+            assertSame(c, HalyardMetrics.counter("test.counter"));
+            c.add(3);
+            c.add(4);
+            assertEquals(7, c.get());
+            assertEquals(Long.valueOf(7), forwarded.get("test.counter"));
+            assertEquals(7l, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(HalyardMetrics.OBJECT_NAME), "test.counter"));
+        } finally {
+            HalyardMetrics.setRegistry(null);
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        HalyardMetrics.Histogram h = HalyardMetrics.histogram("test.histogram");
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(50.5, h.getMean(), 0.001);
+        assertEquals(100, h.getMax());
+        assertEquals(63, h.getQuantile(0.5));
+        assertEquals(100, h.getQuantile(0.99));
+        Map<String, Object> snapshot = HalyardMetrics.snapshot();
+        assertEquals(100l, snapshot.get("test.histogram.count"));
+        assertEquals(63l, snapshot.get("test.histogram.p50"));
+    }
+
+    @Test
+    public void testGauge() throws Exception {
+        HalyardMetrics.gauge("test.gauge", new HalyardMetrics.Gauge() {
+            @Override
+            public Object getValue() {
+                return "value";
+            }
+        });
+        assertEquals("value", ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(HalyardMetrics.OBJECT_NAME), "test.gauge"));
+        Class.forName(HalyardStatementPatternEvaluation.class.getName());
+        assertNotNull(HalyardMetrics.snapshot().get("executor.queue.depth"));
+    }
+}
@@ -17,11 +17,30 @@
 package com.msd.gin.halyard.strategy;
 
 import static junit.framework.TestCase.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.Exists;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
@@ -120,4 +139,234 @@ public class HalyardStrategyExtendedTest {
         String sparql = "SELECT * WHERE {SERVICE SILENT <http://whatever/> { ?s ?p ?o . }}";
         con.prepareTupleQuery(QueryLanguage.SPARQL, sparql).evaluate();
     }
+
+    private static String unionQuery(int branches) {
+        StringBuilder sb = new StringBuilder("SELECT * WHERE {{?s <http://whatever/pred0> ?o}");
+        for (int i = 1; i < branches; i++) {
+            sb.append(" UNION {?s <http://whatever/pred").append(i).append("> ?o}");
+        }
+        return sb.append('}').toString();
+    }
+
+    @Test
+    public void testManyUnionBranches() throws Exception {
+        ValueFactory vf = con.getValueFactory();
+        for (int i = 0; i < 60; i++) {
+            con.add(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred" + i), vf.createLiteral(i));
+        }
+        Set<Value> values = new HashSet<>();
+        try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, unionQuery(60)).evaluate()) {
+            while (res.hasNext()) {
+                assertTrue(values.add(res.next().getValue("o")));
+            }
+        }
+        assertEquals(60, values.size());
+    }
+
+    /**
+     * TripleSource counting the opened and probed statement iterations
+     */
+    private static class CountingTripleSource implements TripleSource, HalyardEvaluationStrategy.StatementProbe {
+
+        final ValueFactory vf = SimpleValueFactory.getInstance();
+        final Model model = new LinkedHashModel();
+        final AtomicInteger opened = new AtomicInteger(), open = new AtomicInteger(), probed = new AtomicInteger();
+        final boolean probe;
+
+        CountingTripleSource(int preds, int subjs, boolean probe) {
+            for (int i = 0; i < preds; i++) {
+                for (int j = 0; j < subjs; j++) {
+                    model.add(vf.createIRI("http://whatever/subj" + j), vf.createIRI("http://whatever/pred" + i), vf.createLiteral(j));
+                }
+            }
+            this.probe = probe;
+        }
+
+        @Override
+        public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+            opened.incrementAndGet();
+            open.incrementAndGet();
+            return new CloseableIteratorIteration<Statement, QueryEvaluationException>(model.filter(subj, pred, obj, contexts).iterator()) {
+                @Override
+                protected void handleClose() throws QueryEvaluationException {
+                    open.decrementAndGet();
+                    super.handleClose();
+                }
+            };
+        }
+
+        @Override
+        public boolean hasStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+            if (!probe) {
+                throw new QueryEvaluationException("Unexpected probe");
+            }
+            probed.incrementAndGet();
+            return model.contains(subj, pred, obj, contexts);
+        }
+
+        @Override
+        public ValueFactory getValueFactory() {
+            return vf;
+        }
+
+        int evaluate(String query, int unionParallelism) throws Exception {
+            return evaluate(query, unionParallelism, null);
+        }
+
+        int evaluate(String query, int unionParallelism, EvaluationStatistics statistics) throws Exception {
+            HalyardEvaluationStrategy strategy = new HalyardEvaluationStrategy(this, null, null, statistics, -1, unionParallelism);
+            int count = 0;
+            try (CloseableIteration<BindingSet, QueryEvaluationException> it = strategy.evaluate(QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null).getTupleExpr(), EmptyBindingSet.getInstance())) {
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+            }
+            for (int i = 0; i < 100 && open.get() > 0; i++) {
+                Thread.sleep(100);
+            }
+            return count;
+        }
+    }
+
+    @Test
+    public void testUnionLimitClosesBranches() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(60, 1000, false);
+        assertEquals(10, source.evaluate(unionQuery(60) + " LIMIT 10", 4));
+        assertEquals(0, source.open.get());
+        assertTrue(source.opened.get() < 60);
+    }
+
+    @Test
+    public void testSubQueryLimitCancelsJoin() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(2, 1000, false);
+        assertEquals(3, source.evaluate("SELECT * WHERE {{SELECT ?s WHERE {?s <http://whatever/pred0> ?o . ?s <http://whatever/pred1> ?o} LIMIT 3} ?s <http://whatever/pred1> ?o2}", 10));
+        assertEquals(0, source.open.get());
+        assertTrue(source.opened.get() < 1000);
+    }
+
+    /**
+     * Statistics estimating the EXISTS sub-queries too large to be evaluated as hashed semi-joins
+     */
+    private static final EvaluationStatistics LARGE_EXISTS = new EvaluationStatistics() {
+        @Override
+        public synchronized double getCardinality(TupleExpr expr) {
+            return expr.getParentNode() instanceof Exists ? 1e12 : super.getCardinality(expr);
+        }
+    };
+
+    @Test
+    public void testExistsProbe() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(2, 100, true);
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER EXISTS {?s <http://whatever/pred1> ?o}}", 10, LARGE_EXISTS));
+        assertEquals(0, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER EXISTS {?s <http://whatever/pred2> ?o}}", 10, LARGE_EXISTS));
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER NOT EXISTS {?s <http://whatever/pred1> ?s}}", 10, LARGE_EXISTS));
+        assertEquals(200, source.probed.get());
+        assertEquals(0, source.open.get());
+        assertEquals(103, source.opened.get());
+    }
+
+    @Test
+    public void testExistsProbeOncePerKey() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(3, 50, true);
+        assertEquals(2500, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o . ?s2 <http://whatever/pred1> ?o2 FILTER EXISTS {?s <http://whatever/pred2> ?o}}", 10, LARGE_EXISTS));
+        assertEquals(50, source.probed.get());
+    }
+
+    @Test
+    public void testHashSemiJoin() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(2, 100, false);
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER EXISTS {?s <http://whatever/pred1> ?o}}", 10));
+        assertEquals(2, source.opened.get());
+        assertEquals(0, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER EXISTS {?s <http://whatever/pred2> ?o}}", 10));
+        assertEquals(0, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER NOT EXISTS {?s <http://whatever/pred1> ?o}}", 10));
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER NOT EXISTS {?s <http://whatever/pred1> ?o2 FILTER (?o2 != ?o)}}", 10));
+        assertEquals(1, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o FILTER NOT EXISTS {?s <http://whatever/pred1> ?o2 FILTER (?o2 < 99)}}", 10));
+        assertEquals(0, source.probed.get());
+        assertEquals(0, source.open.get());
+    }
+
+    @Test
+    public void testMinus() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(2, 100, false);
+        assertEquals(0, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o MINUS {?s <http://whatever/pred1> ?o}}", 10));
+        assertEquals(0, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o MINUS {?s <http://whatever/pred1> ?o2}}", 10));
+        assertEquals(99, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o MINUS {?s <http://whatever/pred1> ?o FILTER (?o < 1)}}", 10));
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o MINUS {?s2 <http://whatever/pred1> ?o2}}", 10));
+        assertEquals(50, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o MINUS {{?s <http://whatever/pred1> ?o FILTER (?o < 50)} UNION {?x <http://whatever/pred1> ?o2}}}", 10));
+        assertEquals(0, source.open.get());
+    }
+
+    @Test
+    public void testBatchedOptional() throws Exception {
+        final AtomicInteger optionalScans = new AtomicInteger();
+        CountingTripleSource source = new CountingTripleSource(3, 10, false) {
+            @Override
+            public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+                if (vf.createIRI("http://whatever/pred2").equals(pred)) {
+                    optionalScans.incrementAndGet();
+                }
+                return super.getStatements(subj, pred, obj, contexts);
+            }
+        };
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o . ?s2 <http://whatever/pred1> ?o2 OPTIONAL {?s2 <http://whatever/pred2> ?v}}", 10));
+        assertEquals(10, optionalScans.get());
+        assertEquals(100, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o . ?s2 <http://whatever/pred1> ?o2 OPTIONAL {?s2 <http://whatever/pred2> ?v FILTER (?v < ?o)}}", 10));
+        assertEquals(10, source.evaluate("SELECT * WHERE {?s <http://whatever/pred0> ?o OPTIONAL {?s <http://whatever/pred3> ?v}}", 10));
+        assertEquals(0, source.open.get());
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(2, 100, false);
+        HalyardEvaluationStrategy strategy = new HalyardEvaluationStrategy(source, null, null, -1);
+        QueryProfile profile = new QueryProfile();
+        strategy.setProfile(profile);
+        TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "SELECT * WHERE {?s <http://whatever/pred0> ?o . ?s <http://whatever/pred1> ?o}", null).getTupleExpr();
+        profile.estimate(expr, new EvaluationStatistics());
+        try (CloseableIteration<BindingSet, QueryEvaluationException> it = strategy.evaluate(expr, EmptyBindingSet.getInstance())) {
+            while (it.hasNext()) {
+                it.next();
+            }
+        }
+        String plan = profile.toString(expr);
+        assertTrue(plan, plan.startsWith("Projection [estimated="));
+        assertTrue(plan, plan.contains("evaluations=1, results=100, "));
+        assertTrue(plan, plan.contains("Join [estimated="));
+        assertTrue(plan, plan.contains("scans=1, statements=100, bytes=0, wait="));
+    }
+
+    @Test
+    public void testAccounting() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(2, 100, false);
+        HalyardEvaluationStrategy strategy = new HalyardEvaluationStrategy(source, null, null, -1);
+        QueryAccounting accounting = new QueryAccounting();
+        strategy.setAccounting(accounting);
+        TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "SELECT DISTINCT * WHERE {?s <http://whatever/pred0> ?o . ?s <http://whatever/pred1> ?o} ORDER BY ?o", null).getTupleExpr();
+        int count = 0;
+        try (CloseableIteration<BindingSet, QueryEvaluationException> it = strategy.evaluate(expr, EmptyBindingSet.getInstance())) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        assertEquals(100, count);
+        assertTrue(accounting.toString(), accounting.getSpilledBytes() > 0);
+        if (QueryAccounting.currentThreadCpuTime() > 0) {
+            assertTrue(accounting.toString(), accounting.getCpuTime() > 0);
+        }
+    }
+
+    @Test
+    public void testAskClosesScanners() throws Exception {
+        CountingTripleSource source = new CountingTripleSource(10, 1000, false);
+        HalyardEvaluationStrategy strategy = new HalyardEvaluationStrategy(source, null, null, -1);
+        try (CloseableIteration<BindingSet, QueryEvaluationException> it = strategy.evaluate(QueryParserUtil.parseBooleanQuery(QueryLanguage.SPARQL, "ASK {?s ?p ?o . ?s ?p2 ?o}", null).getTupleExpr(), EmptyBindingSet.getInstance())) {
+            assertTrue(it.hasNext());
+        }
+        for (int i = 0; i < 100 && source.open.get() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, source.open.get());
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.tools;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat2;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+/**
+ * Apache Hadoop MapReduce tool deleting all statements matching the given pattern by BulkLoading of HBase delete markers
+ * @author Adam Sotona (MSD)
+ */
+public class HalyardBulkDelete implements Tool {
+
+    /**
+     * Property defining optional subject of the deleted statements in N-Triples form
+     */
+    public static final String SUBJECT_PROPERTY = "halyard.delete.subject";
+
+    /**
+     * Property defining optional predicate of the deleted statements in N-Triples form
+     */
+    public static final String PREDICATE_PROPERTY = "halyard.delete.predicate";
+
+    /**
+     * Property defining optional object of the deleted statements in N-Triples form
+     */
+    public static final String OBJECT_PROPERTY = "halyard.delete.object";
+
+    /**
+     * Property defining optional comma-separated list of graph contexts of the deleted statements in N-Triples form
+     */
+    public static final String CONTEXTS_PROPERTY = "halyard.delete.contexts";
+
+    private static final String TIMESTAMP_PROPERTY = "halyard.delete.timestamp";
+    private static final Logger LOG = Logger.getLogger(HalyardBulkDelete.class.getName());
+    private static final int MAX_STATS_DELTAS = 1000;
+
+    private Configuration conf;
+
+    /**
+     * Mapper class transforming each matching Statement into the HBase delete markers of all its KeyValues
+     */
+    static final class DeleteMapper extends TableMapper<ImmutableBytesWritable, KeyValue> {
+
+        private Resource subj;
+        private IRI pred;
+        private Value obj;
+        private List<Resource> contexts;
+        private long timestamp;
+        private long deleted = 0;
+        private final Map<Resource, Map<IRI, long[]>> statsDeltas = new HashMap<>();
+        private int statsDeltasFlushes = 0;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            SimpleValueFactory svf = SimpleValueFactory.getInstance();
+            String s = conf.get(SUBJECT_PROPERTY);
+            subj = s == null ? null : NTriplesUtil.parseResource(s, svf);
+            String p = conf.get(PREDICATE_PROPERTY);
+            pred = p == null ? null : NTriplesUtil.parseURI(p, svf);
+            String o = conf.get(OBJECT_PROPERTY);
+            obj = o == null ? null : NTriplesUtil.parseValue(o, svf);
+            contexts = parseContexts(conf);
+            timestamp = conf.getLong(TIMESTAMP_PROPERTY, System.currentTimeMillis());
+        }
+
+        @Override
+        protected void map(ImmutableBytesWritable key, Result value, Context output) throws IOException, InterruptedException {
+            for (Statement st : HalyardTableUtils.parseStatements(value)) {
+                //scanned rows may contain other statements with conflicting hashes
+                if ((subj == null || subj.equals(st.getSubject())) && (pred == null || pred.equals(st.getPredicate())) && (obj == null || obj.equals(st.getObject())) && (contexts.isEmpty() || contexts.contains(st.getContext()))) {
+                    for (KeyValue kv : HalyardTableUtils.toKeyValues(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext())) {
+                        KeyValue marker = new KeyValue(CellUtil.cloneRow(kv), CellUtil.cloneFamily(kv), CellUtil.cloneQualifier(kv), timestamp, KeyValue.Type.DeleteColumn);
+                        output.write(new ImmutableBytesWritable(marker.getRowArray(), marker.getRowOffset(), marker.getRowLength()), marker);
+                    }
+                    HalyardTableUtils.countStatsDelta(statsDeltas, st.getPredicate(), st.getContext(), -1);
+                    if (statsDeltas.size() > MAX_STATS_DELTAS) {
+                        flushStatsDeltas(output);
+                    }
+                    if ((++deleted % 100000) == 0) {
+                        output.setStatus("deleted: " + deleted);
+                    }
+                }
+            }
+        }
+
+        private void flushStatsDeltas(Context context) throws IOException, InterruptedException {
+            //statistics deltas are loaded together with the delete markers, each flush is identified by the task ID
+            String source = context.getTaskAttemptID().getTaskID().toString() + "_" + (statsDeltasFlushes++);
+            for (Map.Entry<Resource, Map<IRI, long[]>> me : statsDeltas.entrySet()) {
+                for (Map.Entry<IRI, long[]> delta : me.getValue().entrySet()) {
+                    KeyValue keyValue = HalyardTableUtils.toStatsDeltaKeyValue(me.getKey(), delta.getKey(), source, delta.getValue()[0]);
+                    context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
+                }
+            }
+            statsDeltas.clear();
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flushStatsDeltas(context);
+        }
+    }
+
+    private static List<Resource> parseContexts(Configuration conf) {
+        List<Resource> contexts = new ArrayList<>();
+        String ctx[] = conf.getStrings(CONTEXTS_PROPERTY);
+        if (ctx != null) {
+            for (String c : ctx) {
+                contexts.add(NTriplesUtil.parseResource(c.trim(), SimpleValueFactory.getInstance()));
+            }
+        }
+        return contexts;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: bulkdelete [-D" + MRJobConfig.QUEUE_NAME + "=proofofconcepts] [-D" + SUBJECT_PROPERTY + "=\"<http://whatever/subj>\"] [-D" + PREDICATE_PROPERTY + "=\"<http://whatever/pred>\"] [-D" + OBJECT_PROPERTY + "=\"\\\"whatever literal\\\"\"] [-D" + CONTEXTS_PROPERTY + "=\"<http://whatever/graph1>,<http://whatever/graph2>\"] <output_path> <table_name>");
+            return -1;
+        }
+        TableMapReduceUtil.addDependencyJars(getConf(),
+                NTriplesUtil.class,
+                HalyardTableUtils.class);
+        HBaseConfiguration.addHbaseResources(getConf());
+        if (SnappyCodec.isNativeCodeLoaded()) {
+            getConf().setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+            getConf().setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, SnappyCodec.class, CompressionCodec.class);
+        }
+        getConf().setDouble(MRJobConfig.COMPLETED_MAPS_FOR_REDUCE_SLOWSTART, 1.0);
+        getConf().setLong(MRJobConfig.TASK_TIMEOUT, 3600000l);
+        getConf().setInt(LoadIncrementalHFiles.MAX_FILES_PER_REGION_PER_FAMILY, 2048);
+        //statements added after the start of the job are not deleted
+        getConf().setLong(TIMESTAMP_PROPERTY, System.currentTimeMillis());
+        Job job = Job.getInstance(getConf(), "HalyardBulkDelete " + args[1] + " -> " + args[0]);
+        job.setJarByClass(HalyardBulkDelete.class);
+        job.setSpeculativeExecution(false);
+        job.setReduceSpeculativeExecution(false);
+        SimpleValueFactory svf = SimpleValueFactory.getInstance();
+        String s = getConf().get(SUBJECT_PROPERTY);
+        String p = getConf().get(PREDICATE_PROPERTY);
+        String o = getConf().get(OBJECT_PROPERTY);
+        Resource subj = s == null ? null : NTriplesUtil.parseResource(s, svf);
+        IRI pred = p == null ? null : NTriplesUtil.parseURI(p, svf);
+        Value obj = o == null ? null : NTriplesUtil.parseValue(o, svf);
+        List<Resource> contexts = parseContexts(getConf());
+        //the most selective index range is scanned for each context (whole graphs use the CSPO range directly)
+        List<Scan> scans = new ArrayList<>();
+        for (Resource ctx : contexts.isEmpty() ? new Resource[] {null} : contexts.toArray(new Resource[contexts.size()])) {
+            Scan scan = HalyardTableUtils.scan(subj, pred, obj, ctx);
+            scan.setCacheBlocks(false);
+            scan.setAttribute(Scan.SCAN_ATTRIBUTES_TABLE_NAME, args[1].getBytes("UTF-8"));
+            scans.add(scan);
+        }
+        TableMapReduceUtil.initTableMapperJob(scans, DeleteMapper.class, ImmutableBytesWritable.class, KeyValue.class, job);
+        try (HTable hTable = HalyardTableUtils.getTable(getConf(), args[1], false, 0)) {
+            HFileOutputFormat2.configureIncrementalLoad(job, hTable.getTableDescriptor(), hTable.getRegionLocator());
+            FileOutputFormat.setOutputPath(job, new Path(args[0]));
+            TableMapReduceUtil.addDependencyJars(job);
+            TableMapReduceUtil.initCredentials(job);
+            if (job.waitForCompletion(true)) {
+                new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[0]), hTable);
+                //the bulk loaded tombstones invalidate all cached query results
+                HalyardTableUtils.incrementGeneration(hTable);
+                LOG.info("Bulk Delete Completed..");
+                return 0;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    @Override
+    public void setConf(final Configuration c) {
+        this.conf = c;
+    }
+
+    /**
+     * Main of the HalyardBulkDelete
+     * @param args String command line arguments
+     * @throws Exception throws Exception in case of any problem
+     */
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new HalyardBulkDelete(), args));
+    }
+}
@@ -17,14 +17,24 @@
 package com.msd.gin.halyard.tools;
 
 import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.SynchronousQueue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -59,6 +69,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
@@ -70,6 +81,7 @@ import org.eclipse.rdf4j.rio.RDFParserFactory;
 import org.eclipse.rdf4j.rio.RDFParserRegistry;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
 import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
 
 /**
@@ -97,7 +109,16 @@ public class HalyardBulkLoad implements Tool {
      * Property defining default context for triples (or even for quads when context override is set)
      */
     public static final String DEFAULT_CONTEXT_PROPERTY = "halyard.parser.context.default";
+
+    /**
+     * Property defining number of threads parsing N-Triples and N-Quads files within each map task
+     */
+    public static final String PARSER_THREADS_PROPERTY = "halyard.parser.threads";
     private static final Logger LOG = Logger.getLogger(HalyardBulkLoad.class.getName());
+    static final String BNODE_SALT_PROPERTY = "halyard.parser.bnode.salt";
+    private static final int MAX_STATS_DELTAS = 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int CHUNK_SIZE = 1048576;
 
     private Configuration conf;
 
@@ -108,6 +129,8 @@ public class HalyardBulkLoad implements Tool {
 
         private IRI defaultRdfContext;
         private boolean overrideRdfContext;
+        private final Map<Resource, Map<IRI, long[]>> statsDeltas = new HashMap<>();
+        private int statsDeltasFlushes = 0;
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
@@ -126,6 +149,27 @@ public class HalyardBulkLoad implements Tool {
             for (KeyValue keyValue: HalyardTableUtils.toKeyValues(value.getSubject(), value.getPredicate(), value.getObject(), rdfContext)) {
                 context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
             }
+            HalyardTableUtils.countStatsDelta(statsDeltas, value.getPredicate(), rdfContext, 1);
+            if (statsDeltas.size() > MAX_STATS_DELTAS) {
+                flushStatsDeltas(context);
+            }
+        }
+
+        private void flushStatsDeltas(Context context) throws IOException, InterruptedException {
+            //statistics deltas are loaded together with the data, each flush is identified by the task ID
+            String source = context.getTaskAttemptID().getTaskID().toString() + "_" + (statsDeltasFlushes++);
+            for (Map.Entry<Resource, Map<IRI, long[]>> me : statsDeltas.entrySet()) {
+                for (Map.Entry<IRI, long[]> delta : me.getValue().entrySet()) {
+                    KeyValue keyValue = HalyardTableUtils.toStatsDeltaKeyValue(me.getKey(), delta.getKey(), source, delta.getValue()[0]);
+                    context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
+                }
+            }
+            statsDeltas.clear();
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flushStatsDeltas(context);
         }
     }
 
@@ -152,6 +196,8 @@ public class HalyardBulkLoad implements Tool {
         getConf().setInt(MRJobConfig.IO_SORT_MB, 1000);
         getConf().setInt(FileInputFormat.SPLIT_MAXSIZE, 100000000);
         getConf().setInt(LoadIncrementalHFiles.MAX_FILES_PER_REGION_PER_FAMILY, 2048);
+        //blank nodes of each Bulk Load are distinct from the blank nodes of any other load of the same files
+        getConf().set(BNODE_SALT_PROPERTY, UUID.randomUUID().toString());
         Job job = Job.getInstance(getConf(), "HalyardBulkLoad -> " + args[1] + " -> " + args[2]);
         job.setJarByClass(HalyardBulkLoad.class);
         job.setMapperClass(RDFMapper.class);
@@ -169,6 +215,8 @@ public class HalyardBulkLoad implements Tool {
             TableMapReduceUtil.initCredentials(job);
             if (job.waitForCompletion(true)) {
                 new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[1]), hTable);
+                //the bulk loaded data invalidate all cached query results
+                HalyardTableUtils.incrementGeneration(hTable);
                 LOG.info("Bulk Load Completed..");
                 return 0;
             }
@@ -208,7 +256,9 @@ public class HalyardBulkLoad implements Tool {
 
         @Override
         protected boolean isSplitable(JobContext context, Path file) {
-            return false;
+            //only uncompressed line based formats can be parsed from any position in the file
+            Optional<RDFFormat> format = Rio.getParserFormatForFileName(file.getName());
+            return format.isPresent() && isLineBased(format.get()) && new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
         }
 
         @Override
@@ -268,6 +318,7 @@ public class HalyardBulkLoad implements Tool {
                 public void close() throws IOException {
                     if (pump != null) {
                         pump.close();
+                        pump.stop();
                         pump = null;
                     }
                     if (pumpThread != null) {
@@ -279,68 +330,117 @@ public class HalyardBulkLoad implements Tool {
         }
     }
 
-    private static final IRI NOP = SimpleValueFactory.getInstance().createIRI(":");
-    private static final Statement END_STATEMENT = SimpleValueFactory.getInstance().createStatement(NOP, NOP, NOP);
+    private static final List<Statement> END_BATCH = new ArrayList<>();
 
-    private static final class ParserPump extends AbstractRDFHandler implements Closeable, Runnable {
+    /**
+     * Parses the files of a split and hands the statements off to the mapper thread in batches through a bounded ring buffer.
+     * N-Triples and N-Quads files (and their parts from split files) are read as chunks of lines, which are parsed in parallel by the parser threads.
+     * Blank nodes of the line based files are identified by their labels, the file path and the job, so they are consistent across the chunks and the file parts.
+     * All other files are parsed sequentially by the pump thread.
+     */
+    private static final class ParserPump implements Closeable, Runnable {
         private final TaskAttemptContext context;
-        private final Path paths[];
+        private final CombineFileSplit split;
         private final long size;
-        private final SynchronousQueue<Statement> queue = new SynchronousQueue<>();
+        private final ArrayBlockingQueue<List<Statement>> queue;
         private final boolean skipInvalid;
-        private Exception ex = null;
+        private final int threads;
+        private final String bnodeSalt;
+        private final Semaphore chunks;
+        private volatile Exception ex = null;
+        private volatile ExecutorService parsers = null;
         private long finishedSize = 0;
+        private List<Statement> current = null;
+        private int index = 0;
 
         private String baseUri = "";
         private Seekable seek;
+        private long seekStart;
+        private volatile long linesPos = -1;
         private InputStream in;
 
         public ParserPump(CombineFileSplit split, TaskAttemptContext context) {
             this.context = context;
-            this.paths = split.getPaths();
+            this.split = split;
             this.size = split.getLength();
             this.skipInvalid = context.getConfiguration().getBoolean(SKIP_INVALID_PROPERTY, false);
+            this.threads = Math.max(1, context.getConfiguration().getInt(PARSER_THREADS_PROPERTY, 4));
+            this.bnodeSalt = context.getConfiguration().get(BNODE_SALT_PROPERTY, UUID.randomUUID().toString());
+            this.queue = new ArrayBlockingQueue<>(2 * threads);
+            this.chunks = new Semaphore(2 * threads);
         }
 
         public Statement getNext() throws IOException, InterruptedException {
-            Statement s = queue.take();
-            if (ex != null) {
-                throw new IOException("Exception while parsing: " + baseUri, ex);
+            while (current == null || index >= current.size()) {
+                if (current == END_BATCH) {
+                    return null;
+                }
+                current = queue.take();
+                index = 0;
+                if (ex != null) {
+                    throw new IOException("Exception while parsing: " + baseUri, ex);
+                }
             }
-            return s == END_STATEMENT ? null : s;
+            return current.get(index++);
         }
 
         public synchronized float getProgress() throws IOException {
-            return (float)(finishedSize + seek.getPos()) / (float)size;
+            long pos = linesPos;
+            if (pos < 0) {
+                pos = seek == null ? 0 : seek.getPos() - seekStart;
+            }
+            return size == 0 ? 1.0f : (float)(finishedSize + pos) / (float)size;
         }
 
         @Override
         public void run() {
             try {
                 Configuration conf = context.getConfiguration();
-                for (Path file : paths) try {
-                    RDFParser parser;
+                if (threads > 1) {
+                    parsers = Executors.newFixedThreadPool(threads);
+                }
+                for (int i = 0; i < split.getNumPaths(); i++) try {
+                    Path file = split.getPath(i);
+                    RDFFormat format;
+                    boolean lines;
                     synchronized (this) {
                         if (seek != null) {
-                            finishedSize += seek.getPos();
+                            finishedSize += split.getLength(i - 1);
                         }
                         close();
+                        linesPos = -1;
                         this.baseUri = file.toString();
                         context.setStatus("Parsing " + baseUri);
                         FileSystem fs = file.getFileSystem(conf);
                         FSDataInputStream fileIn = fs.open(file);
                         this.seek = fileIn;
+                        this.seekStart = 0;
+                        format = Rio.getParserFormatForFileName(baseUri).get();
                         CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+                        lines = codec == null && isLineBased(format);
                         if (codec != null) {
                             this.in = codec.createInputStream(fileIn, CodecPool.getDecompressor(codec));
                         } else {
                             this.in = fileIn;
                         }
-                        parser = Rio.createParser(Rio.getParserFormatForFileName(baseUri).get());
-                        parser.setRDFHandler(this);
+                        if (lines) {
+                            this.seekStart = split.getOffset(i);
+                            fileIn.seek(seekStart);
+                        }
+                    }
+                    if (lines) {
+                        parseLines(split.getOffset(i), split.getLength(i), file, format);
+                    } else {
+                        RDFParser parser = Rio.createParser(format);
                         parser.setStopAtFirstError(!skipInvalid);
+                        BatchHandler handler = new BatchHandler();
+                        parser.setRDFHandler(handler);
+                        try {
+                            parser.parse(in, baseUri);
+                        } finally {
+                            handler.flush();
+                        }
                     }
-                    parser.parse(in, baseUri);
                 } catch (Exception e) {
                     if (skipInvalid) {
                         LOG.log(Level.WARNING, "Exception while parsing RDF", e);
@@ -348,21 +448,132 @@ public class HalyardBulkLoad implements Tool {
                         throw e;
                     }
                 }
+                if (parsers != null) {
+                    parsers.shutdown();
+                    parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+                }
             } catch (Exception e) {
-                ex = e;
+                if (ex == null) {
+                    ex = e;
+                }
             } finally {
                 try {
-                    queue.put(END_STATEMENT);
+                    queue.put(END_BATCH);
                 } catch (InterruptedException ignore) {}
             }
         }
 
-        @Override
-        public void handleStatement(Statement st) throws RDFHandlerException {
+        /**
+         * Reads all the lines starting within the given part of the file and passes them in chunks to the parsers.
+         * The first line is skipped unless the part starts at the beginning of the file, because it belongs to the previous part.
+         */
+        private void parseLines(long start, long length, Path file, final RDFFormat format) throws Exception {
+            long end = start + length;
+            long pos = start;
+            byte[] buf = new byte[65536];
+            int bufPos = 0, bufLen = 0;
+            boolean skip = start != 0, lineStart = true;
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE + buf.length);
+            while (ex == null) {
+                if (bufPos == bufLen) {
+                    bufLen = in.read(buf);
+                    bufPos = 0;
+                    if (bufLen <= 0) {
+                        break;
+                    }
+                }
+                if (lineStart) {
+                    if (pos > end) {
+                        break;
+                    }
+                    lineStart = false;
+                }
+                int stop = bufPos;
+                while (stop < bufLen && buf[stop] != '\n' && buf[stop] != '\r') {
+                    stop++;
+                }
+                if (stop < bufLen) {
+                    stop++;
+                    lineStart = true;
+                }
+                if (!skip) {
+                    chunk.write(buf, bufPos, stop - bufPos);
+                }
+                pos += stop - bufPos;
+                bufPos = stop;
+                if (lineStart) {
+                    skip = false;
+                    if (chunk.size() >= CHUNK_SIZE) {
+                        parseChunk(chunk.toByteArray(), file, format);
+                        chunk.reset();
+                        linesPos = pos - start;
+                    }
+                }
+            }
+            if (chunk.size() > 0) {
+                parseChunk(chunk.toByteArray(), file, format);
+            }
+            linesPos = length;
+        }
+
+        private void parseChunk(final byte[] chunk, final Path file, final RDFFormat format) throws Exception {
+            if (parsers == null) {
+                parse(chunk, file, format);
+            } else {
+                chunks.acquire();
+                parsers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            parse(chunk, file, format);
+                        } catch (Exception e) {
+                            if (skipInvalid) {
+                                LOG.log(Level.WARNING, "Exception while parsing RDF", e);
+                            } else if (ex == null) {
+                                ex = e;
+                            }
+                        } finally {
+                            chunks.release();
+                        }
+                    }
+                });
+            }
+        }
+
+        private void parse(byte[] chunk, Path file, RDFFormat format) throws Exception {
+            RDFParser parser = Rio.createParser(format, new FileBNodeValueFactory(bnodeSalt, file));
+            parser.setStopAtFirstError(!skipInvalid);
+            parser.getParserConfig().set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+            BatchHandler handler = new BatchHandler();
+            parser.setRDFHandler(handler);
             try {
-                queue.put(st);
-            } catch (InterruptedException e) {
-                throw new RDFHandlerException(e);
+                parser.parse(new ByteArrayInputStream(chunk), file.toString());
+            } finally {
+                handler.flush();
+            }
+        }
+
+        /**
+         * Collects the parsed statements into batches and puts the full batches into the ring buffer
+         */
+        private final class BatchHandler extends AbstractRDFHandler {
+            private List<Statement> batch = new ArrayList<>(BATCH_SIZE);
+
+            @Override
+            public void handleStatement(Statement st) throws RDFHandlerException {
+                batch.add(st);
+                if (batch.size() >= BATCH_SIZE) try {
+                    flush();
+                } catch (InterruptedException e) {
+                    throw new RDFHandlerException(e);
+                }
+            }
+
+            void flush() throws InterruptedException {
+                if (!batch.isEmpty()) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
             }
         }
 
@@ -373,6 +584,34 @@ public class HalyardBulkLoad implements Tool {
                 in = null;
             }
         }
+
+        void stop() {
+            ExecutorService p = parsers;
+            if (p != null) {
+                p.shutdownNow();
+            }
+        }
+    }
+
+    static boolean isLineBased(RDFFormat format) {
+        return RDFFormat.NTRIPLES.equals(format) || RDFFormat.NQUADS.equals(format);
+    }
+
+    /**
+     * ValueFactory creating blank nodes unique to the file and the job, so the same blank node label always means the same blank node within the file
+     * and the repeated loads of the same file never share blank nodes
+     */
+    private static final class FileBNodeValueFactory extends SimpleValueFactory {
+        private final String prefix;
+
+        FileBNodeValueFactory(String salt, Path file) {
+            this.prefix = "genid-" + UUID.nameUUIDFromBytes((salt + file.toString()).getBytes(StandardCharsets.UTF_8)) + "-";
+        }
+
+        @Override
+        public BNode createBNode(String nodeID) {
+            return super.createBNode(prefix + nodeID);
+        }
     }
 
     @Override
@@ -237,6 +237,8 @@ public class HalyardBulkUpdate implements Tool {
             TableMapReduceUtil.initCredentials(job);
             if (job.waitForCompletion(true)) {
                 new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[1]), hTable);
+                //the bulk loaded data invalidate all cached query results
+                HalyardTableUtils.incrementGeneration(hTable);
                 LOG.info("Bulk Update Completed..");
                 return 0;
             }
@@ -161,6 +161,8 @@ public class HalyardHiveLoad implements Tool {
             TableMapReduceUtil.initCredentials(job);
             if (job.waitForCompletion(true)) {
                 new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[1]), hTable);
+                //the bulk loaded data invalidate all cached query results
+                HalyardTableUtils.incrementGeneration(hTable);
                 LOG.info("Bulk Load Completed..");
                 return 0;
             }
@@ -21,10 +21,6 @@ import com.msd.gin.halyard.sail.HALYARD;
 import com.msd.gin.halyard.sail.HBaseSail;
 import com.msd.gin.halyard.sail.VOID_EXT;
 import com.msd.gin.halyard.tools.HalyardExport.ExportException;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -32,11 +28,19 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.WeakHashMap;
 import java.util.logging.Logger;
 import org.apache.commons.cli.CommandLine;
@@ -50,13 +54,23 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.RowFilter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.protobuf.generated.AuthenticationProtos;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
@@ -70,20 +84,25 @@ import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.htrace.Trace;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.SD;
 import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFParser;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
 import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+import org.eclipse.rdf4j.sail.SailException;
 
 /**
  * MapReduce tool providing statistics about Halyard dataset
@@ -94,26 +113,107 @@ public class HalyardStats implements Tool {
     private static final String SOURCE = "halyard.stats.source";
     private static final String TARGET = "halyard.stats.target";
     static final String SUBSET_THRESHOLD = "halyard.stats.subset.threshold";
+    static final String CHARACTERISTIC_SET_MAX_SIZE = "halyard.stats.charset.maxsize";
+    static final String CHARACTERISTIC_SETS_TOP = "halyard.stats.charset.top";
     private static final String GRAPH_CONTEXT = "halyard.stats.graph.context";
+    private static final String SAMPLE_RATE = "halyard.stats.sample.rate";
 
     private static final Logger LOG = Logger.getLogger(HalyardStats.class.getName());
     private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final byte[] TYPE_HASH = HalyardTableUtils.hashKey(NTriplesUtil.toNTriplesString(RDF.TYPE).getBytes(UTF8));
+    private static final int MAX_CHARACTERISTIC_SETS = 10000;
+    private static final int MOST_COMMON_VALUES = 10;
+    private static final int HISTOGRAM_SAMPLE = 1000;
+    private static final int HISTOGRAM_BUCKETS = 20;
+    private static final int MAX_AGGREGATED_KEYS = 10000;
+
+    //reported properties are encoded in the keys by their index
+    private static final IRI[] REPORTED_PROPERTIES = new IRI[] {
+        VOID.TRIPLES, VOID.DISTINCT_SUBJECTS, VOID.PROPERTIES, VOID.DISTINCT_OBJECTS, VOID.CLASSES,
+        VOID_EXT.DISTINCT_IRI_REFERENCE_OBJECTS, VOID_EXT.DISTINCT_IRI_REFERENCE_SUBJECTS, VOID_EXT.DISTINCT_BLANK_NODE_OBJECTS,
+        VOID_EXT.DISTINCT_BLANK_NODE_SUBJECTS, VOID_EXT.DISTINCT_LITERALS, VOID_EXT.SUBJECT, VOID.PROPERTY, VOID_EXT.OBJECT,
+        HALYARD.CHARACTERISTIC_SET, HALYARD.MOST_COMMON_VALUES, HALYARD.HISTOGRAM};
+    private static final Map<IRI, Byte> REPORTED_PROPERTY_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < REPORTED_PROPERTIES.length; i++) {
+            REPORTED_PROPERTY_INDEX.put(REPORTED_PROPERTIES[i], (byte)i);
+        }
+    }
 
     static final SimpleValueFactory SVF = SimpleValueFactory.getInstance();
 
     private Configuration conf;
 
+    /**
+     * Converts numeric and date/time literals to a comparable double value.
+     * @param ntriples value in N-Triples form
+     * @return the double value or NaN for all other values
+     */
+    static double numericValue(String ntriples) {
+        if (ntriples.startsWith("\"") && ntriples.contains("^^<" + XMLSchema.NAMESPACE)) try {
+            Literal l = NTriplesUtil.parseLiteral(ntriples, SVF);
+            if (XMLDatatypeUtil.isNumericDatatype(l.getDatatype())) {
+                return l.doubleValue();
+            } else if (XMLDatatypeUtil.isCalendarDatatype(l.getDatatype())) {
+                return l.calendarValue().toGregorianCalendar().getTimeInMillis();
+            }
+        } catch (IllegalArgumentException ignore) {
+            //invalid literals are not included in the histograms
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Composes the compact binary key of a reported counter.
+     * The key consists of the graph IRI length (2 bytes), the graph IRI, the reported property index (1 byte)
+     * and the optional partition identifier filling the rest of the key.
+     * @param graph byte array of UTF-8 encoded graph IRI
+     * @param property reported property IRI
+     * @param partitionId optional partition identifier, may be null
+     * @return byte array of the key
+     */
+    static byte[] statsKey(byte[] graph, IRI property, String partitionId) {
+        byte pb[] = partitionId == null ? new byte[0] : partitionId.getBytes(UTF8);
+        byte key[] = new byte[graph.length + pb.length + 3];
+        key[0] = (byte)(graph.length >>> 8);
+        key[1] = (byte)graph.length;
+        System.arraycopy(graph, 0, key, 2, graph.length);
+        key[graph.length + 2] = REPORTED_PROPERTY_INDEX.get(property);
+        System.arraycopy(pb, 0, key, graph.length + 3, pb.length);
+        return key;
+    }
+
+    /**
+     * Creates filter sampling the given number of 256 buckets of the subject or object hashes.
+     * SPO and CSPO indices are sampled by subjects, other indices by objects, so each sampled subject
+     * or object is scanned completely in the index.
+     * @param buckets number of sampled buckets (1 - 255)
+     * @return RowFilter
+     */
+    static RowFilter sampleFilter(int buckets) {
+        //positions of the sampled hash in SPO, POS, OSP, CSPO, CPOS and COSP keys
+        int positions[] = new int[] {1, 21, 1, 21, 41, 21};
+        StringBuilder regex = new StringBuilder("(?s)^(?:");
+        for (int prefix = HalyardTableUtils.SPO_PREFIX; prefix <= HalyardTableUtils.COSP_PREFIX; prefix++) {
+            if (prefix > HalyardTableUtils.SPO_PREFIX) regex.append('|');
+            regex.append(String.format("\\x%02x.{%d}[\\x00-\\x%02x]", prefix, positions[prefix] - 1, buckets - 1));
+        }
+        RegexStringComparator comparator = new RegexStringComparator(regex.append(')').toString());
+        //ISO-8859-1 maps the key bytes to characters one to one
+        comparator.setCharset(Charset.forName("ISO-8859-1"));
+        return new RowFilter(CompareFilter.CompareOp.EQUAL, comparator);
+    }
+
     static final class StatsMapper extends TableMapper<ImmutableBytesWritable, LongWritable>  {
 
         final SimpleValueFactory ssf = SimpleValueFactory.getInstance();
 
-        final byte[] lastKeyFragment = new byte[20], lastCtxFragment = new byte[20], lastClassFragment = new byte[20];
+        final byte[] lastKeyFragment = new byte[20], lastCtxFragment = new byte[20], lastObjectFragment = new byte[20], lastPredicateFragment = new byte[20];
         IRI statsContext;
         byte[] statsContextHash;
         byte lastRegion = -1;
         long counter = 0;
-        boolean update;
+        boolean update, sampled;
 
         IRI graph = HALYARD.STATS_ROOT_NODE;
         long triples, distinctSubjects, properties, distinctObjects, classes, removed;
@@ -121,17 +221,46 @@ public class HalyardStats implements Tool {
         IRI subsetType;
         String subsetId;
         long subsetThreshold, subsetCounter;
+        int characteristicSetMaxSize;
+        final List<String> subjectPredicates = new ArrayList<>();
+        final List<Long> subjectPredicateTriples = new ArrayList<>();
+        final Map<String, long[]> characteristicSets = new HashMap<>();
+        final Map<String, long[]> propertySubjects = new HashMap<>();
+        String objectValue;
+        long objectTriples, propertyObjects, numericObjects;
+        final PriorityQueue<Map.Entry<String, Long>> mostCommonValues = new PriorityQueue<>(MOST_COMMON_VALUES + 1, Map.Entry.comparingByValue());
+        final double histogramValues[] = new double[HISTOGRAM_SAMPLE];
+        final long histogramTriples[] = new long[HISTOGRAM_SAMPLE];
+        final Random random = new Random(0);
+        final Map<ImmutableBytesWritable, long[]> aggregatedCounters = new HashMap<>();
+        final LongWritable outputValue = new LongWritable();
+        IRI keyGraph;
+        byte[] keyGraphBytes;
         HBaseSail sail;
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
             Configuration conf = context.getConfiguration();
             update = conf.get(TARGET) == null;
+            sampled = conf.get(SAMPLE_RATE) != null;
             subsetThreshold = conf.getLong(SUBSET_THRESHOLD, 1000);
+            characteristicSetMaxSize = conf.getInt(CHARACTERISTIC_SET_MAX_SIZE, 100);
             statsContext = ssf.createIRI(conf.get(GRAPH_CONTEXT, HALYARD.STATS_GRAPH_CONTEXT.stringValue()));
             statsContextHash = HalyardTableUtils.hashKey(NTriplesUtil.toNTriplesString(statsContext).getBytes(UTF8));
         }
 
+        private static String qualifierPart(Result value, int part) {
+            Cell c = value.rawCells()[0];
+            ByteBuffer bb = ByteBuffer.wrap(c.getQualifierArray(), c.getQualifierOffset(), c.getQualifierLength());
+            int len[] = new int[]{bb.getInt(), bb.getInt(), bb.getInt()};
+            for (int i = 0; i < part; i++) {
+                bb.position(bb.position() + len[i]);
+            }
+            byte b[] = new byte[len[part]];
+            bb.get(b);
+            return new String(b, UTF8);
+        }
+
         private boolean matchAndCopyKey(byte[] source, int offset, byte[] target) {
             boolean match = true;
             for (int i=0; i<20; i++) {
@@ -151,12 +280,15 @@ public class HalyardStats implements Tool {
                 output.setStatus(MessageFormat.format("reg:{0} {1} t:{2} s:{3} p:{4} o:{5} c:{6} r:{7}", region, counter, triples, distinctSubjects, properties, distinctObjects, classes, removed));
             }
             int hashShift;
+            boolean contextChange = false;
             if (region < HalyardTableUtils.CSPO_PREFIX) {
                 hashShift = 1;
             } else {
                 hashShift = 21;
                 if (!matchAndCopyKey(key.get(), key.getOffset() + 1, lastCtxFragment) || region != lastRegion) {
                     cleanup(output);
+                    //the new graph may start with the same subject, property or object the previous graph ended with
+                    contextChange = true;
                     Cell c[] = value.rawCells();
                     ByteBuffer bb = ByteBuffer.wrap(c[0].getQualifierArray(), c[0].getQualifierOffset(), c[0].getQualifierLength());
                     int skip = bb.getInt() + bb.getInt() + bb.getInt();
@@ -167,6 +299,9 @@ public class HalyardStats implements Tool {
                 }
                 if (update && region == HalyardTableUtils.CSPO_PREFIX) {
                     if (Arrays.equals(statsContextHash, lastCtxFragment)) {
+                        if (sampled) {
+                            return; //sampled scan would not remove the old statistics completely, they are cleared after the job
+                        }
                         if (sail == null) {
                             Configuration conf = output.getConfiguration();
                             sail = new HBaseSail(conf, conf.get(SOURCE), false, 0, true, 0, null);
@@ -182,11 +317,11 @@ public class HalyardStats implements Tool {
                     }
                 } else if (sail != null) {
                     sail.commit();
-                    sail.close();
+                    sail.shutDown();
                     sail = null;
                 }
             }
-            boolean hashChange = !matchAndCopyKey(key.get(), key.getOffset() + hashShift, lastKeyFragment) || region != lastRegion;
+            boolean hashChange = !matchAndCopyKey(key.get(), key.getOffset() + hashShift, lastKeyFragment) || region != lastRegion || contextChange;
             if (hashChange) {
                 cleanupSubset(output);
                 Cell c = value.rawCells()[0];
@@ -235,12 +370,24 @@ public class HalyardStats implements Tool {
                 case HalyardTableUtils.SPO_PREFIX:
                 case HalyardTableUtils.CSPO_PREFIX:
                     triples += value.rawCells().length;
+                    if (!matchAndCopyKey(key.get(), key.getOffset() + hashShift + 20, lastPredicateFragment) || hashChange) {
+                        subjectPredicates.add(qualifierPart(value, 1));
+                        subjectPredicateTriples.add(0l);
+                    }
+                    int last = subjectPredicateTriples.size() - 1;
+                    subjectPredicateTriples.set(last, subjectPredicateTriples.get(last) + value.rawCells().length);
                     break;
                 case HalyardTableUtils.POS_PREFIX:
                 case HalyardTableUtils.CPOS_PREFIX:
-                    if (Arrays.equals(TYPE_HASH, lastKeyFragment) && (!matchAndCopyKey(key.get(), key.getOffset() + hashShift + 20, lastClassFragment) || hashChange)) {
+                    if (!matchAndCopyKey(key.get(), key.getOffset() + hashShift + 20, lastObjectFragment) || hashChange) {
+                        cleanupObject();
+                        objectValue = qualifierPart(value, 2);
+                        propertyObjects++;
+                        if (Arrays.equals(TYPE_HASH, lastKeyFragment)) {
                             classes++;
+                        }
                     }
+                    objectTriples += value.rawCells().length;
                     break;
             }
             subsetCounter += value.rawCells().length;
@@ -248,26 +395,120 @@ public class HalyardStats implements Tool {
         }
 
         private void report(Context output, IRI property, String partitionId, long value) throws IOException, InterruptedException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try (DataOutputStream dos = new DataOutputStream(baos)) {
-                dos.writeUTF(graph.stringValue());
-                dos.writeUTF(property.stringValue());
-                if (partitionId == null) {
-                    dos.writeInt(0);
-                } else {
-                    byte b[] = partitionId.getBytes(UTF8);
-                    dos.writeInt(b.length);
-                    dos.write(b);
+            if (keyGraph != graph) {
+                keyGraph = graph;
+                keyGraphBytes = graph.stringValue().getBytes(UTF8);
+            }
+            //counters are aggregated in memory and emitted once the map is full
+            ImmutableBytesWritable key = new ImmutableBytesWritable(statsKey(keyGraphBytes, property, partitionId));
+            long[] counter = aggregatedCounters.get(key);
+            if (counter == null) {
+                if (aggregatedCounters.size() >= MAX_AGGREGATED_KEYS) {
+                    flushAggregatedCounters(output);
                 }
+                aggregatedCounters.put(key, new long[]{value});
+            } else {
+                counter[0] += value;
             }
-            output.write(new ImmutableBytesWritable(baos.toByteArray()), new LongWritable(value));
+        }
+
+        private void flushAggregatedCounters(Context output) throws IOException, InterruptedException {
+            for (Map.Entry<ImmutableBytesWritable, long[]> me : aggregatedCounters.entrySet()) {
+                outputValue.set(me.getValue()[0]);
+                output.write(me.getKey(), outputValue);
+            }
+            aggregatedCounters.clear();
         }
 
         protected void cleanupSubset(Context output) throws IOException, InterruptedException {
-            if (subsetCounter >= subsetThreshold) {
+            //property partitions are always reported as they carry the per-property statistics
+            if (subsetCounter >= subsetThreshold || (subsetCounter > 0 && subsetType == VOID.PROPERTY)) {
                 report(output, subsetType, subsetId, subsetCounter);
             }
             subsetCounter = 0;
+            if (objectValue != null) {
+                cleanupObject();
+                report(output, VOID.DISTINCT_OBJECTS, subsetId, propertyObjects);
+                for (Map.Entry<String, Long> mcv : mostCommonValues) {
+                    if (mcv.getValue() > 1) {
+                        report(output, HALYARD.MOST_COMMON_VALUES, subsetId + "\n" + mcv.getKey(), mcv.getValue());
+                    }
+                }
+                //each sampled value represents its share of all numeric objects of the property
+                int sampled = (int)Math.min(numericObjects, HISTOGRAM_SAMPLE);
+                for (int i = 0; i < sampled; i++) {
+                    report(output, HALYARD.HISTOGRAM, subsetId + "\n" + histogramValues[i], Math.max(1, Math.round((double)histogramTriples[i] * numericObjects / sampled)));
+                }
+                propertyObjects = 0;
+                numericObjects = 0;
+                mostCommonValues.clear();
+            }
+            if (!subjectPredicates.isEmpty()) {
+                //characteristic set is identified by the ordered list of all predicates of the subject
+                if (subjectPredicates.size() <= characteristicSetMaxSize) {
+                    String characteristicSet = String.join(" ", subjectPredicates);
+                    long[] counts = characteristicSets.get(characteristicSet);
+                    if (counts == null) {
+                        counts = new long[subjectPredicates.size() + 1];
+                        characteristicSets.put(characteristicSet, counts);
+                    }
+                    counts[0]++;
+                    for (int i = 0; i < subjectPredicateTriples.size(); i++) {
+                        counts[i + 1] += subjectPredicateTriples.get(i);
+                    }
+                }
+                for (String predicate : subjectPredicates) {
+                    long[] counts = propertySubjects.get(predicate);
+                    if (counts == null) {
+                        counts = new long[1];
+                        propertySubjects.put(predicate, counts);
+                    }
+                    counts[0]++;
+                }
+                subjectPredicates.clear();
+                subjectPredicateTriples.clear();
+                if (characteristicSets.size() > MAX_CHARACTERISTIC_SETS || propertySubjects.size() > MAX_CHARACTERISTIC_SETS) {
+                    cleanupCharacteristicSets(output);
+                }
+            }
+        }
+
+        private void cleanupObject() {
+            if (objectValue != null) {
+                mostCommonValues.add(new AbstractMap.SimpleEntry<>(objectValue, objectTriples));
+                if (mostCommonValues.size() > MOST_COMMON_VALUES) {
+                    mostCommonValues.poll();
+                }
+                double numeric = numericValue(objectValue);
+                if (!Double.isNaN(numeric)) {
+                    //reservoir sampling of the distinct numeric values
+                    long i = numericObjects < HISTOGRAM_SAMPLE ? numericObjects : (long)(random.nextDouble() * (numericObjects + 1));
+                    if (i < HISTOGRAM_SAMPLE) {
+                        histogramValues[(int)i] = numeric;
+                        histogramTriples[(int)i] = objectTriples;
+                    }
+                    numericObjects++;
+                }
+                objectValue = null;
+                objectTriples = 0;
+            }
+        }
+
+        protected void cleanupCharacteristicSets(Context output) throws IOException, InterruptedException {
+            for (Map.Entry<String, long[]> me : characteristicSets.entrySet()) {
+                String characteristicSet = me.getKey();
+                long[] counts = me.getValue();
+                report(output, HALYARD.CHARACTERISTIC_SET, characteristicSet, counts[0]);
+                String predicates[] = characteristicSet.split(" ");
+                for (int i = 0; i < predicates.length; i++) {
+                    report(output, HALYARD.CHARACTERISTIC_SET, characteristicSet + "\n" + predicates[i], counts[i + 1]);
+                }
+            }
+            characteristicSets.clear();
+            for (Map.Entry<String, long[]> me : propertySubjects.entrySet()) {
+                report(output, VOID.DISTINCT_SUBJECTS, me.getKey(), me.getValue()[0]);
+            }
+            propertySubjects.clear();
         }
 
         @Override
@@ -293,23 +534,45 @@ public class HalyardStats implements Tool {
             report(output, VOID_EXT.DISTINCT_LITERALS, null, distinctLiterals);
             distinctLiterals = 0;
             cleanupSubset(output);
+            cleanupCharacteristicSets(output);
+            flushAggregatedCounters(output);
             if (sail != null) {
                 sail.commit();
-                sail.close();
+                sail.shutDown();
                 sail = null;
             }
         }
 
     }
 
+    static final class StatsCombiner extends Reducer<ImmutableBytesWritable, LongWritable, ImmutableBytesWritable, LongWritable> {
+
+        final LongWritable outputValue = new LongWritable();
+
+        @Override
+        public void reduce(ImmutableBytesWritable key, Iterable<LongWritable> values, Context context) throws IOException, InterruptedException {
+            long count = 0;
+            for (LongWritable val : values) {
+                count += val.get();
+            }
+            outputValue.set(count);
+            context.write(key, outputValue);
+        }
+    }
+
     static class StatsPartitioner extends Partitioner<ImmutableBytesWritable, LongWritable> {
         @Override
         public int getPartition(ImmutableBytesWritable key, LongWritable value, int numPartitions) {
-            try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(key.get(), key.getOffset(), key.getLength()))) {
-                return (dis.readUTF().hashCode() & Integer.MAX_VALUE) % numPartitions;
-            } catch (IOException e) {
-                throw new IllegalArgumentException(e);
+            //the keys are spread by the partition identifier, so even a single huge graph is distributed to all reducers
+            //only the part up to the first new line is used, so all values aggregated per property meet at the same reducer
+            byte b[] = key.get();
+            int offset = key.getOffset();
+            int end = offset + key.getLength();
+            int length = 3 + (((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff));
+            while (offset + length < end && b[offset + length] != '\n') {
+                length++;
             }
+            return (Bytes.hashCode(b, offset, length) & Integer.MAX_VALUE) % numPartitions;
         }
     }
 
@@ -323,11 +586,21 @@ public class HalyardStats implements Tool {
         IRI statsGraphContext;
         HBaseSail sail;
         long removed = 0, added = 0;
+        double sampleRate;
+        String aggregatedGraph, aggregatedProperty;
+        final Map<String, Map<String, Long>> aggregatedValues = new TreeMap<>();
+        int characteristicSetsTop;
+        String characteristicSet;
+        long characteristicSetSubjects;
+        final StringBuilder characteristicSetProperties = new StringBuilder();
+        final PriorityQueue<Map.Entry<Long, String>> topCharacteristicSets = new PriorityQueue<>(Map.Entry.comparingByKey());
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
             Configuration conf = context.getConfiguration();
             statsGraphContext = SVF.createIRI(conf.get(GRAPH_CONTEXT, HALYARD.STATS_GRAPH_CONTEXT.stringValue()));
+            sampleRate = conf.getDouble(SAMPLE_RATE, 1.0);
+            characteristicSetsTop = conf.getInt(CHARACTERISTIC_SETS_TOP, 1000);
             String targetUrl = conf.get(TARGET);
             if (targetUrl == null) {
                 sail = new HBaseSail(conf, conf.get(SOURCE), false, 0, true, 0, null);
@@ -372,14 +645,15 @@ public class HalyardStats implements Tool {
             for (LongWritable val : values) {
                     count += val.get();
             }
-            String graph;
-            String predicate;
-            byte partitionId[];
-            try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(key.get(), key.getOffset(), key.getLength()))) {
-                graph = dis.readUTF();
-                predicate = dis.readUTF();
-                partitionId = new byte[dis.readInt()];
-                dis.readFully(partitionId);
+            byte b[] = key.get();
+            int offset = key.getOffset();
+            int graphLength = ((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff);
+            String graph = new String(b, offset + 2, graphLength, UTF8);
+            String predicate = REPORTED_PROPERTIES[b[offset + graphLength + 2]].stringValue();
+            byte partitionId[] = Arrays.copyOfRange(b, offset + graphLength + 3, offset + key.getLength());
+            long sampled = count;
+            if (sampleRate < 1.0 && isExtrapolated(predicate, partitionId)) {
+                count = Math.round(count / sampleRate);
             }
             IRI graphNode;
             if (graph.equals(HALYARD.STATS_ROOT_NODE.stringValue())) {
@@ -395,7 +669,36 @@ public class HalyardStats implements Tool {
                     writeStatement(graphNode, RDF.TYPE, VOID.DATASET);
                 }
             }
-            if (partitionId.length > 0) {
+            if (!graph.equals(aggregatedGraph) || !predicate.equals(aggregatedProperty)) {
+                writeAggregatedValues();
+                writeCharacteristicSets();
+                aggregatedGraph = graph;
+                aggregatedProperty = predicate;
+            }
+            if (partitionId.length > 0 && (HALYARD.MOST_COMMON_VALUES.stringValue().equals(predicate) || HALYARD.HISTOGRAM.stringValue().equals(predicate))) {
+                //values of each property are collected and written once complete
+                String value = new String(partitionId, UTF8);
+                int i = value.indexOf('\n');
+                Map<String, Long> propertyValues = aggregatedValues.get(value.substring(0, i));
+                if (propertyValues == null) {
+                    propertyValues = new HashMap<>();
+                    aggregatedValues.put(value.substring(0, i), propertyValues);
+                }
+                propertyValues.put(value.substring(i + 1), count);
+            } else if (partitionId.length > 0 && (VOID.DISTINCT_SUBJECTS.stringValue().equals(predicate) || VOID.DISTINCT_OBJECTS.stringValue().equals(predicate))) {
+                writeStatement(propertyNode(graph, new String(partitionId, UTF8)), SVF.createIRI(predicate), SVF.createLiteral(count));
+            } else if (partitionId.length > 0 && HALYARD.CHARACTERISTIC_SET.stringValue().equals(predicate)) {
+                //the set and its property triples counts are partitioned together and sorted right after each other
+                String value = new String(partitionId, UTF8);
+                int i = value.indexOf('\n');
+                if (i < 0) {
+                    addCharacteristicSet();
+                    characteristicSet = value;
+                    characteristicSetSubjects = count;
+                } else if (value.substring(0, i).equals(characteristicSet)) {
+                    characteristicSetProperties.append('\n').append(count).append(' ').append(value.substring(i + 1));
+                }
+            } else if (partitionId.length > 0) {
                 IRI pred = SVF.createIRI(predicate);
                 IRI subset = SVF.createIRI(graph + "_" + pred.getLocalName() + "_" + ENC.encodeToString(HalyardTableUtils.hashKey(partitionId)));
                 writeStatement(graphNode, SVF.createIRI(predicate + "Partition"), subset);
@@ -403,6 +706,10 @@ public class HalyardStats implements Tool {
                 writeStatement(subset, pred, NTriplesUtil.parseValue(new String(partitionId, UTF8), SVF));
                 writeStatement(subset, VOID.TRIPLES, SVF.createLiteral(count));
             } else {
+                if (sampleRate < 1.0 && VOID.TRIPLES.stringValue().equals(predicate)) {
+                    writeStatement(graphNode, HALYARD.SAMPLE_RATE, SVF.createLiteral(sampleRate));
+                    writeStatement(graphNode, HALYARD.TRIPLES_ERROR_BOUND, SVF.createLiteral(Math.round(1.96 * Math.sqrt(sampled * (1.0 - sampleRate)) / sampleRate)));
+                }
                 writeStatement(graphNode, SVF.createIRI(predicate), SVF.createLiteral(count));
             }
             if ((added % 1000) == 0) {
@@ -410,6 +717,85 @@ public class HalyardStats implements Tool {
             }
 	}
 
+        /**
+         * Sampled subjects and objects are scanned completely, so their own subsets, the most common values
+         * and the number of properties are not extrapolated.
+         */
+        private static boolean isExtrapolated(String predicate, byte[] partitionId) {
+            if (partitionId.length == 0) {
+                return !VOID.PROPERTIES.stringValue().equals(predicate);
+            }
+            return !VOID_EXT.SUBJECT.stringValue().equals(predicate) && !VOID_EXT.OBJECT.stringValue().equals(predicate) && !HALYARD.MOST_COMMON_VALUES.stringValue().equals(predicate);
+        }
+
+        private void writeAggregatedValues() {
+            for (Map.Entry<String, Map<String, Long>> me : aggregatedValues.entrySet()) {
+                IRI subset = propertyNode(aggregatedGraph, me.getKey());
+                if (HALYARD.MOST_COMMON_VALUES.stringValue().equals(aggregatedProperty)) {
+                    List<Map.Entry<String, Long>> mcvs = new ArrayList<>(me.getValue().entrySet());
+                    mcvs.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < mcvs.size() && i < MOST_COMMON_VALUES; i++) {
+                        if (i > 0) sb.append('\n');
+                        sb.append(mcvs.get(i).getValue()).append(' ').append(mcvs.get(i).getKey());
+                    }
+                    writeStatement(subset, HALYARD.MOST_COMMON_VALUES, SVF.createLiteral(sb.toString()));
+                } else {
+                    //equi-depth histogram boundaries calculated from the weighted samples
+                    TreeMap<Double, Long> samples = new TreeMap<>();
+                    long total = 0;
+                    for (Map.Entry<String, Long> sample : me.getValue().entrySet()) {
+                        samples.merge(Double.valueOf(sample.getKey()), sample.getValue(), Long::sum);
+                        total += sample.getValue();
+                    }
+                    StringBuilder sb = new StringBuilder().append(samples.firstKey());
+                    long cumulative = 0;
+                    int bucket = 1;
+                    for (Map.Entry<Double, Long> sample : samples.entrySet()) {
+                        cumulative += sample.getValue();
+                        while (bucket < HISTOGRAM_BUCKETS && cumulative * HISTOGRAM_BUCKETS >= bucket * total) {
+                            sb.append(' ').append(sample.getKey());
+                            bucket++;
+                        }
+                    }
+                    sb.append(' ').append(samples.lastKey());
+                    writeStatement(subset, HALYARD.HISTOGRAM, SVF.createLiteral(sb.toString()));
+                    writeStatement(subset, HALYARD.HISTOGRAM_TRIPLES, SVF.createLiteral(total));
+                }
+            }
+            aggregatedValues.clear();
+        }
+
+        static IRI propertyNode(String graph, String property) {
+            return SVF.createIRI(graph + "_" + VOID.PROPERTY.getLocalName() + "_" + ENC.encodeToString(HalyardTableUtils.hashKey(property.getBytes(UTF8))));
+        }
+
+        private void addCharacteristicSet() {
+            if (characteristicSet != null) {
+                topCharacteristicSets.add(new AbstractMap.SimpleImmutableEntry<>(characteristicSetSubjects, characteristicSetSubjects + characteristicSetProperties.toString()));
+                if (topCharacteristicSets.size() > characteristicSetsTop) {
+                    topCharacteristicSets.poll();
+                }
+                characteristicSet = null;
+                characteristicSetProperties.setLength(0);
+            }
+        }
+
+        /**
+         * Only the characteristic sets with the most subjects are kept, each written as a single literal
+         * with the distinct subjects count on the first line followed by the triples count and N-Triples form of each property.
+         */
+        private void writeCharacteristicSets() {
+            addCharacteristicSet();
+            if (!topCharacteristicSets.isEmpty()) {
+                IRI graphNode = aggregatedGraph.equals(HALYARD.STATS_ROOT_NODE.stringValue()) ? HALYARD.STATS_ROOT_NODE : SVF.createIRI(aggregatedGraph);
+                for (Map.Entry<Long, String> cs : topCharacteristicSets) {
+                    writeStatement(graphNode, HALYARD.CHARACTERISTIC_SET, SVF.createLiteral(cs.getValue()));
+                }
+                topCharacteristicSets.clear();
+            }
+        }
+
         private void writeStatement(Resource subj, IRI pred, Value obj) {
             if (writer == null) {
                 sail.addStatement(subj, pred, obj, statsGraphContext);
@@ -421,15 +807,160 @@ public class HalyardStats implements Tool {
 
         @Override
         protected void cleanup(Context context) throws IOException, InterruptedException {
+            writeAggregatedValues();
+            writeCharacteristicSets();
             if (writer == null) {
                 sail.commit();
-                sail.close();
+                sail.shutDown();
             } else {
                 writer.endRDF();
                 out.close();
             }
         }
     }
+    /**
+     * Folds the statistics deltas (collected by HBaseSail updates and Halyard Bulk Load) into the
+     * triples counts of the graphs and of their property partitions and removes the folded deltas.
+     * @param conf Configuration
+     * @param source String source HBase table name
+     * @return number of folded delta counters
+     * @throws IOException in case of HBase IO problems
+     */
+    static long foldStatsDeltas(Configuration conf, String source) throws IOException {
+        IRI statsContext = SVF.createIRI(conf.get(GRAPH_CONTEXT, HALYARD.STATS_GRAPH_CONTEXT.stringValue()));
+        HBaseSail sail = new HBaseSail(conf, source, false, 0, true, 0, null);
+        sail.initialize();
+        long folded = 0;
+        try (HTable table = HalyardTableUtils.getTable(conf, source, false, 0)) {
+            try (ResultScanner scanner = table.getScanner(HalyardTableUtils.statsDeltaScan())) {
+                for (Result r : scanner) {
+                    byte row[] = r.getRow();
+                    IRI graphNode = row.length > 1 ? NTriplesUtil.parseURI(new String(row, 1, row.length - 1, UTF8), SVF) : HALYARD.STATS_ROOT_NODE;
+                    Map<String, Long> deltas = new HashMap<>();
+                    List<Row> folds = new ArrayList<>();
+                    for (Cell c : r.rawCells()) {
+                        byte q[] = CellUtil.cloneQualifier(c);
+                        int i = 0;
+                        while (q[i] != 0) i++;
+                        long delta = Bytes.toLong(c.getValueArray(), c.getValueOffset(), c.getValueLength());
+                        deltas.merge(new String(q, 0, i, UTF8), delta, Long::sum);
+                        folds.add(statsDeltaRemoval(c));
+                    }
+                    for (Map.Entry<String, Long> me : deltas.entrySet()) {
+                        if (me.getKey().isEmpty()) {
+                            if (!foldTriples(sail, statsContext, graphNode, me.getValue()) && !HALYARD.STATS_ROOT_NODE.equals(graphNode)) {
+                                sail.addStatement(HALYARD.STATS_ROOT_NODE, SD.NAMED_GRAPH_PROPERTY, graphNode, statsContext);
+                                sail.addStatement(graphNode, SD.NAME, graphNode, statsContext);
+                                sail.addStatement(graphNode, SD.GRAPH_PROPERTY, graphNode, statsContext);
+                                sail.addStatement(graphNode, RDF.TYPE, SD.NAMED_GRAPH_CLASS, statsContext);
+                                sail.addStatement(graphNode, RDF.TYPE, SD.GRAPH_CLASS, statsContext);
+                                sail.addStatement(graphNode, RDF.TYPE, VOID.DATASET, statsContext);
+                            }
+                        } else {
+                            IRI subset = StatsReducer.propertyNode(graphNode.stringValue(), me.getKey());
+                            if (!foldTriples(sail, statsContext, subset, me.getValue())) {
+                                sail.addStatement(graphNode, VOID.PROPERTY_PARTITION, subset, statsContext);
+                                sail.addStatement(subset, RDF.TYPE, VOID.DATASET, statsContext);
+                                sail.addStatement(subset, VOID.PROPERTY, NTriplesUtil.parseURI(me.getKey(), SVF), statsContext);
+                            }
+                        }
+                    }
+                    sail.commit();
+                    table.batch(folds, new Object[folds.size()]);
+                    folded += folds.size();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        } finally {
+            sail.shutDown();
+        }
+        return folded;
+    }
+
+    private static boolean foldTriples(HBaseSail sail, IRI statsContext, Resource subj, long delta) {
+        long triples = 0;
+        List<Value> old = new ArrayList<>();
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(subj, VOID.TRIPLES, null, true, statsContext)) {
+            while (it.hasNext()) {
+                Value v = it.next().getObject();
+                if (v instanceof Literal) {
+                    triples += ((Literal)v).longValue();
+                }
+                old.add(v);
+            }
+        }
+        for (Value v : old) {
+            sail.removeStatement(null, subj, VOID.TRIPLES, v, statsContext);
+        }
+        sail.addStatement(subj, VOID.TRIPLES, SVF.createLiteral(Math.max(0, triples + delta)), statsContext);
+        return !old.isEmpty();
+    }
+
+    /**
+     * Creates the mutation removing the given statistics delta cell.
+     * Increments may be updated concurrently, so they are decremented instead of deleted,
+     * other cells are deleted up to their timestamp.
+     */
+    private static Row statsDeltaRemoval(Cell c) {
+        byte row[] = CellUtil.cloneRow(c);
+        byte q[] = CellUtil.cloneQualifier(c);
+        if (q[q.length - 1] == 0) {
+            return new Increment(row).addColumn(CellUtil.cloneFamily(c), q, -Bytes.toLong(c.getValueArray(), c.getValueOffset(), c.getValueLength()));
+        } else {
+            return new Delete(row).addColumns(CellUtil.cloneFamily(c), q, c.getTimestamp());
+        }
+    }
+
+    /**
+     * Removes the statistics written before the given timestamp, the statistics calculated since then are kept.
+     */
+    private static void clearStatistics(Configuration conf, String source, long timestamp) throws IOException {
+        IRI statsContext = SVF.createIRI(conf.get(GRAPH_CONTEXT, HALYARD.STATS_GRAPH_CONTEXT.stringValue()));
+        try (HTable table = HalyardTableUtils.getTable(conf, source, false, 0)) {
+            Scan scan = HalyardTableUtils.scan(null, null, null, statsContext);
+            scan.setTimeRange(0, timestamp);
+            List<Delete> deletes = new ArrayList<>();
+            try (ResultScanner scanner = table.getScanner(scan)) {
+                for (Result r : scanner) {
+                    for (Statement st : HalyardTableUtils.parseStatements(r)) {
+                        if (statsContext.equals(st.getContext())) {
+                            for (KeyValue kv : HalyardTableUtils.toKeyValues(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext())) {
+                                deletes.add(new Delete(CellUtil.cloneRow(kv)).addColumns(CellUtil.cloneFamily(kv), CellUtil.cloneQualifier(kv), timestamp));
+                            }
+                        }
+                    }
+                }
+            }
+            table.delete(deletes);
+            table.flushCommits();
+        }
+    }
+
+    /**
+     * Collects the removals of all the statistics deltas existing before the full update,
+     * so the deltas of concurrent updates are kept.
+     */
+    private static List<Row> statsDeltaRemovals(Configuration conf, String source) throws IOException {
+        List<Row> removals = new ArrayList<>();
+        try (HTable table = HalyardTableUtils.getTable(conf, source, false, 0)) {
+            try (ResultScanner scanner = table.getScanner(HalyardTableUtils.statsDeltaScan())) {
+                for (Result r : scanner) {
+                    for (Cell c : r.rawCells()) {
+                        removals.add(statsDeltaRemoval(c));
+                    }
+                }
+            }
+        }
+        return removals;
+    }
+
+    private static void clearStatsDeltas(Configuration conf, String source, List<Row> removals) throws IOException, InterruptedException {
+        try (HTable table = HalyardTableUtils.getTable(conf, source, false, 0)) {
+            table.batch(removals, new Object[removals.size()]);
+        }
+    }
+
     private static Option newOption(String opt, String argName, String description) {
         Option o = new Option(opt, null, argName != null, description);
         o.setArgName(argName);
@@ -447,6 +978,8 @@ public class HalyardStats implements Tool {
         options.addOption(newOption("v", null, "Prints version"));
         options.addOption(newOption("s", "source_htable", "Source HBase table with Halyard RDF store"));
         options.addOption(newOption("t", "target_url", "Optional target file to export the statistics (instead of update) hdfs://<path>/<file_name>[{0}].<RDF_ext>[.<compression>]"));
+        options.addOption(newOption("i", null, "Optional incremental update folding the statistics deltas collected since the last full update into the statistics (without MapReduce)"));
+        options.addOption(newOption("r", "sample_rate", "Optional sample rate (0 < rate < 1) to calculate approximate statistics from a sample of the dataset"));
         try {
             CommandLine cmd = new PosixParser().parse(options, args);
             if (args.length == 0 || cmd.hasOption('h')) {
@@ -465,12 +998,23 @@ public class HalyardStats implements Tool {
             for (char c : "s".toCharArray()) {
                 if (!cmd.hasOption(c))  throw new ExportException("Missing mandatory option: " + c);
             }
-            for (char c : "st".toCharArray()) {
+            for (char c : "str".toCharArray()) {
                 String s[] = cmd.getOptionValues(c);
                 if (s != null && s.length > 1)  throw new ExportException("Multiple values for option: " + c);
             }
             String source = cmd.getOptionValue('s');
             String target = cmd.getOptionValue('t');
+            double sampleRate = 1.0;
+            if (cmd.hasOption('r')) {
+                if (cmd.hasOption('i')) throw new ExportException("Incremental update can't be combined with sample rate option");
+                sampleRate = Double.parseDouble(cmd.getOptionValue('r'));
+                if (!(sampleRate > 0.0 && sampleRate < 1.0)) throw new ExportException("Sample rate must be between 0 and 1");
+            }
+            if (cmd.hasOption('i')) {
+                if (target != null) throw new ExportException("Incremental update can't be combined with target option");
+                LOG.info(MessageFormat.format("Folded {0} statistics deltas.", foldStatsDeltas(getConf(), source)));
+                return 0;
+            }
             TableMapReduceUtil.addDependencyJars(getConf(),
                    HalyardExport.class,
                    NTriplesUtil.class,
@@ -500,7 +1044,17 @@ public class HalyardStats implements Tool {
             scan.setMaxVersions(1);
             scan.setBatch(10);
             scan.setAllowPartialResults(true);
+            scan.setStopRow(new byte[]{HalyardTableUtils.STATS_DELTA_PREFIX});
+            if (sampleRate < 1.0) {
+                //the sample rate is rounded to the hash buckets
+                int buckets = (int)Math.max(1, Math.min(255, Math.round(sampleRate * 256)));
+                scan.setFilter(sampleFilter(buckets));
+                job.getConfiguration().setDouble(SAMPLE_RATE, buckets / 256.0);
+            }
 
+            //full update makes all the deltas existing before the job obsolete
+            long startTimestamp = System.currentTimeMillis();
+            List<Row> deltaRemovals = target == null ? statsDeltaRemovals(getConf(), source) : null;
             TableMapReduceUtil.initTableMapperJob(
                     source,
                     scan,
@@ -508,10 +1062,18 @@ public class HalyardStats implements Tool {
                     ImmutableBytesWritable.class,
                     LongWritable.class,
                     job);
+            job.setCombinerClass(StatsCombiner.class);
             job.setPartitionerClass(StatsPartitioner.class);
             job.setReducerClass(StatsReducer.class);
             job.setOutputFormatClass(NullOutputFormat.class);
             if (job.waitForCompletion(true)) {
+                //old statistics and deltas are removed only after the successful job
+                if (target == null) {
+                    if (sampleRate < 1.0) {
+                        clearStatistics(getConf(), source, startTimestamp);
+                    }
+                    clearStatsDeltas(getConf(), source, deltaRemovals);
+                }
                 LOG.info("Stats Generation Completed..");
                 return 0;
             }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.tools;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.sail.HBaseSail;
+import java.io.File;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.SailException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Sotona (MSD)
+ */
+public class HalyardBulkDeleteTest {
+
+    @Test
+    public void testBulkDelete() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkDeleteTable", true, 0, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI graph0 = vf.createIRI("http://whatever/graph0");
+        IRI graph1 = vf.createIRI("http://whatever/graph1");
+        for (int i = 0; i < 100; i++) {
+            IRI subj = vf.createIRI("http://whatever/subj" + i);
+            IRI pred = vf.createIRI("http://whatever/pred" + (i % 5));
+            sail.addStatement(subj, pred, vf.createLiteral(i));
+            sail.addStatement(subj, pred, vf.createLiteral(i), i % 2 == 0 ? graph0 : graph1);
+        }
+        sail.commit();
+        sail.shutDown();
+
+        File htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+        assertEquals(0, ToolRunner.run(new Configuration(HBaseServerTestInstance.getInstanceConfig()), new HalyardBulkDelete(), new String[]{"-D" + HalyardBulkDelete.CONTEXTS_PROPERTY + "=<http://whatever/graph0>", htableDir.toURI().toURL().toString(), "bulkDeleteTable"}));
+
+        sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkDeleteTable", false, 0, true, 0, null);
+        sail.initialize();
+        assertEquals(0, count(sail, graph0));
+        assertEquals(50, count(sail, graph1));
+        assertEquals(150, count(sail));
+        sail.shutDown();
+
+        htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+        assertEquals(0, ToolRunner.run(new Configuration(HBaseServerTestInstance.getInstanceConfig()), new HalyardBulkDelete(), new String[]{"-D" + HalyardBulkDelete.PREDICATE_PROPERTY + "=<http://whatever/pred1>", htableDir.toURI().toURL().toString(), "bulkDeleteTable"}));
+
+        sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkDeleteTable", false, 0, true, 0, null);
+        sail.initialize();
+        assertEquals(40, count(sail, graph1));
+        assertEquals(120, count(sail));
+        sail.shutDown();
+    }
+
+    private static int count(HBaseSail sail, Resource... contexts) throws SailException {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, null, null, true, contexts)) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testRunNoArgs() throws Exception {
+        assertEquals(-1, new HalyardBulkDelete().run(new String[0]));
+    }
+}
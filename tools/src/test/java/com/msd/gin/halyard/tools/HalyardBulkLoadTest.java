@@ -17,14 +17,35 @@
 package com.msd.gin.halyard.tools;
 
 import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
 import com.msd.gin.halyard.sail.HBaseSail;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
 import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
@@ -83,6 +104,109 @@ public class HalyardBulkLoadTest {
         assertTrue(c instanceof Literal);
         assertEquals(1000, ((Literal)c).intValue());
         rep.shutDown();
+
+        long triplesDelta = 0;
+        try (HTable table = HalyardTableUtils.getTable(HBaseServerTestInstance.getInstanceConfig(), "bulkLoadTable", false, 0)) {
+            try (ResultScanner rs = table.getScanner(HalyardTableUtils.statsDeltaScan())) {
+                for (Result r : rs) {
+                    if (r.getRow().length == 1) {
+                        for (Cell cell : r.rawCells()) {
+                            if (cell.getQualifierLength() > 0 && cell.getQualifierArray()[cell.getQualifierOffset()] == 0) {
+                                triplesDelta += Bytes.toLong(CellUtil.cloneValue(cell));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals(1000, triplesDelta);
+    }
+
+    @Test
+    public void testSplitLineBasedFiles() throws Exception {
+        File root = File.createTempFile("test_split", "");
+        root.delete();
+        root.mkdirs();
+        File nt = new File(root, "test.nt");
+        try (PrintStream ps = new PrintStream(nt)) {
+            for (int i = 0; i < 5000; i++) {
+                ps.print("_:b" + i + " <http://whatever/pred> \"value" + i + "\" .\n");
+                ps.print("<http://whatever/subj" + i + "> <http://whatever/link> _:b" + i + " .\r\n");
+            }
+        }
+        File nq = new File(root, "test.nq");
+        try (PrintStream ps = new PrintStream(nq)) {
+            for (int i = 0; i < 5000; i++) {
+                ps.print("<http://whatever/subj" + i + "> <http://whatever/pred> \"quad" + i + "\" <http://whatever/ctx" + (i % 7) + "> .\n");
+            }
+        }
+        Configuration conf = new Configuration();
+        conf.setInt(HalyardBulkLoad.PARSER_THREADS_PROPERTY, 3);
+        conf.set(HalyardBulkLoad.BNODE_SALT_PROPERTY, "job");
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        HalyardBulkLoad.RioFileInputFormat format = new HalyardBulkLoad.RioFileInputFormat();
+        assertTrue(format.isSplitable(context, new Path(nt.toURI())));
+        assertFalse(format.isSplitable(context, new Path(root.toURI().toString() + "/test.nt.gz")));
+        assertFalse(format.isSplitable(context, new Path(root.toURI().toString() + "/test.jsonld")));
+        Map<Value, Value> values = new HashMap<>(), links = new HashMap<>();
+        int quads = 0;
+        for (File f : new File[]{nt, nq}) {
+            //parts of arbitrary length cutting the lines
+            for (long offset = 0; offset < f.length(); offset += 7777) {
+                CombineFileSplit split = new CombineFileSplit(new Path[]{new Path(f.toURI())}, new long[]{offset}, new long[]{Math.min(7777, f.length() - offset)}, new String[0]);
+                try (RecordReader<LongWritable, Statement> reader = format.createRecordReader(split, context)) {
+                    reader.initialize(split, context);
+                    while (reader.nextKeyValue()) {
+                        Statement st = reader.getCurrentValue();
+                        if (st.getContext() != null) {
+                            quads++;
+                        } else if (st.getSubject() instanceof BNode) {
+                            assertNull(values.put(st.getObject(), st.getSubject()));
+                        } else {
+                            assertNull(links.put(st.getSubject(), st.getObject()));
+                        }
+                    }
+                    assertEquals(1.0f, reader.getProgress(), 0.0001f);
+                }
+            }
+        }
+        assertEquals(5000, quads);
+        assertEquals(5000, values.size());
+        assertEquals(5000, links.size());
+        SimpleValueFactory vf = SimpleValueFactory.getInstance();
+        for (int i = 0; i < 5000; i++) {
+            Value bnode = values.get(vf.createLiteral("value" + i));
+            assertNotNull(bnode);
+            assertEquals(bnode, links.get(vf.createIRI("http://whatever/subj" + i)));
+        }
+    }
+
+    @Test
+    public void testRepeatedLoadOfBlankNodes() throws Exception {
+        File root = File.createTempFile("test_bnodes", "");
+        root.delete();
+        root.mkdirs();
+        try (PrintStream ps = new PrintStream(new File(root, "test_bnodes.nt"))) {
+            ps.println("_:b1 <http://whatever/pred> \"value\" .");
+            ps.println("<http://whatever/subj> <http://whatever/link> _:b1 .");
+        }
+        for (int i = 0; i < 2; i++) {
+            File htableDir = File.createTempFile("test_htable", "");
+            htableDir.delete();
+            assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardBulkLoad(), new String[]{"-Dhalyard.table.splitbits=-1", root.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), "bulkLoadBNodesTable"}));
+        }
+        SailRepository rep = new SailRepository(new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkLoadBNodesTable", false, 0, true, 0, null));
+        rep.initialize();
+        try {
+            TupleQueryResult res = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select (count(distinct ?b) as ?c) (count(*) as ?j) where {<http://whatever/subj> <http://whatever/link> ?b . ?b <http://whatever/pred> \"value\"}").evaluate();
+            assertTrue(res.hasNext());
+            BindingSet bs = res.next();
+            //each load creates its own blank node, consistently linked within the load
+            assertEquals(2, ((Literal)bs.getValue("c")).intValue());
+            assertEquals(2, ((Literal)bs.getValue("j")).intValue());
+        } finally {
+            rep.shutDown();
+        }
     }
 
     @Test
@@ -17,6 +17,7 @@
 package com.msd.gin.halyard.tools;
 
 import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
 import com.msd.gin.halyard.sail.HALYARD;
 import com.msd.gin.halyard.sail.HBaseSail;
 import com.msd.gin.halyard.sail.VOID_EXT;
@@ -26,9 +27,14 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.MessageFormat;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.util.ToolRunner;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
@@ -180,6 +186,260 @@ public class HalyardStatsTest {
         sail.close();
     }
 
+    @Test
+    public void testStatsCharacteristicSets() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "statsTable3", true, -1, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI name = vf.createIRI("http://whatever/name");
+        IRI age = vf.createIRI("http://whatever/age");
+        for (int i = 0; i < 15; i++) {
+            IRI subj = vf.createIRI("http://whatever/subj" + i);
+            sail.addStatement(subj, name, vf.createLiteral("name " + i));
+            if (i < 10) {
+                sail.addStatement(subj, age, vf.createLiteral(i));
+                sail.addStatement(subj, age, vf.createLiteral(i + 100));
+            }
+        }
+        sail.commit();
+        sail.close();
+
+        File root = File.createTempFile("test_stats", "");
+        root.delete();
+        root.mkdirs();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable3", "-t", root.toURI().toURL().toString() + "stats{0}.trig"}));
+
+        File f = new File(root, "stats0.trig");
+        assertTrue(f.isFile());
+        Model m;
+        try (FileInputStream in = new FileInputStream(f)) {
+            m = Rio.parse(in, "", RDFFormat.TRIG);
+        }
+        Model sets = m.filter(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, null);
+        assertEquals(2, sets.size());
+        assertTrue(sets.contains(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("10\n20 <http://whatever/age>\n10 <http://whatever/name>")));
+        assertTrue(sets.contains(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("5\n5 <http://whatever/name>")));
+
+        //only the characteristic set with the most subjects is kept
+        assertEquals(0, ToolRunner.run(new Configuration(HBaseServerTestInstance.getInstanceConfig()), new HalyardStats(),
+                new String[]{"-D" + HalyardStats.CHARACTERISTIC_SETS_TOP + "=1", "-s", "statsTable3", "-t", root.toURI().toURL().toString() + "top{0}.trig"}));
+        try (FileInputStream in = new FileInputStream(new File(root, "top0.trig"))) {
+            m = Rio.parse(in, "", RDFFormat.TRIG);
+        }
+        sets = m.filter(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, null);
+        assertEquals(1, sets.size());
+        assertTrue(sets.contains(HALYARD.STATS_ROOT_NODE, HALYARD.CHARACTERISTIC_SET, vf.createLiteral("10\n20 <http://whatever/age>\n10 <http://whatever/name>")));
+    }
+
+    @Test
+    public void testStatsSubjectAcrossGraphs() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "statsTable7", true, -1, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI subj = vf.createIRI("http://whatever/subj");
+        IRI name = vf.createIRI("http://whatever/name");
+        //the same subject and property end one graph and start the other graph
+        sail.addStatement(subj, name, vf.createLiteral("name 0"), vf.createIRI("http://whatever/graph0"));
+        sail.addStatement(subj, name, vf.createLiteral("name 1"), vf.createIRI("http://whatever/graph1"));
+        sail.commit();
+        sail.close();
+
+        File root = File.createTempFile("test_stats", "");
+        root.delete();
+        root.mkdirs();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable7", "-t", root.toURI().toURL().toString() + "stats{0}.trig"}));
+
+        Model m;
+        try (FileInputStream in = new FileInputStream(new File(root, "stats0.trig"))) {
+            m = Rio.parse(in, "", RDFFormat.TRIG);
+        }
+        for (int i = 0; i < 2; i++) {
+            IRI graph = vf.createIRI("http://whatever/graph" + i);
+            assertTrue(m.contains(graph, VOID.TRIPLES, vf.createLiteral(1l)));
+            assertTrue(m.contains(graph, VOID.DISTINCT_SUBJECTS, vf.createLiteral(1l)));
+            assertTrue(m.contains(graph, VOID.PROPERTIES, vf.createLiteral(1l)));
+            assertTrue(m.contains(graph, VOID.DISTINCT_OBJECTS, vf.createLiteral(1l)));
+        }
+    }
+
+    @Test
+    public void testStatsPropertyStatistics() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "statsTable4", true, -1, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI age = vf.createIRI("http://whatever/age");
+        IRI status = vf.createIRI("http://whatever/status");
+        for (int i = 0; i < 100; i++) {
+            IRI subj = vf.createIRI("http://whatever/subj" + i);
+            sail.addStatement(subj, age, vf.createLiteral(i));
+            sail.addStatement(subj, age, vf.createLiteral(i + 1));
+            sail.addStatement(subj, status, vf.createLiteral(i < 70 ? "active" : i < 90 ? "inactive" : "status" + i));
+        }
+        sail.commit();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable4"}));
+
+        IRI ageNode = vf.createIRI(HALYARD.STATS_ROOT_NODE.stringValue() + "_property_" + HalyardStats.StatsReducer.ENC.encodeToString(HalyardTableUtils.hashKey("<http://whatever/age>".getBytes(StandardCharsets.UTF_8))));
+        IRI statusNode = vf.createIRI(HALYARD.STATS_ROOT_NODE.stringValue() + "_property_" + HalyardStats.StatsReducer.ENC.encodeToString(HalyardTableUtils.hashKey("<http://whatever/status>".getBytes(StandardCharsets.UTF_8))));
+        //property partitions are reported even below the subset threshold
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.PROPERTY_PARTITION, ageNode);
+        assertContains(sail, ageNode, VOID.TRIPLES, vf.createLiteral(200l));
+        assertContains(sail, ageNode, VOID.DISTINCT_SUBJECTS, vf.createLiteral(100l));
+        assertContains(sail, ageNode, VOID.DISTINCT_OBJECTS, vf.createLiteral(101l));
+        assertContains(sail, ageNode, HALYARD.HISTOGRAM_TRIPLES, vf.createLiteral(200l));
+        try (CloseableIteration<? extends Statement,SailException> it = sail.getStatements(ageNode, HALYARD.HISTOGRAM, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+            assertTrue(it.hasNext());
+            String bounds[] = it.next().getObject().stringValue().split(" ");
+            assertEquals(21, bounds.length);
+            assertEquals(0.0, Double.parseDouble(bounds[0]), 0.0);
+            assertEquals(100.0, Double.parseDouble(bounds[20]), 0.0);
+            assertEquals(50.0, Double.parseDouble(bounds[10]), 1.0);
+        }
+        assertContains(sail, statusNode, VOID.DISTINCT_SUBJECTS, vf.createLiteral(100l));
+        assertContains(sail, statusNode, VOID.DISTINCT_OBJECTS, vf.createLiteral(12l));
+        assertContains(sail, statusNode, HALYARD.MOST_COMMON_VALUES, vf.createLiteral("70 \"active\"\n20 \"inactive\""));
+        sail.close();
+    }
+
+    @Test
+    public void testStatsIncrementalUpdate() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "statsTable5", true, -1, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred");
+        IRI pred2 = vf.createIRI("http://whatever/pred2");
+        IRI graph = vf.createIRI("http://whatever/graph");
+        for (int i = 0; i < 100; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable5"}));
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(100l));
+
+        for (int i = 0; i < 10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), pred2, vf.createLiteral(i), graph);
+        }
+        for (int i = 0; i < 5; i++) {
+            sail.removeStatement(null, vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable5", "-i"}));
+
+        IRI predNode = HalyardStats.StatsReducer.propertyNode(HALYARD.STATS_ROOT_NODE.stringValue(), "<http://whatever/pred>");
+        IRI pred2Node = HalyardStats.StatsReducer.propertyNode(HALYARD.STATS_ROOT_NODE.stringValue(), "<http://whatever/pred2>");
+        IRI graphPred2Node = HalyardStats.StatsReducer.propertyNode(graph.stringValue(), "<http://whatever/pred2>");
+        //4 namespace statements persisted by the statistics update are counted as well
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(109l));
+        assertContains(sail, predNode, VOID.TRIPLES, vf.createLiteral(95l));
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.PROPERTY_PARTITION, pred2Node);
+        assertContains(sail, pred2Node, VOID.TRIPLES, vf.createLiteral(10l));
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, SD.NAMED_GRAPH_PROPERTY, graph);
+        assertContains(sail, graph, VOID.TRIPLES, vf.createLiteral(10l));
+        assertContains(sail, graphPred2Node, VOID.TRIPLES, vf.createLiteral(10l));
+        try (CloseableIteration<? extends Statement,SailException> it = sail.getStatements(HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+            it.next();
+            assertFalse(it.hasNext());
+        }
+
+        //folded deltas are not folded again
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable5", "-i"}));
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(109l));
+        sail.close();
+    }
+
+    @Test
+    public void testStatsFailedUpdate() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "statsTable8", true, -1, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred");
+        for (int i = 0; i < 100; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable8"}));
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(100l));
+
+        for (int i = 100; i < 110; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+
+        //invalid configuration fails the mappers
+        assertEquals(-1, ToolRunner.run(new Configuration(HBaseServerTestInstance.getInstanceConfig()), new HalyardStats(),
+                new String[]{"-D" + HalyardStats.CHARACTERISTIC_SET_MAX_SIZE + "=invalid", "-s", "statsTable8", "-r", "0.5"}));
+        //the old statistics and the deltas survive the failed job
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(100l));
+        assertFalse(sail.getStatements(HALYARD.STATS_ROOT_NODE, HALYARD.SAMPLE_RATE, null, true, HALYARD.STATS_GRAPH_CONTEXT).hasNext());
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable8", "-i"}));
+        //4 namespace statements persisted by the first statistics update are counted as well
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES, vf.createLiteral(114l));
+        sail.close();
+    }
+
+    @Test
+    public void testStatsSampling() throws Exception {
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "statsTable6", true, -1, true, 0, null);
+        sail.initialize();
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        for (int i = 0; i < 2000; i++) {
+            IRI subj = vf.createIRI("http://whatever/subj" + i);
+            for (int j = 0; j < 3; j++) {
+                sail.addStatement(subj, vf.createIRI("http://whatever/pred" + j), vf.createLiteral(i * 3 + j));
+            }
+        }
+        sail.commit();
+
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardStats(),
+                new String[]{"-s", "statsTable6", "-r", "0.25"}));
+
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, HALYARD.SAMPLE_RATE, vf.createLiteral(0.25));
+        assertContains(sail, HALYARD.STATS_ROOT_NODE, VOID.PROPERTIES, vf.createLiteral(3l));
+        assertEquals(6000, getCount(sail, HALYARD.STATS_ROOT_NODE, VOID.TRIPLES), 900);
+        assertEquals(2000, getCount(sail, HALYARD.STATS_ROOT_NODE, VOID.DISTINCT_SUBJECTS), 300);
+        assertEquals(6000, getCount(sail, HALYARD.STATS_ROOT_NODE, VOID.DISTINCT_OBJECTS), 900);
+        assertTrue(getCount(sail, HALYARD.STATS_ROOT_NODE, HALYARD.TRIPLES_ERROR_BOUND) > 0);
+        sail.close();
+    }
+
+    private static long getCount(HBaseSail sail, Resource subj, IRI pred) {
+        try (CloseableIteration<? extends Statement,SailException> it = sail.getStatements(subj, pred, null, true, HALYARD.STATS_GRAPH_CONTEXT)) {
+            assertTrue(it.hasNext());
+            return ((Literal)it.next().getObject()).longValue();
+        }
+    }
+
+    @Test
+    public void testStatsPartitioner() throws Exception {
+        HalyardStats.StatsPartitioner partitioner = new HalyardStats.StatsPartitioner();
+        byte graph[] = HALYARD.STATS_ROOT_NODE.stringValue().getBytes(StandardCharsets.UTF_8);
+        //all values of a property meet at the same reducer
+        int partition = partitioner.getPartition(new ImmutableBytesWritable(HalyardStats.statsKey(graph, HALYARD.HISTOGRAM, "<http://whatever/age>\n1.0")), null, 16);
+        for (int i = 2; i < 100; i++) {
+            assertEquals(partition, partitioner.getPartition(new ImmutableBytesWritable(HalyardStats.statsKey(graph, HALYARD.HISTOGRAM, "<http://whatever/age>\n" + i + ".0")), null, 16));
+        }
+        //subsets of a single graph are spread over the reducers
+        Set<Integer> partitions = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            partitions.add(partitioner.getPartition(new ImmutableBytesWritable(HalyardStats.statsKey(graph, VOID_EXT.SUBJECT, "<http://whatever/subj" + i + ">")), null, 16));
+        }
+        assertTrue(partitions.size() > 1);
+    }
+
     private static void assertContains(HBaseSail sail, Resource subj, IRI pred, Value obj) {
         try (CloseableIteration<? extends Statement,SailException> it = sail.getStatements(subj, pred, obj, true, HALYARD.STATS_GRAPH_CONTEXT)) {
             if (!it.hasNext()) {